@@ -0,0 +1,116 @@
+#!/bin/bash
+
+# =============================================================================
+# Redis local com vários processos - Kafka Consumer Demo
+# =============================================================================
+# Sobe N processos redis-server locais para testar as topologias cluster e
+# sharded do store de idempotência (app.redis.topology).
+#
+# Uso:
+#   ./run-redis-shards.sh [comando] [opções]
+#
+# Comandos:
+#   sharded      - N primários independentes (hash consistente no cliente)
+#   cluster      - Redis Cluster com N primários, sem réplicas (mínimo 3)
+#   stop         - Encerra os processos iniciados por este script
+#
+# Opções:
+#   -n, --nodes  Número de processos (padrão: 3)
+#   -p, --port   Primeira porta (padrão: 7001)
+#   -h, --help   Mostra esta ajuda
+#
+# Requer redis-server e redis-cli 7.4+ no PATH.
+# =============================================================================
+
+set -e
+
+NODES="${REDIS_NODES:-3}"
+BASE_PORT="${REDIS_BASE_PORT:-7001}"
+DATA_DIR="${REDIS_SHARDS_DIR:-/tmp/redis-shards}"
+
+show_help() {
+    sed -n '3,22p' "$0" | sed 's/^# \{0,1\}//'
+}
+
+start_nodes() {
+    local cluster_enabled=$1
+    mkdir -p "$DATA_DIR"
+
+    for ((i = 0; i < NODES; i++)); do
+        local port=$((BASE_PORT + i))
+        local dir="$DATA_DIR/$port"
+        mkdir -p "$dir"
+
+        redis-server --port "$port" --dir "$dir" --daemonize yes \
+            --pidfile "$dir/redis.pid" --logfile "$dir/redis.log" \
+            --save "" --appendonly no \
+            --cluster-enabled "$cluster_enabled" --cluster-config-file "$dir/nodes.conf"
+
+        until redis-cli -p "$port" ping > /dev/null 2>&1; do
+            sleep 0.1
+        done
+        echo "redis-server em 127.0.0.1:$port"
+    done
+}
+
+node_list() {
+    local nodes=()
+    for ((i = 0; i < NODES; i++)); do
+        nodes+=("127.0.0.1:$((BASE_PORT + i))")
+    done
+    local IFS=','
+    echo "${nodes[*]}"
+}
+
+stop_nodes() {
+    for pidfile in "$DATA_DIR"/*/redis.pid; do
+        [ -f "$pidfile" ] || continue
+        kill "$(cat "$pidfile")" 2> /dev/null || true
+        rm -f "$pidfile"
+    done
+    rm -rf "$DATA_DIR"
+    echo "Processos encerrados"
+}
+
+COMMAND="${1:-sharded}"
+shift || true
+
+while [[ $# -gt 0 ]]; do
+    case $1 in
+        -n|--nodes) NODES="$2"; shift 2 ;;
+        -p|--port) BASE_PORT="$2"; shift 2 ;;
+        -h|--help) show_help; exit 0 ;;
+        *) echo "Opção desconhecida: $1"; show_help; exit 1 ;;
+    esac
+done
+
+case $COMMAND in
+    sharded)
+        start_nodes no
+        echo
+        echo "export REDIS_TOPOLOGY=sharded"
+        echo "export REDIS_SHARDS=$(node_list)"
+        ;;
+    cluster)
+        if [ "$NODES" -lt 3 ]; then
+            echo "Redis Cluster requer pelo menos 3 primários"
+            exit 1
+        fi
+        start_nodes yes
+        redis-cli --cluster create $(node_list | tr ',' ' ') --cluster-replicas 0 --cluster-yes
+        echo
+        echo "export REDIS_TOPOLOGY=cluster"
+        echo "export REDIS_CLUSTER_NODES=$(node_list)"
+        ;;
+    stop)
+        stop_nodes
+        ;;
+    -h|--help|help)
+        show_help
+        ;;
+    *)
+        echo "Comando desconhecido: $COMMAND"
+        show_help
+        exit 1
+        ;;
+esac
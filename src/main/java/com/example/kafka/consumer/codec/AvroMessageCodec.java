@@ -0,0 +1,152 @@
+package com.example.kafka.consumer.codec;
+
+import com.example.kafka.consumer.dto.MessageDto;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.Schema;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.kafka.common.errors.SerializationException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+
+/**
+ * Codec binário Avro com schema em arquivo local (app.kafka.codec.avro-schema).
+ *
+ * Sem nomes de campo, aspas nem escapes no registro: o payload vai como string
+ * com prefixo de tamanho e o timestamp como long (micros). Registros bem menores
+ * cabem em maior número no mesmo max.partition.fetch.bytes e são mais baratos
+ * de decodificar.
+ *
+ * A codificação segue diretamente a ordem de campos do schema, sem GenericRecord
+ * intermediário; no startup o schema carregado é validado contra essa ordem.
+ * Como o schema é local e não viaja com o registro, uma mudança incompatível
+ * exige um novo nome de codec.
+ */
+@Component
+@Slf4j
+public class AvroMessageCodec implements MessageCodec {
+
+    public static final String NAME = "avro";
+
+    private static final List<String> FIELD_ORDER = List.of(
+            "message_id", "event_type", "payload", "timestamp", "source", "correlation_id");
+
+    private static final int NULL_BRANCH = 0;
+    private static final int VALUE_BRANCH = 1;
+
+    private final StringInterner interner = new StringInterner();
+
+    public AvroMessageCodec(
+            @Value("${app.kafka.codec.avro-schema:classpath:avro/message-dto.avsc}") Resource schemaResource)
+            throws IOException {
+
+        Schema schema;
+        try (InputStream in = schemaResource.getInputStream()) {
+            schema = new Schema.Parser().parse(in);
+        }
+
+        List<String> fields = schema.getFields().stream().map(Schema.Field::name).toList();
+        if (!FIELD_ORDER.equals(fields)) {
+            throw new IllegalStateException("Avro schema " + schemaResource + " has fields " + fields
+                    + ", expected " + FIELD_ORDER);
+        }
+        for (String optional : List.of("timestamp", "source", "correlation_id")) {
+            Schema type = schema.getField(optional).schema();
+            if (type.getType() != Schema.Type.UNION || type.getTypes().get(NULL_BRANCH).getType() != Schema.Type.NULL) {
+                throw new IllegalStateException("Avro field " + optional + " must be a union with null first");
+            }
+        }
+
+        log.info("Avro message codec loaded schema {} from {}", schema.getFullName(), schemaResource);
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(MessageDto message) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(out, null);
+
+        try {
+            encoder.writeString(message.getMessageId());
+            encoder.writeString(message.getEventType());
+            encoder.writeString(message.getPayload());
+            writeOptionalMicros(encoder, message.getTimestamp());
+            writeOptionalString(encoder, message.getSource());
+            writeOptionalString(encoder, message.getCorrelationId());
+            encoder.flush();
+        } catch (IOException | NullPointerException e) {
+            throw new SerializationException("Error serializing MessageDto " + message.getMessageId() + " as Avro", e);
+        }
+
+        return out.toByteArray();
+    }
+
+    @Override
+    public MessageDto decode(byte[] data) {
+        BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(data, null);
+
+        try {
+            MessageDto message = new MessageDto();
+            message.setMessageId(decoder.readString());
+            message.setEventType(interner.intern(decoder.readString()));
+            message.setPayload(decoder.readString());
+            message.setTimestamp(readOptionalMicros(decoder));
+            message.setSource(interner.intern(readOptionalString(decoder)));
+            message.setCorrelationId(readOptionalString(decoder));
+            return message;
+        } catch (IOException | RuntimeException e) {
+            throw new SerializationException("Error deserializing Avro MessageDto", e);
+        }
+    }
+
+    private static void writeOptionalString(BinaryEncoder encoder, String value) throws IOException {
+        if (value == null) {
+            encoder.writeIndex(NULL_BRANCH);
+        } else {
+            encoder.writeIndex(VALUE_BRANCH);
+            encoder.writeString(value);
+        }
+    }
+
+    private static String readOptionalString(BinaryDecoder decoder) throws IOException {
+        return decoder.readIndex() == NULL_BRANCH ? null : decoder.readString();
+    }
+
+    /**
+     * local-timestamp-micros: micros desde a época sem fuso, calculados como se fosse UTC.
+     */
+    private static void writeOptionalMicros(BinaryEncoder encoder, LocalDateTime value) throws IOException {
+        if (value == null) {
+            encoder.writeIndex(NULL_BRANCH);
+        } else {
+            encoder.writeIndex(VALUE_BRANCH);
+            encoder.writeLong(value.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + value.getNano() / 1_000);
+        }
+    }
+
+    private static LocalDateTime readOptionalMicros(BinaryDecoder decoder) throws IOException {
+        if (decoder.readIndex() == NULL_BRANCH) {
+            return null;
+        }
+
+        long micros = decoder.readLong();
+        return LocalDateTime.ofEpochSecond(
+                Math.floorDiv(micros, 1_000_000L),
+                (int) Math.floorMod(micros, 1_000_000L) * 1_000,
+                ZoneOffset.UTC);
+    }
+}
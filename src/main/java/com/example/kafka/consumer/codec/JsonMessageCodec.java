@@ -0,0 +1,121 @@
+package com.example.kafka.consumer.codec;
+
+import com.example.kafka.consumer.dto.MessageDto;
+import com.example.kafka.consumer.dto.RawJsonString;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.apache.kafka.common.errors.SerializationException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+
+/**
+ * Codec JSON (padrão). A leitura é feita direto dos bytes do registro, sem passar por String.
+ *
+ * - O parser é criado a partir de um ObjectReader pré-resolvido e reutilizado
+ *   (a configuração e o JavaTimeModule do ObjectMapper da aplicação valem aqui).
+ * - O payload, que é JSON dentro de uma string JSON, não é decodificado: guarda
+ *   apenas a fatia de bytes ({@link RawJsonString}) e só vira String se for lido.
+ * - eventType e source têm poucos valores distintos e são internados, para que
+ *   milhões de registros compartilhem as mesmas instâncias.
+ */
+@Component
+public class JsonMessageCodec implements MessageCodec {
+
+    private final ObjectReader reader;
+    private final ObjectWriter writer;
+    private final ObjectReader timestampReader;
+    private final StringInterner interner = new StringInterner();
+
+    public JsonMessageCodec(ObjectMapper objectMapper) {
+        this.reader = objectMapper.readerFor(MessageDto.class);
+        // Datas em ISO-8601, como o JsonSerializer do spring-kafka usado antes do SPI
+        this.writer = objectMapper.writerFor(MessageDto.class)
+                .without(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        this.timestampReader = objectMapper.readerFor(LocalDateTime.class);
+    }
+
+    @Override
+    public String name() {
+        return MessageCodecs.DEFAULT_CODEC;
+    }
+
+    @Override
+    public byte[] encode(MessageDto message) {
+        try {
+            return writer.writeValueAsBytes(message);
+        } catch (JsonProcessingException e) {
+            throw new SerializationException("Error serializing MessageDto " + message.getMessageId(), e);
+        }
+    }
+
+    @Override
+    public MessageDto decode(byte[] data) {
+        try (JsonParser parser = reader.createParser(data)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new SerializationException("Expected a JSON object");
+            }
+
+            MessageDto message = new MessageDto();
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+
+                switch (field) {
+                    case "message_id" -> message.setMessageId(parser.getValueAsString());
+                    case "event_type" -> message.setEventType(interner.intern(parser.getValueAsString()));
+                    case "source" -> message.setSource(interner.intern(parser.getValueAsString()));
+                    case "correlation_id" -> message.setCorrelationId(parser.getValueAsString());
+                    case "timestamp" -> message.setTimestamp(value == JsonToken.VALUE_NULL
+                            ? null
+                            : timestampReader.readValue(parser));
+                    case "payload" -> {
+                        if (value == JsonToken.VALUE_STRING) {
+                            message.setRawPayload(slice(data, (int) parser.currentTokenLocation().getByteOffset()));
+                        } else if (value != JsonToken.VALUE_NULL) {
+                            // Payload enviado como objeto JSON em vez de string
+                            message.setPayload(parser.readValueAsTree().toString());
+                        }
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+
+            return message;
+
+        } catch (IOException e) {
+            throw new SerializationException("Error deserializing MessageDto", e);
+        }
+    }
+
+    /**
+     * Delimita o literal de string que começa em {@code start} (aspa de abertura).
+     * Em UTF-8 os bytes de '"' e '\' nunca aparecem dentro de caracteres multibyte,
+     * então a varredura byte a byte é segura.
+     */
+    private static RawJsonString slice(byte[] data, int start) {
+        boolean escaped = false;
+        int i = start + 1;
+
+        while (i < data.length) {
+            byte b = data[i];
+            if (b == '\\') {
+                escaped = true;
+                i += 2;
+            } else if (b == '"') {
+                return new RawJsonString(data, start, i - start + 1, escaped);
+            } else {
+                i++;
+            }
+        }
+
+        throw new SerializationException("Unterminated payload string at byte " + start);
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.kafka.consumer.codec;
+
+import com.example.kafka.consumer.dto.MessageDto;
+
+/**
+ * Formato de serialização do corpo dos registros do tópico principal.
+ *
+ * O codec de cada registro é identificado pelo header
+ * {@link com.example.kafka.consumer.dto.MessageHeaders#CODEC}; registros sem o
+ * header são JSON (formato anterior ao SPI). Assim um tópico pode ter
+ * registros de codecs diferentes durante uma migração.
+ *
+ * Implementações são beans do Spring e são descobertas pelo {@link MessageCodecs}.
+ */
+public interface MessageCodec {
+
+    /**
+     * Valor gravado no header codec (ex.: "json", "avro").
+     */
+    String name();
+
+    byte[] encode(MessageDto message);
+
+    /**
+     * @throws org.apache.kafka.common.errors.SerializationException se os bytes forem inválidos
+     */
+    MessageDto decode(byte[] data);
+}
@@ -0,0 +1,71 @@
+package com.example.kafka.consumer.codec;
+
+import com.example.kafka.consumer.dto.MessageHeaders;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registro dos {@link MessageCodec} disponíveis e do codec usado pelo producer
+ * (app.kafka.codec.producer).
+ */
+@Component
+@Slf4j
+public class MessageCodecs {
+
+    /** Codec assumido para registros sem header, produzidos antes do SPI. */
+    public static final String DEFAULT_CODEC = "json";
+
+    private final Map<String, MessageCodec> codecs = new HashMap<>();
+    private final MessageCodec producerCodec;
+
+    public MessageCodecs(
+            List<MessageCodec> available,
+            @Value("${app.kafka.codec.producer:json}") String producerCodecName) {
+
+        for (MessageCodec codec : available) {
+            codecs.put(codec.name(), codec);
+        }
+
+        this.producerCodec = codecs.get(producerCodecName);
+        if (producerCodec == null) {
+            throw new IllegalStateException("Unknown message codec '" + producerCodecName
+                    + "', available: " + codecs.keySet());
+        }
+
+        log.info("Message codecs available: {}, producer codec: {}", codecs.keySet(), producerCodecName);
+    }
+
+    public MessageCodec producerCodec() {
+        return producerCodec;
+    }
+
+    public MessageCodec defaultCodec() {
+        return codecs.get(DEFAULT_CODEC);
+    }
+
+    /**
+     * Codec indicado pelo header do registro, ou o padrão se o header não existir.
+     */
+    public MessageCodec forHeaders(Headers headers) {
+        Header header = headers != null ? headers.lastHeader(MessageHeaders.CODEC) : null;
+        if (header == null || header.value() == null) {
+            return defaultCodec();
+        }
+
+        String name = new String(header.value(), StandardCharsets.UTF_8);
+        MessageCodec codec = codecs.get(name);
+        if (codec == null) {
+            throw new SerializationException("Unknown message codec '" + name + "'");
+        }
+        return codec;
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.kafka.consumer.codec;
+
+import com.example.kafka.consumer.dto.MessageDto;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.springframework.stereotype.Component;
+
+/**
+ * Deserializer de MessageDto do consumer: escolhe o codec pelo header
+ * {@link com.example.kafka.consumer.dto.MessageHeaders#CODEC} de cada registro.
+ *
+ * Em caso de erro lança SerializationException; o chamador ainda tem os bytes
+ * originais para enviar à DLQ.
+ */
+@Component
+public class MessageDtoDeserializer implements Deserializer<MessageDto> {
+
+    private final MessageCodecs codecs;
+
+    public MessageDtoDeserializer(MessageCodecs codecs) {
+        this.codecs = codecs;
+    }
+
+    @Override
+    public MessageDto deserialize(String topic, Headers headers, byte[] data) {
+        return data != null ? codecs.forHeaders(headers).decode(data) : null;
+    }
+
+    @Override
+    public MessageDto deserialize(String topic, byte[] data) {
+        return data != null ? codecs.defaultCodec().decode(data) : null;
+    }
+}
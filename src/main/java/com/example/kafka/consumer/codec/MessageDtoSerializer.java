@@ -0,0 +1,43 @@
+package com.example.kafka.consumer.codec;
+
+import com.example.kafka.consumer.dto.MessageDto;
+import com.example.kafka.consumer.dto.MessageHeaders;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Serializer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serializer de MessageDto do producer: codifica com o codec configurado e
+ * grava o nome dele no header {@link MessageHeaders#CODEC}.
+ */
+@Component
+public class MessageDtoSerializer implements Serializer<MessageDto> {
+
+    private final MessageCodecs codecs;
+
+    public MessageDtoSerializer(MessageCodecs codecs) {
+        this.codecs = codecs;
+    }
+
+    @Override
+    public byte[] serialize(String topic, Headers headers, MessageDto data) {
+        if (data == null) {
+            return null;
+        }
+
+        MessageCodec codec = codecs.producerCodec();
+        headers.remove(MessageHeaders.CODEC);
+        headers.add(MessageHeaders.CODEC, codec.name().getBytes(StandardCharsets.UTF_8));
+        return codec.encode(data);
+    }
+
+    /**
+     * Sem headers não há como identificar o codec: usa o padrão.
+     */
+    @Override
+    public byte[] serialize(String topic, MessageDto data) {
+        return data != null ? codecs.defaultCodec().encode(data) : null;
+    }
+}
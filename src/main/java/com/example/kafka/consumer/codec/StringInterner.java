@@ -0,0 +1,34 @@
+package com.example.kafka.consumer.codec;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interna campos de baixa cardinalidade (eventType, source) para que milhões
+ * de registros compartilhem as mesmas instâncias de String.
+ */
+final class StringInterner {
+
+    /** Acima disso os valores não são mais internados (proteção contra cardinalidade alta). */
+    private static final int MAX_INTERNED = 1024;
+
+    private final Map<String, String> interned = new ConcurrentHashMap<>();
+
+    String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+
+        String canonical = interned.get(value);
+        if (canonical != null) {
+            return canonical;
+        }
+
+        if (interned.size() >= MAX_INTERNED) {
+            return value;
+        }
+
+        canonical = interned.putIfAbsent(value, value);
+        return canonical != null ? canonical : value;
+    }
+}
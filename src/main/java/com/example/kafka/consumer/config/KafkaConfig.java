@@ -1,11 +1,18 @@
 package com.example.kafka.consumer.config;
 
+import com.example.kafka.consumer.codec.MessageDtoSerializer;
+import com.example.kafka.consumer.consumer.CompositeRebalanceListener;
+import com.example.kafka.consumer.consumer.HighVolumeKafkaConsumer;
+import com.example.kafka.consumer.consumer.OffsetCommitTracker;
+import com.example.kafka.consumer.consumer.PartitionDedupeCache;
 import com.example.kafka.consumer.dto.MessageDto;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.springframework.beans.factory.annotation.Value;
@@ -16,7 +23,6 @@ import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.core.*;
 import org.springframework.kafka.listener.ContainerProperties;
 import org.springframework.kafka.support.serializer.ErrorHandlingDeserializer;
-import org.springframework.kafka.support.serializer.JsonSerializer;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -44,17 +50,22 @@ public class KafkaConfig {
     @Value("${spring.kafka.consumer.properties.max.poll.interval.ms:300000}")
     private int maxPollIntervalMs;
     
+    @Value("${app.kafka.offset-commit.idle-interval-ms:1000}")
+    private long offsetCommitIdleIntervalMs;
+    
     @Bean
-    public ConsumerFactory<String, String> consumerFactory() {
+    public ConsumerFactory<String, byte[]> consumerFactory() {
         Map<String, Object> props = new HashMap<>();
         
         props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         props.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
         
         props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, ErrorHandlingDeserializer.class);
-        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ErrorHandlingDeserializer.class);
         props.put(ErrorHandlingDeserializer.KEY_DESERIALIZER_CLASS, StringDeserializer.class);
-        props.put(ErrorHandlingDeserializer.VALUE_DESERIALIZER_CLASS, StringDeserializer.class);
+        
+        // Valor chega como byte[]: o MessageDtoDeserializer roda nas lanes, fora da thread
+        // do poll, e os bytes originais seguem intactos para a DLQ em caso de erro
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
         
         props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
         props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
@@ -78,10 +89,13 @@ public class KafkaConfig {
     }
     
     @Bean
-    public ConcurrentKafkaListenerContainerFactory<String, String> kafkaListenerContainerFactory(
-            ConsumerFactory<String, String> consumerFactory) {
+    public ConcurrentKafkaListenerContainerFactory<String, byte[]> kafkaListenerContainerFactory(
+            ConsumerFactory<String, byte[]> consumerFactory,
+            OffsetCommitTracker offsetCommitTracker,
+            PartitionDedupeCache partitionDedupeCache,
+            HighVolumeKafkaConsumer highVolumeKafkaConsumer) {
         
-        ConcurrentKafkaListenerContainerFactory<String, String> factory =
+        ConcurrentKafkaListenerContainerFactory<String, byte[]> factory =
                 new ConcurrentKafkaListenerContainerFactory<>();
         
         factory.setConsumerFactory(consumerFactory);
@@ -90,6 +104,13 @@ public class KafkaConfig {
         factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
         factory.getContainerProperties().setPollTimeout(3000);
         
+        // Lanes das partições revogadas fecham antes do commit da revogação, feito
+        // pelo OffsetCommitTracker somente sobre registros concluídos; o estado
+        // de deduplicação acompanha as partições atribuídas
+        factory.getContainerProperties().setConsumerRebalanceListener(
+                new CompositeRebalanceListener(highVolumeKafkaConsumer, offsetCommitTracker, partitionDedupeCache));
+        factory.getContainerProperties().setIdleEventInterval(offsetCommitIdleIntervalMs);
+        
         factory.setCommonErrorHandler(new org.springframework.kafka.listener.DefaultErrorHandler(
             (record, exception) -> {
                 log.error("Error processing record: {}", record, exception);
@@ -109,36 +130,34 @@ public class KafkaConfig {
         return mapper;
     }
     
-    // ========== PRODUCER CONFIGURATION FOR String (DLQ) ==========
+    // ========== PRODUCER CONFIGURATION FOR byte[] (DLQ) ==========
     
     @Bean
-    public ProducerFactory<String, String> stringProducerFactory() {
+    public ProducerFactory<String, byte[]> dlqProducerFactory() {
         Map<String, Object> configProps = new HashMap<>();
         configProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         configProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
-        configProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        configProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
         configProps.put(ProducerConfig.ACKS_CONFIG, "all");
         configProps.put(ProducerConfig.RETRIES_CONFIG, 3);
         configProps.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
         
-        log.info("String ProducerFactory configured with bootstrap-servers={}", bootstrapServers);
+        log.info("DLQ ProducerFactory configured with bootstrap-servers={}", bootstrapServers);
         return new DefaultKafkaProducerFactory<>(configProps);
     }
     
     @Bean
-    public KafkaTemplate<String, String> kafkaTemplate(
-            ProducerFactory<String, String> stringProducerFactory) {
-        return new KafkaTemplate<>(stringProducerFactory);
+    public KafkaTemplate<String, byte[]> kafkaTemplate(
+            ProducerFactory<String, byte[]> dlqProducerFactory) {
+        return new KafkaTemplate<>(dlqProducerFactory);
     }
     
     // ========== PRODUCER CONFIGURATION FOR MessageDto ==========
     
     @Bean
-    public ProducerFactory<String, MessageDto> messageDtoProducerFactory() {
+    public ProducerFactory<String, MessageDto> messageDtoProducerFactory(MessageDtoSerializer messageDtoSerializer) {
         Map<String, Object> configProps = new HashMap<>();
         configProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
-        configProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
-        configProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, JsonSerializer.class);
         
         // Performance configurations
         configProps.put(ProducerConfig.ACKS_CONFIG, "all");
@@ -152,7 +171,8 @@ public class KafkaConfig {
         
         log.info("MessageDto ProducerFactory configured with bootstrap-servers={}", bootstrapServers);
         
-        return new DefaultKafkaProducerFactory<>(configProps);
+        // Corpo codificado pelo MessageCodec configurado (header codec identifica o formato)
+        return new DefaultKafkaProducerFactory<>(configProps, new StringSerializer(), messageDtoSerializer);
     }
     
     @Bean
@@ -1,21 +1,34 @@
 package com.example.kafka.consumer.config;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import io.lettuce.core.ClientOptions;
+import io.lettuce.core.TimeoutOptions;
+import io.lettuce.core.api.StatefulConnection;
+import io.lettuce.core.cluster.ClusterClientOptions;
+import io.lettuce.core.cluster.ClusterTopologyRefreshOptions;
+import io.lettuce.core.metrics.MicrometerCommandLatencyRecorder;
+import io.lettuce.core.metrics.MicrometerOptions;
+import io.lettuce.core.resource.ClientResources;
+import io.lettuce.core.resource.DefaultClientResources;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.commonspool2.CommonsObjectPool2Metrics;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.Redisson;
-import org.redisson.api.RedissonClient;
-import org.redisson.codec.JsonJacksonCodec;
-import org.redisson.config.Config;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisClusterConfiguration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
 import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettucePoolingClientConfiguration;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
+import java.time.Duration;
+import java.util.List;
+
 @Configuration
 @Slf4j
 public class RedisConfig {
@@ -29,73 +42,108 @@ public class RedisConfig {
     @Value("${spring.data.redis.password:#{null}}")
     private String redisPassword;
     
-    @Value("${spring.data.redis.redisson.connection-pool-size:100}")
-    private int connectionPoolSize;
+    @Value("${app.redis.topology:standalone}")
+    private RedisTopology topology;
+    
+    @Value("${spring.data.redis.cluster.nodes:}")
+    private List<String> clusterNodes;
+    
+    @Value("${spring.data.redis.cluster.max-redirects:3}")
+    private int clusterMaxRedirects;
+    
+    @Value("${spring.data.redis.timeout:3000}")
+    private Duration commandTimeout;
     
-    @Value("${spring.data.redis.redisson.connection-minimum-idle-size:24}")
-    private int connectionMinimumIdleSize;
+    @Value("${spring.data.redis.lettuce.pool.max-active:16}")
+    private int poolMaxActive;
     
-    @Value("${spring.data.redis.redisson.idle-connection-timeout:10000}")
-    private int idleConnectionTimeout;
+    @Value("${spring.data.redis.lettuce.pool.max-idle:16}")
+    private int poolMaxIdle;
     
-    @Value("${spring.data.redis.redisson.timeout:3000}")
-    private int timeout;
+    @Value("${spring.data.redis.lettuce.pool.min-idle:4}")
+    private int poolMinIdle;
     
-    @Value("${spring.data.redis.redisson.retry-attempts:3}")
-    private int retryAttempts;
+    @Value("${spring.data.redis.lettuce.pool.max-wait:1000}")
+    private Duration poolMaxWait;
     
-    @Value("${spring.data.redis.redisson.retry-interval:1500}")
-    private int retryInterval;
+    @Value("${spring.data.redis.lettuce.pool.time-between-eviction-runs:30000}")
+    private Duration poolEvictionInterval;
     
-    @Value("${spring.data.redis.redisson.threads:16}")
-    private int threads;
+    @Value("${app.redis.io-threads:4}")
+    private int ioThreads;
     
-    @Value("${spring.data.redis.redisson.netty-threads:32}")
-    private int nettyThreads;
+    @Value("${app.redis.computation-threads:4}")
+    private int computationThreads;
+    
+    /**
+     * Event loops e timers do Lettuce, compartilhados pela conexão principal e
+     * pelos shards do {@link com.example.kafka.consumer.service.RedisShards}.
+     * A latência de cada comando vira histograma em lettuce.command.completion
+     * e lettuce.command.firstresponse, com tag command.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ClientResources lettuceClientResources(MeterRegistry meterRegistry) {
+        MicrometerOptions options = MicrometerOptions.builder()
+            .histogram(true)
+            .build();
+        
+        log.info("Lettuce ClientResources configured: ioThreads={}, computationThreads={}",
+            ioThreads, computationThreads);
+        
+        return DefaultClientResources.builder()
+            .ioThreadPoolSize(ioThreads)
+            .computationThreadPoolSize(computationThreads)
+            .commandLatencyRecorder(new MicrometerCommandLatencyRecorder(meterRegistry, options))
+            .build();
+    }
     
+    /**
+     * Comandos avulsos e scripts usam a conexão nativa compartilhada; o pool
+     * atende pipelines e transações, que precisam de conexão dedicada.
+     * Com app.redis.topology=cluster a topologia é atualizada em MOVED/ASK e
+     * periodicamente, para acompanhar failover e resharding sem restart.
+     */
     @Bean
-    public RedissonClient redissonClient(ObjectMapper objectMapper) {
-        Config config = new Config();
-        
-        String address = String.format("redis://%s:%d", redisHost, redisPort);
-        
-        config.useSingleServer()
-            .setAddress(address)
-            .setPassword(redisPassword != null && !redisPassword.isEmpty() ? redisPassword : null)
-            .setConnectionPoolSize(connectionPoolSize)
-            .setConnectionMinimumIdleSize(connectionMinimumIdleSize)
-            .setIdleConnectionTimeout(idleConnectionTimeout)
-            .setTimeout(timeout)
-            .setRetryAttempts(retryAttempts)
-            .setRetryInterval(retryInterval)
-            .setKeepAlive(true)
-            .setTcpNoDelay(true);
-        
-        config.setCodec(new JsonJacksonCodec(objectMapper));
-        config.setThreads(threads);
-        config.setNettyThreads(nettyThreads);
-        
-        log.info("Redisson configured for Redis at {}:{}", redisHost, redisPort);
-        
-        return Redisson.create(config);
+    public LettuceClientConfiguration lettuceClientConfiguration(ClientResources clientResources) {
+        GenericObjectPoolConfig<StatefulConnection<?, ?>> poolConfig = new GenericObjectPoolConfig<>();
+        poolConfig.setMaxTotal(poolMaxActive);
+        poolConfig.setMaxIdle(poolMaxIdle);
+        poolConfig.setMinIdle(poolMinIdle);
+        poolConfig.setMaxWait(poolMaxWait);
+        poolConfig.setTimeBetweenEvictionRuns(poolEvictionInterval);
+        // Nome do MBean que o CommonsObjectPool2Metrics usa como tag
+        poolConfig.setJmxNamePrefix("redis");
+        
+        ClientOptions clientOptions = topology == RedisTopology.CLUSTER
+            ? ClusterClientOptions.builder()
+                .topologyRefreshOptions(ClusterTopologyRefreshOptions.builder()
+                    .enableAllAdaptiveRefreshTriggers()
+                    .enablePeriodicRefresh(Duration.ofSeconds(30))
+                    .build())
+                .timeoutOptions(TimeoutOptions.enabled(commandTimeout))
+                .build()
+            : ClientOptions.builder()
+                .timeoutOptions(TimeoutOptions.enabled(commandTimeout))
+                .build();
+        
+        log.info("Lettuce pool configured: maxActive={}, minIdle={}, timeout={}",
+            poolMaxActive, poolMinIdle, commandTimeout);
+        
+        return LettucePoolingClientConfiguration.builder()
+            .poolConfig(poolConfig)
+            .clientResources(clientResources)
+            .clientOptions(clientOptions)
+            .commandTimeout(commandTimeout)
+            .build();
     }
     
     /**
-     * Registra métricas do Redisson no Micrometer
+     * Conexões ativas, ociosas e threads esperando por conexão de cada pool
+     * (commons.pool2.num.active/idle/waiters), lidas dos pools reais via JMX.
      */
     @Bean
-    public MeterBinder redissonMetrics(RedissonClient redissonClient) {
-        return registry -> {
-            // Connection pool metrics
-            registry.gauge("redisson.pool.active.connections", redissonClient, 
-                client -> client.getConfig().useSingleServer() != null ? 
-                    client.getConfig().useSingleServer().getConnectionPoolSize() : 0);
-            
-            registry.gauge("redisson.pool.total.connections", redissonClient,
-                client -> connectionPoolSize);
-            
-            log.info("Redisson metrics registered with Micrometer");
-        };
+    public MeterBinder redisPoolMetrics() {
+        return new CommonsObjectPool2Metrics();
     }
     
     @Bean
@@ -119,7 +167,11 @@ public class RedisConfig {
     }
     
     @Bean
-    public LettuceConnectionFactory redisConnectionFactory() {
+    public LettuceConnectionFactory redisConnectionFactory(LettuceClientConfiguration clientConfiguration) {
+        if (topology == RedisTopology.CLUSTER) {
+            return clusterConnectionFactory(clientConfiguration);
+        }
+        
         RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(redisHost, redisPort);
         
         if (redisPassword != null && !redisPassword.isEmpty()) {
@@ -128,6 +180,23 @@ public class RedisConfig {
         
         log.info("LettuceConnectionFactory configured for {}:{}", redisHost, redisPort);
         
-        return new LettuceConnectionFactory(config);
+        return new LettuceConnectionFactory(config, clientConfiguration);
+    }
+    
+    private LettuceConnectionFactory clusterConnectionFactory(LettuceClientConfiguration clientConfiguration) {
+        if (clusterNodes.isEmpty()) {
+            throw new IllegalStateException("app.redis.topology=cluster requires spring.data.redis.cluster.nodes");
+        }
+        
+        RedisClusterConfiguration config = new RedisClusterConfiguration(clusterNodes);
+        config.setMaxRedirects(clusterMaxRedirects);
+        
+        if (redisPassword != null && !redisPassword.isEmpty()) {
+            config.setPassword(redisPassword);
+        }
+        
+        log.info("LettuceConnectionFactory configured for Redis Cluster at {}", clusterNodes);
+        
+        return new LettuceConnectionFactory(config, clientConfiguration);
     }
 }
@@ -0,0 +1,20 @@
+package com.example.kafka.consumer.config;
+
+/**
+ * Topologia do Redis (app.redis.topology).
+ */
+public enum RedisTopology {
+
+    /** Um único primário (spring.data.redis.host/port). */
+    STANDALONE,
+
+    /** Redis Cluster (spring.data.redis.cluster.nodes); lotes divididos por slot. */
+    CLUSTER,
+
+    /**
+     * Primários independentes (app.redis.shards.nodes) só para os marcadores de
+     * idempotência, escolhidos por hash consistente no cliente. O primário
+     * standalone continua guardando checkpoint e sentinela da reidratação.
+     */
+    SHARDED
+}
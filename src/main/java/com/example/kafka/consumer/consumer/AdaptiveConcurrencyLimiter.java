@@ -0,0 +1,207 @@
+package com.example.kafka.consumer.consumer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Limite adaptativo de registros em processamento simultâneo (algoritmo Gradient2).
+ *
+ * Virtual threads tornam as submissões praticamente ilimitadas, mas Redis e
+ * Hikari têm pools pequenos: acima da capacidade real o resultado são timeouts
+ * de aquisição de conexão, não mais vazão. Um permit cobre cada claim em lote
+ * e cada registro reivindicado até a sua linha estar durável no PostgreSQL, e o
+ * limite é recalculado a cada amostra dessa latência:
+ *
+ * - longRtt é uma média móvel exponencial longa da latência (linha de base);
+ * - gradient = clamp(tolerance × longRtt / shortRtt, 0.5, 1.0) cai quando a
+ *   latência atual sobe acima da linha de base, ou seja, quando há fila nos backends;
+ * - novo limite = limite × gradient + √limite (margem para sondar mais capacidade),
+ *   suavizado e limitado a [min-limit, max-limit].
+ *
+ * Falhas (inclusive rejeições por back pressure) reduzem o limite multiplicativamente
+ * (como no AIMD). Enquanto o uso está abaixo da metade do limite, as amostras não
+ * aumentam o limite, para que ele não cresça sem demanda real.
+ */
+@Component
+@Slf4j
+public class AdaptiveConcurrencyLimiter {
+
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final boolean enabled;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double smoothing;
+    private final double rttTolerance;
+    private final double longWindowFactor;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitAvailable = lock.newCondition();
+
+    private double limit;
+    private double longRtt;
+    private int inFlight;
+    private int queued;
+
+    private final MeterRegistry meterRegistry;
+    private final Counter dropCounter;
+
+    public AdaptiveConcurrencyLimiter(
+            @Value("${app.kafka.limiter.enabled:true}") boolean enabled,
+            @Value("${app.kafka.limiter.initial-limit:20}") int initialLimit,
+            @Value("${app.kafka.limiter.min-limit:4}") int minLimit,
+            @Value("${app.kafka.limiter.max-limit:500}") int maxLimit,
+            @Value("${app.kafka.limiter.smoothing:0.2}") double smoothing,
+            @Value("${app.kafka.limiter.rtt-tolerance:1.5}") double rttTolerance,
+            @Value("${app.kafka.limiter.long-window:600}") int longWindow,
+            MeterRegistry meterRegistry) {
+
+        this.enabled = enabled;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.smoothing = smoothing;
+        this.rttTolerance = rttTolerance;
+        this.longWindowFactor = 2.0 / (longWindow + 1);
+        this.limit = initialLimit;
+
+        this.meterRegistry = meterRegistry;
+        this.dropCounter = meterRegistry.counter("kafka.limiter.drop");
+
+        log.info("AdaptiveConcurrencyLimiter initialized: enabled={}, initialLimit={}, min={}, max={}",
+                enabled, initialLimit, minLimit, maxLimit);
+    }
+
+    /**
+     * Gauges que leem o próprio bean: registrados depois da construção.
+     */
+    @PostConstruct
+    public void registerGauges() {
+        Gauge.builder("kafka.limiter.limit", this, limiter -> limiter.read(() -> limiter.limit))
+                .description("Current adaptive limit of records processed concurrently")
+                .register(meterRegistry);
+
+        Gauge.builder("kafka.limiter.inflight", this, limiter -> limiter.read(() -> limiter.inFlight))
+                .description("Records currently holding a limiter permit")
+                .register(meterRegistry);
+
+        Gauge.builder("kafka.limiter.queued", this, limiter -> limiter.read(() -> limiter.queued))
+                .description("Records waiting for a limiter permit")
+                .register(meterRegistry);
+
+        Gauge.builder("kafka.limiter.rtt.baseline", this, limiter -> limiter.read(() -> limiter.longRtt / 1_000_000.0))
+                .description("Long-term average processing latency used as the gradient baseline")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Bloqueia a thread (virtual) até haver permit disponível.
+     *
+     * @return instante de início em nanos, a ser repassado a {@link #release}
+     */
+    public long acquire() throws InterruptedException {
+        if (!enabled) {
+            return System.nanoTime();
+        }
+
+        lock.lock();
+        try {
+            queued++;
+            try {
+                while (inFlight >= (int) limit) {
+                    permitAvailable.await();
+                }
+            } finally {
+                queued--;
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+
+        return System.nanoTime();
+    }
+
+    /**
+     * Devolve o permit e alimenta o algoritmo com a latência observada.
+     *
+     * @param dropped true se a operação falhou (conta como sinal de sobrecarga)
+     */
+    public void release(long startNanos, boolean dropped) {
+        if (!enabled) {
+            return;
+        }
+
+        long rtt = System.nanoTime() - startNanos;
+
+        lock.lock();
+        try {
+            int used = inFlight;
+            inFlight--;
+
+            if (dropped) {
+                backOff();
+            } else {
+                onSample(rtt, used);
+            }
+
+            permitAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onSample(long rtt, int used) {
+        if (longRtt == 0) {
+            longRtt = rtt;
+            return;
+        }
+
+        longRtt += (rtt - longRtt) * longWindowFactor;
+
+        // Recuperação: após um pico prolongado a linha de base não deve ficar presa no alto
+        if (longRtt / rtt > 2) {
+            longRtt *= 0.95;
+        }
+
+        // Uso abaixo da metade do limite: a amostra não diz nada sobre a capacidade
+        if (used < limit / 2) {
+            return;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, rttTolerance * longRtt / rtt));
+        double target = limit * gradient + Math.sqrt(limit);
+        setLimit(limit * (1 - smoothing) + target * smoothing);
+    }
+
+    private void backOff() {
+        dropCounter.increment();
+        setLimit(limit * BACKOFF_RATIO);
+    }
+
+    private void setLimit(double newLimit) {
+        double clamped = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        if ((int) clamped != (int) limit) {
+            log.debug("Concurrency limit changed from {} to {}", (int) limit, (int) clamped);
+        }
+        limit = clamped;
+    }
+
+    private double read(DoubleSupplier supplier) {
+        lock.lock();
+        try {
+            return supplier.getAsDouble();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
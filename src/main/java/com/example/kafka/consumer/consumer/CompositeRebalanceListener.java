@@ -0,0 +1,41 @@
+package com.example.kafka.consumer.consumer;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Repassa os eventos de rebalance a vários listeners, na ordem dada.
+ * O container aceita um único ConsumerRebalanceListener.
+ */
+public class CompositeRebalanceListener implements ConsumerAwareRebalanceListener {
+
+    private final List<ConsumerAwareRebalanceListener> delegates;
+
+    public CompositeRebalanceListener(ConsumerAwareRebalanceListener... delegates) {
+        this.delegates = List.of(delegates);
+    }
+
+    @Override
+    public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        delegates.forEach(delegate -> delegate.onPartitionsRevokedBeforeCommit(consumer, partitions));
+    }
+
+    @Override
+    public void onPartitionsRevokedAfterCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        delegates.forEach(delegate -> delegate.onPartitionsRevokedAfterCommit(consumer, partitions));
+    }
+
+    @Override
+    public void onPartitionsLost(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        delegates.forEach(delegate -> delegate.onPartitionsLost(consumer, partitions));
+    }
+
+    @Override
+    public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        delegates.forEach(delegate -> delegate.onPartitionsAssigned(consumer, partitions));
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.kafka.consumer.consumer;
+
+import com.example.kafka.consumer.service.PostgresBatchPersistService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Controle de fluxo entre o listener do Kafka e os workers.
+ *
+ * Conta registros e bytes (chave + valor serializados) desde o recebimento no
+ * poll até a conclusão do registro. Acima da marca alta, em registros ou em
+ * bytes, o container do listener é pausado: o consumer continua no grupo
+ * (heartbeats e poll sem fetch), mas para de trazer dados. Abaixo da marca
+ * baixa nas duas medidas o container é retomado. A histerese evita alternar
+ * pausa e retomada a cada registro.
+ *
+ * A ocupação do {@link PostgresBatchPersistService} entra no mesmo sinal,
+ * para que uma lentidão do PostgreSQL pause o consumo antes de o enqueue
+ * começar a rejeitar.
+ *
+ * A pausa vale a partir do próximo poll, então o limite efetivo é a marca alta
+ * mais um poll por consumer (max.poll.records × concurrency).
+ */
+@Component
+@Slf4j
+public class FlowController {
+
+    private final KafkaListenerEndpointRegistry listenerRegistry;
+    private final PostgresBatchPersistService batchPersistService;
+    private final long highWaterRecords;
+    private final long lowWaterRecords;
+    private final long highWaterBytes;
+    private final long lowWaterBytes;
+    private final double persistHighWater;
+    private final double persistLowWater;
+
+    private final AtomicLong records = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private volatile boolean paused;
+
+    private final MeterRegistry meterRegistry;
+    private final Counter pauseCounter;
+
+    public FlowController(
+            KafkaListenerEndpointRegistry listenerRegistry,
+            PostgresBatchPersistService batchPersistService,
+            @Value("${app.kafka.flow-control.high-water-records:10000}") long highWaterRecords,
+            @Value("${app.kafka.flow-control.low-water-records:5000}") long lowWaterRecords,
+            @Value("${app.kafka.flow-control.high-water-bytes:67108864}") long highWaterBytes,
+            @Value("${app.kafka.flow-control.low-water-bytes:33554432}") long lowWaterBytes,
+            @Value("${app.kafka.flow-control.persist-high-water:0.8}") double persistHighWater,
+            @Value("${app.kafka.flow-control.persist-low-water:0.5}") double persistLowWater,
+            MeterRegistry meterRegistry) {
+
+        this.listenerRegistry = listenerRegistry;
+        this.batchPersistService = batchPersistService;
+        this.highWaterRecords = highWaterRecords;
+        this.lowWaterRecords = lowWaterRecords;
+        this.highWaterBytes = highWaterBytes;
+        this.lowWaterBytes = lowWaterBytes;
+        this.persistHighWater = persistHighWater;
+        this.persistLowWater = persistLowWater;
+
+        this.meterRegistry = meterRegistry;
+        this.pauseCounter = meterRegistry.counter("kafka.flow.pause");
+
+        log.info("FlowController initialized: records {}/{}, bytes {}/{}, persist pressure {}/{}",
+                highWaterRecords, lowWaterRecords, highWaterBytes, lowWaterBytes, persistHighWater, persistLowWater);
+    }
+
+    /**
+     * Gauges que leem o próprio bean: registrados depois da construção.
+     */
+    @PostConstruct
+    public void registerGauges() {
+        Gauge.builder("kafka.flow.records", records, AtomicLong::get)
+                .description("Records received and not yet completed")
+                .register(meterRegistry);
+
+        Gauge.builder("kafka.flow.bytes", bytes, AtomicLong::get)
+                .description("Serialized bytes of records received and not yet completed")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+
+        Gauge.builder("kafka.flow.paused", this, controller -> controller.paused ? 1 : 0)
+                .description("1 while the listener container is paused by flow control")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Contabiliza um registro recebido no poll.
+     */
+    public void acquire(ConsumerRecord<?, ?> record) {
+        records.incrementAndGet();
+        bytes.addAndGet(sizeOf(record));
+    }
+
+    /**
+     * Libera um registro concluído. Deve ser chamado exatamente uma vez por registro adquirido.
+     */
+    public void release(ConsumerRecord<?, ?> record) {
+        long remainingRecords = records.decrementAndGet();
+        long remainingBytes = bytes.addAndGet(-sizeOf(record));
+
+        if (paused && remainingRecords <= lowWaterRecords && remainingBytes <= lowWaterBytes) {
+            evaluate();
+        }
+    }
+
+    /**
+     * Reavalia as marcas. Chamado pelo listener após cada poll, na liberação de
+     * registros e periodicamente, já que a pressão do PostgreSQL muda sem que
+     * nenhum registro entre ou saia.
+     */
+    @Scheduled(fixedDelayString = "${app.kafka.flow-control.check-interval-ms:100}")
+    public synchronized void evaluate() {
+        MessageListenerContainer container = listenerRegistry.getListenerContainer(HighVolumeKafkaConsumer.LISTENER_ID);
+        if (container == null || !container.isRunning()) {
+            return;
+        }
+
+        long currentRecords = records.get();
+        long currentBytes = bytes.get();
+        double persistPressure = batchPersistService.getPressure();
+
+        if (!paused && (currentRecords >= highWaterRecords
+                || currentBytes >= highWaterBytes
+                || persistPressure >= persistHighWater)) {
+
+            container.pause();
+            paused = true;
+            pauseCounter.increment();
+            log.warn("Pausing Kafka consumption: records={}, bytes={}, persistPressure={}",
+                    currentRecords, currentBytes, persistPressure);
+
+        } else if (paused && currentRecords <= lowWaterRecords
+                && currentBytes <= lowWaterBytes
+                && persistPressure <= persistLowWater) {
+
+            container.resume();
+            paused = false;
+            log.info("Resuming Kafka consumption: records={}, bytes={}, persistPressure={}",
+                    currentRecords, currentBytes, persistPressure);
+        }
+    }
+
+    private static long sizeOf(ConsumerRecord<?, ?> record) {
+        return Math.max(0, record.serializedKeySize()) + Math.max(0, record.serializedValueSize());
+    }
+}
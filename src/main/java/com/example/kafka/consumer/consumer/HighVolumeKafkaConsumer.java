@@ -1,190 +1,629 @@
 package com.example.kafka.consumer.consumer;
 
+import com.example.kafka.consumer.codec.MessageDtoDeserializer;
 import com.example.kafka.consumer.dto.MessageDto;
+import com.example.kafka.consumer.service.IdempotencyService;
 import com.example.kafka.consumer.service.MessageProcessingService;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.SerializationException;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.kafka.core.KafkaTemplate;
-import org.springframework.kafka.support.Acknowledgment;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 @Component
 @Slf4j
-public class HighVolumeKafkaConsumer {
+public class HighVolumeKafkaConsumer implements ConsumerAwareRebalanceListener {
+    
+    static final String LISTENER_ID = "high-volume-consumer";
     
     private final MessageProcessingService messageProcessingService;
-    private final KafkaTemplate<String, String> kafkaTemplate;
-    private final ObjectMapper objectMapper;
+    private final OffsetCommitTracker offsetCommitTracker;
+    private final FlowController flowController;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final PartitionDedupeCache partitionDedupeCache;
+    private final KafkaTemplate<String, byte[]> kafkaTemplate;
+    private final MessageDtoDeserializer messageDeserializer;
+    private final IdempotencyKeyExtractor idempotencyKeyExtractor;
     private final String dlqTopic;
+    private final int claimBatchSize;
+    private final ProcessingOrder processingOrder;
     private final ExecutorService workers;
-    private final ConcurrentLinkedQueue<ConsumerRecord<String, String>> buffer;
+    private final Map<TopicPartition, Lane> lanes;
+    private final Map<Object, CompletableFuture<Void>> keyTails;
     
     private final Counter receivedCounter;
     private final Counter processedCounter;
     private final Counter failedCounter;
     private final Counter dlqCounter;
     private final Timer batchProcessingTimer;
+    private final Timer handoffLatencyTimer;
     
     public HighVolumeKafkaConsumer(
             MessageProcessingService messageProcessingService,
-            KafkaTemplate<String, String> kafkaTemplate,
-            ObjectMapper objectMapper,
+            OffsetCommitTracker offsetCommitTracker,
+            FlowController flowController,
+            AdaptiveConcurrencyLimiter concurrencyLimiter,
+            PartitionDedupeCache partitionDedupeCache,
+            KafkaTemplate<String, byte[]> kafkaTemplate,
+            MessageDtoDeserializer messageDeserializer,
+            IdempotencyKeyExtractor idempotencyKeyExtractor,
             @Value("${app.kafka.dlq-topic}") String dlqTopic,
             @Value("${spring.kafka.listener.concurrency:10}") int concurrency,
+            @Value("${spring.kafka.consumer.properties.max.poll.records:500}") int claimBatchSize,
+            @Value("${app.kafka.processing-order:key}") ProcessingOrder processingOrder,
             MeterRegistry meterRegistry) {
         
         this.messageProcessingService = messageProcessingService;
+        this.offsetCommitTracker = offsetCommitTracker;
+        this.flowController = flowController;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.partitionDedupeCache = partitionDedupeCache;
         this.kafkaTemplate = kafkaTemplate;
-        this.objectMapper = objectMapper;
+        this.messageDeserializer = messageDeserializer;
+        this.idempotencyKeyExtractor = idempotencyKeyExtractor;
         this.dlqTopic = dlqTopic;
+        this.claimBatchSize = claimBatchSize;
+        this.processingOrder = processingOrder;
         
         // ExecutorService com Virtual Threads para processamento assíncrono
         this.workers = Executors.newVirtualThreadPerTaskExecutor();
         
-        // Buffer thread-safe para armazenar registros do Kafka
-        this.buffer = new ConcurrentLinkedQueue<>();
+        // Uma fila por partição, limitadas em conjunto pelo FlowController
+        this.lanes = new ConcurrentHashMap<>();
+        
+        // Última tarefa pendente de cada chave (modo KEY)
+        this.keyTails = new ConcurrentHashMap<>();
         
         this.receivedCounter = meterRegistry.counter("kafka.messages.received");
         this.processedCounter = meterRegistry.counter("kafka.messages.processed");
         this.failedCounter = meterRegistry.counter("kafka.messages.failed");
         this.dlqCounter = meterRegistry.counter("kafka.messages.dlq");
         this.batchProcessingTimer = meterRegistry.timer("kafka.batch.processing.duration");
+        this.handoffLatencyTimer = Timer.builder("kafka.handoff.latency")
+                .description("Time from enqueue in onMessage until a lane picks the record up")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
         
-        // Registra gauge para monitorar tamanho do buffer
-        meterRegistry.gauge("kafka.buffer.current.size", buffer, ConcurrentLinkedQueue::size);
+        // Registra gauge para monitorar tamanho do buffer (soma das filas das partições)
+        meterRegistry.gauge("kafka.buffer.current.size", lanes, HighVolumeKafkaConsumer::bufferedRecords);
         
-        log.info("HighVolumeKafkaConsumer initialized with {} concurrent consumers and Virtual Thread executor", concurrency);
+        meterRegistry.gauge("kafka.ordering.active.keys", keyTails, Map::size);
+        
+        log.info("HighVolumeKafkaConsumer initialized with {} concurrent consumers, Virtual Thread executor and {} ordering", 
+                concurrency, processingOrder);
     }
     
     /**
-     * Listener do Kafka que adiciona mensagens ao buffer e faz commit imediato.
-     * O processamento real acontece de forma assíncrona no método drain().
+     * Listener do Kafka que registra os offsets no {@link OffsetCommitTracker}
+     * e no {@link FlowController} e entrega cada mensagem à fila da sua partição.
+     * O processamento real acontece de forma assíncrona nas lanes;
+     * o commit só cobre registros já concluídos (at-least-once).
      */
     @KafkaListener(
+        id = LISTENER_ID,
         topics = "${app.kafka.topic}",
         groupId = "${spring.kafka.consumer.group-id}",
         containerFactory = "kafkaListenerContainerFactory",
         concurrency = "${spring.kafka.listener.concurrency:10}"
     )
     public void onMessage(
-            List<ConsumerRecord<String, String>> records,
-            Acknowledgment acknowledgment) {
+            List<ConsumerRecord<String, byte[]>> records,
+            Consumer<?, ?> consumer) {
         
         int batchSize = records.size();
         receivedCounter.increment(batchSize);
         
         log.info("Received batch of {} messages, adding to buffer", batchSize);
         
-        // Adiciona todos os registros ao buffer - O(1) por operação
-        for (ConsumerRecord<String, String> record : records) {
-            buffer.offer(record);
+        // Entrega cada registro à lane da sua partição - O(1) por operação, acorda a lane na hora
+        long enqueuedAt = System.nanoTime();
+        for (ConsumerRecord<String, byte[]> record : records) {
+            offsetCommitTracker.register(record);
+            flowController.acquire(record);
+            lanes.computeIfAbsent(partitionOf(record), Lane::new)
+                    .offer(new Handoff(record, enqueuedAt));
         }
         
-        // Commit imediato - não bloqueia o poll()
-        if (acknowledgment != null) {
-            acknowledgment.acknowledge();
-            log.info("Batch of {} messages acknowledged immediately", batchSize);
-        }
+        // Pausa o container se o buffer passou da marca alta
+        flowController.evaluate();
         
-        log.info("Buffer size after adding batch: {}", buffer.size());
+        // Commit assíncrono do que terminou desde o último poll - não bloqueia o poll()
+        offsetCommitTracker.commitReady(consumer);
+        
+        log.info("Buffer size after adding batch: {}", bufferedRecords(lanes));
+    }
+    
+    /**
+     * Partição revogada: a lane dela é encerrada antes do commit da revogação.
+     */
+    @Override
+    public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> revoked) {
+        closeLanes(revoked);
+    }
+    
+    @Override
+    public void onPartitionsLost(Consumer<?, ?> consumer, Collection<TopicPartition> lost) {
+        closeLanes(lost);
     }
     
     /**
-     * Drena o buffer e submete mensagens para processamento em threads virtuais.
-     * Executa com delay mínimo para processar continuamente.
+     * Interrompe a thread de cada lane e descarta os registros ainda na fila,
+     * sem claim e sem commit: o novo dono da partição os recebe de novo. Os
+     * registros já entregues aos workers terminam normalmente.
      */
-    @Scheduled(fixedDelay = 10)
-    public void drain() {
-        ConsumerRecord<String, String> record;
-        int processed = 0;
+    private void closeLanes(Collection<TopicPartition> partitions) {
+        for (TopicPartition partition : partitions) {
+            Lane lane = lanes.remove(partition);
+            if (lane == null) {
+                continue;
+            }
+            
+            lane.thread.interrupt();
+            List<Handoff> queued = new ArrayList<>();
+            lane.queue.drainTo(queued);
+            queued.forEach(handoff -> flowController.release(handoff.record()));
+            
+            if (!queued.isEmpty()) {
+                log.info("Closed lane of {} dropping {} queued records", partition, queued.size());
+            }
+        }
+    }
+    
+    /**
+     * Fila de uma partição consumida por uma virtual thread dedicada.
+     * 
+     * A thread bloqueia em take() até chegar um registro e então leva tudo o que
+     * estiver acumulado, até max.poll.records, como um lote de claim. Não há
+     * polling: o registro é entregue assim que o onMessage o enfileira.
+     * A lane vive enquanto a partição estiver atribuída, ver {@link #closeLanes}.
+     */
+    private final class Lane {
         
+        private final BlockingQueue<Handoff> queue = new LinkedBlockingQueue<>();
+        private final Thread thread;
         
-        // Drena o buffer enquanto houver mensagens
-        while ((record = buffer.poll()) != null) {
-            final ConsumerRecord<String, String> currentRecord = record;
-            
-            // Submete para processamento assíncrono em virtual thread
-            workers.submit(() -> processRecord(currentRecord));
-            processed++;
+        private Lane(TopicPartition partition) {
+            this.thread = Thread.ofVirtual()
+                    .name("lane-" + partition)
+                    .start(this::run);
         }
         
-        if (processed > 0) {
-            log.info("Submitted {} messages for async processing", processed);
+        private void offer(Handoff handoff) {
+            queue.offer(handoff);
+        }
+        
+        private void run() {
+            List<Handoff> handoffs = new ArrayList<>(claimBatchSize);
+            Map<ConsumerRecord<String, byte[]>, String> undispatched = new LinkedHashMap<>();
+            
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    handoffs.add(queue.take());
+                    queue.drainTo(handoffs, claimBatchSize - 1);
+                    
+                    long startedAt = System.nanoTime();
+                    List<ConsumerRecord<String, byte[]>> chunk = new ArrayList<>(handoffs.size());
+                    for (Handoff handoff : handoffs) {
+                        handoffLatencyTimer.record(startedAt - handoff.enqueuedAt(), TimeUnit.NANOSECONDS);
+                        chunk.add(handoff.record());
+                        undispatched.put(handoff.record(), null);
+                    }
+                    
+                    processChunk(chunk, undispatched);
+                    
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    discard(undispatched);
+                } catch (Exception e) {
+                    log.error("Unexpected error in partition lane {}, sending {} undispatched records to DLQ", 
+                            Thread.currentThread().getName(), undispatched.size(), e);
+                    abandon(undispatched, "Unexpected error: " + e.getMessage());
+                } finally {
+                    handoffs.clear();
+                    undispatched.clear();
+                }
+            }
         }
     }
     
-    private void processRecord(ConsumerRecord<String, String> record) {
+    /**
+     * Garantia de ordem entre registros (app.kafka.processing-order).
+     */
+    public enum ProcessingOrder {
+        PARTITION,
+        KEY,
+        UNORDERED
+    }
+    
+    private record Handoff(ConsumerRecord<String, byte[]> record, long enqueuedAt) {
+    }
+    
+    private static TopicPartition partitionOf(ConsumerRecord<?, ?> record) {
+        return new TopicPartition(record.topic(), record.partition());
+    }
+    
+    private static double bufferedRecords(Map<TopicPartition, Lane> lanes) {
+        long total = 0;
+        for (Lane lane : lanes.values()) {
+            total += lane.queue.size();
+        }
+        return total;
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        closeLanes(List.copyOf(lanes.keySet()));
+        workers.shutdown();
+    }
+    
+    /**
+     * Resolve o claim de idempotência de todas as mensagens do lote em uma
+     * única chamada e só então distribui cada registro reivindicado conforme
+     * o modo de ordenação (ver {@link #dispatch}).
+     * 
+     * Quando o messageId vem do header ou da chave ({@link IdempotencyKeyExtractor}),
+     * o corpo só é desserializado para os registros reivindicados: duplicatas
+     * são descartadas sem parse de JSON. Se o message_id do corpo diverge do
+     * ID reivindicado, vale o do corpo, que é reivindicado de novo.
+     * 
+     * Cada registro sai de undispatched quando é entregue ao processamento ou
+     * à DLQ; os reivindicados ainda não entregues guardam o seu messageId. Se
+     * o lote falhar no meio, a lane descarta o que sobrou com {@link #abandon}.
+     */
+    private void processChunk(
+            List<ConsumerRecord<String, byte[]>> chunk,
+            Map<ConsumerRecord<String, byte[]>, String> undispatched) throws InterruptedException {
+        List<ConsumerRecord<String, byte[]>> records = new ArrayList<>(chunk.size());
+        List<String> messageIds = new ArrayList<>(chunk.size());
+        List<MessageDto> messages = new ArrayList<>(chunk.size());
+        
+        for (ConsumerRecord<String, byte[]> record : chunk) {
+            String messageId = idempotencyKeyExtractor.extract(record);
+            MessageDto messageDto = null;
+            
+            if (messageId == null) {
+                messageDto = deserializeMessage(record);
+                
+                if (messageDto == null) {
+                    log.error("Failed to deserialize message at offset {}", record.offset());
+                    completeAfter(record, sendToDLQ(record, "Deserialization failed"));
+                    undispatched.remove(record);
+                    continue;
+                }
+                messageId = messageDto.getMessageId();
+            }
+            
+            // Já processada segundo o estado local da partição: nem chega ao Redis
+            if (partitionDedupeCache.contains(partitionOf(record), messageId)) {
+                processRecord(record, duplicateOf(messageId, messageDto), IdempotencyService.ClaimResult.DUPLICATE);
+                undispatched.remove(record);
+                continue;
+            }
+            
+            records.add(record);
+            messageIds.add(messageId);
+            messages.add(messageDto);
+        }
+        
+        if (records.isEmpty()) {
+            return;
+        }
+        
+        Map<String, IdempotencyService.ClaimResult> claims;
         try {
-            log.info("Processing record - Partition: {}, Offset: {}, Key: {}", 
-                    record.partition(), record.offset(), record.key());
+            claims = claimLimited(messageIds);
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            if (Thread.currentThread().isInterrupted()) {
+                // Lane fechada no meio do claim (cliente interrompido): descartado, sem DLQ
+                throw new InterruptedException("Lane closed while claiming");
+            }
+            log.error("Unexpected error claiming batch of {} messages", records.size(), e);
+            failedCounter.increment(records.size());
+            records.forEach(record -> completeAfter(record, sendToDLQ(record, "Unexpected error: " + e.getMessage())));
+            records.forEach(undispatched::remove);
+            return;
+        }
+        
+        for (int i = 0; i < records.size(); i++) {
+            if (claims.get(messageIds.get(i)) == IdempotencyService.ClaimResult.CLAIMED) {
+                undispatched.put(records.get(i), messageIds.get(i));
+            }
+        }
+        
+        // Mesma messageId repetida no lote: apenas a primeira ocorrência herda o claim
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < records.size(); i++) {
+            ConsumerRecord<String, byte[]> record = records.get(i);
+            String messageId = messageIds.get(i);
+            IdempotencyService.ClaimResult claim = seen.add(messageId)
+                    ? claims.get(messageId)
+                    : IdempotencyService.ClaimResult.DUPLICATE;
             
-            MessageDto messageDto = deserializeMessage(record.value());
+            if (claim == IdempotencyService.ClaimResult.DUPLICATE) {
+                processRecord(record, duplicateOf(messageId, messages.get(i)), claim);
+                undispatched.remove(record);
+                continue;
+            }
             
+            MessageDto messageDto = messages.get(i) != null ? messages.get(i) : deserializeMessage(record);
             if (messageDto == null) {
-                log.error("Failed to deserialize message at offset {}", record.offset());
-                sendToDLQ(record, "Deserialization failed");
-                return;
+                log.error("Failed to deserialize claimed message {} at offset {}", messageId, record.offset());
+                failedCounter.increment();
+                if (claim == IdempotencyService.ClaimResult.CLAIMED) {
+                    // Sem isso o claim (ou o advisory lock) ficaria preso até expirar
+                    messageProcessingService.release(messageId);
+                }
+                completeAfter(record, sendToDLQ(record, "Deserialization failed"));
+                undispatched.remove(record);
+                continue;
+            }
+            
+            IdempotencyService.ClaimResult resolved = claim;
+            String bodyId = messageDto.getMessageId();
+            if (claim == IdempotencyService.ClaimResult.CLAIMED && bodyId != null && !bodyId.equals(messageId)) {
+                // O corpo é a fonte de verdade: o claim feito pela chave é desfeito e refeito pelo message_id
+                log.warn("Idempotency key {} differs from body message_id {} at offset {}, using the body", 
+                        messageId, bodyId, record.offset());
+                messageProcessingService.release(messageId);
+                undispatched.put(record, null);
+                
+                resolved = seen.add(bodyId)
+                        ? claimLimited(List.of(bodyId)).get(bodyId)
+                        : IdempotencyService.ClaimResult.DUPLICATE;
+                if (resolved == IdempotencyService.ClaimResult.CLAIMED) {
+                    undispatched.put(record, bodyId);
+                }
+            }
+            
+            IdempotencyService.ClaimResult finalClaim = resolved;
+            dispatch(record, () -> processRecord(record, messageDto, finalClaim));
+            undispatched.remove(record);
+        }
+    }
+    
+    /**
+     * Registros de um lote que falhou antes de serem entregues: libera os
+     * claims já feitos, para que o replay da DLQ possa reivindicá-los, e
+     * completa cada offset depois do envio à DLQ, devolvendo a vaga no
+     * {@link FlowController}.
+     */
+    private void abandon(Map<ConsumerRecord<String, byte[]>, String> undispatched, String reason) {
+        undispatched.forEach((record, claimedId) -> {
+            failedCounter.increment();
+            if (claimedId != null) {
+                try {
+                    messageProcessingService.release(claimedId);
+                } catch (Exception e) {
+                    log.error("Error releasing claim of message {}", claimedId, e);
+                }
+            }
+            completeAfter(record, sendToDLQ(record, reason));
+        });
+    }
+    
+    /**
+     * Registros de um lote interrompido pelo fechamento da lane: libera os
+     * claims já feitos para o novo dono da partição e devolve as vagas no
+     * {@link FlowController}, sem DLQ e sem commit.
+     */
+    private void discard(Map<ConsumerRecord<String, byte[]>, String> undispatched) {
+        undispatched.forEach((record, claimedId) -> {
+            if (claimedId != null) {
+                try {
+                    messageProcessingService.release(claimedId);
+                } catch (Exception e) {
+                    log.error("Error releasing claim of message {}", claimedId, e);
+                }
+            }
+            flowController.release(record);
+        });
+    }
+    
+    /**
+     * Claim do lote dentro do {@link AdaptiveConcurrencyLimiter}: a chamada
+     * ao Redis (ou ao PostgreSQL) ocupa um permit como qualquer outra ida aos
+     * backends, e a sua latência também alimenta o limite.
+     */
+    private Map<String, IdempotencyService.ClaimResult> claimLimited(List<String> messageIds) 
+            throws InterruptedException {
+        
+        long startNanos = concurrencyLimiter.acquire();
+        boolean dropped = true;
+        try {
+            Map<String, IdempotencyService.ClaimResult> claims = messageProcessingService.claimIds(messageIds);
+            dropped = claims.containsValue(IdempotencyService.ClaimResult.ERROR);
+            return claims;
+        } finally {
+            concurrencyLimiter.release(startNanos, dropped);
+        }
+    }
+    
+    /**
+     * Duplicata descartada sem corpo: basta o messageId para o resultado.
+     */
+    private static MessageDto duplicateOf(String messageId, MessageDto parsed) {
+        return parsed != null ? parsed : MessageDto.builder().messageId(messageId).build();
+    }
+    
+    /**
+     * Executa o processamento de um registro respeitando o modo de ordenação.
+     * 
+     * PARTITION: na própria lane, um registro por vez na ordem dos offsets.
+     * KEY: registros com a mesma chave encadeados na ordem de chegada; chaves
+     * diferentes em paralelo. A chave sempre cai na mesma partição, e cada
+     * partição tem uma única lane, então a ordem de encadeamento é a ordem do log.
+     * Registros sem chave não têm entidade a ordenar e seguem como UNORDERED.
+     * UNORDERED: cada registro em sua própria virtual thread.
+     */
+    private void dispatch(ConsumerRecord<String, byte[]> record, Runnable task) {
+        switch (processingOrder) {
+            case PARTITION -> task.run();
+            case KEY -> {
+                if (record.key() == null) {
+                    workers.submit(task);
+                    return;
+                }
+                
+                Object key = record.key();
+                CompletableFuture<Void> tail = keyTails.compute(key, (k, previous) -> previous == null
+                        ? CompletableFuture.runAsync(task, workers)
+                        : previous.handleAsync((ignored, ex) -> {
+                            task.run();
+                            return null;
+                        }, workers));
+                
+                // Remove a chave quando não há mais nada encadeado atrás desta tarefa
+                tail.whenComplete((ignored, ex) -> keyTails.remove(key, tail));
             }
+            case UNORDERED -> workers.submit(task);
+        }
+    }
+    
+    private void processRecord(
+            ConsumerRecord<String, byte[]> record,
+            MessageDto messageDto,
+            IdempotencyService.ClaimResult claim) {
+        MessageProcessingService.ProcessingResult result = null;
+        try {
+            log.info("Processing record - Partition: {}, Offset: {}, Key: {}", 
+                    record.partition(), record.offset(), record.key());
             
-            MessageProcessingService.ProcessingResult result = 
-                    messageProcessingService.processMessage(messageDto);
+            result = claim == IdempotencyService.ClaimResult.CLAIMED
+                    ? processLimited(messageDto, claim)
+                    : messageProcessingService.processClaimed(messageDto, claim);
             
             handleProcessingResult(result, record);
             
         } catch (Exception e) {
             log.error("Unexpected error processing record at offset {}", record.offset(), e);
             failedCounter.increment();
-            sendToDLQ(record, "Unexpected error: " + e.getMessage());
+            if (claim == IdempotencyService.ClaimResult.CLAIMED && result == null) {
+                // Abandonado antes do markAsProcessed: o replay da DLQ deve poder reivindicar
+                messageProcessingService.release(messageDto.getMessageId());
+            }
+            completeAfter(record, sendToDLQ(record, "Unexpected error: " + e.getMessage()));
+        }
+    }
+    
+    /**
+     * Processa um registro reivindicado dentro do {@link AdaptiveConcurrencyLimiter}.
+     * Duplicatas e erros de claim não tocam os backends e passam direto.
+     * 
+     * O permit só é devolvido quando a linha está durável no PostgreSQL, então
+     * a amostra de latência cobre a promoção no Redis e o flush do batch, e
+     * uma rejeição por back pressure do buffer conta como falha.
+     */
+    private MessageProcessingService.ProcessingResult processLimited(
+            MessageDto messageDto,
+            IdempotencyService.ClaimResult claim) throws InterruptedException {
+        
+        long startNanos = concurrencyLimiter.acquire();
+        MessageProcessingService.ProcessingResult result = null;
+        try {
+            result = messageProcessingService.processClaimed(messageDto, claim);
+            
+            boolean failed = result.isFailure();
+            result.durable().whenComplete((ignored, ex) -> 
+                    concurrencyLimiter.release(startNanos, failed || ex != null));
+            
+            return result;
+        } finally {
+            if (result == null) {
+                concurrencyLimiter.release(startNanos, true);
+            }
         }
     }
     
-    private MessageDto deserializeMessage(String jsonMessage) {
+    /**
+     * Libera o offset para commit quando a etapa final do registro terminar
+     * (gravação no PostgreSQL ou envio à DLQ), com sucesso ou não.
+     */
+    private void completeAfter(ConsumerRecord<String, byte[]> record, CompletableFuture<?> stage) {
+        stage.whenComplete((ignored, ex) -> complete(record));
+    }
+    
+    private void complete(ConsumerRecord<String, byte[]> record) {
+        offsetCommitTracker.complete(record);
+        flowController.release(record);
+    }
+    
+    private MessageDto deserializeMessage(ConsumerRecord<String, byte[]> record) {
         try {
-            return objectMapper.readValue(jsonMessage, MessageDto.class);
-        } catch (JsonProcessingException e) {
-            log.error("Error deserializing message: {}", jsonMessage, e);
+            return messageDeserializer.deserialize(record.topic(), record.headers(), record.value());
+        } catch (SerializationException e) {
+            log.error("Error deserializing message at offset {} ({} bytes)", 
+                    record.offset(), record.value() != null ? record.value().length : 0, e);
             return null;
         }
     }
     
     private void handleProcessingResult(
             MessageProcessingService.ProcessingResult result,
-            ConsumerRecord<String, String> record) {
+            ConsumerRecord<String, byte[]> record) {
+        
+        result.durable().exceptionally(ex -> {
+            log.error("Message {} processed but not persisted in PostgreSQL: {}", 
+                    result.messageId(), ex.getMessage());
+            return null;
+        });
         
         if (result.isSuccess()) {
             processedCounter.increment();
             log.debug("Message {} processed successfully", result.messageId());
+            partitionDedupeCache.add(partitionOf(record), result.messageId());
+            // Linha recusada pelo PostgreSQL (poison ou tentativas esgotadas) vai para a DLQ
+            completeAfter(record, result.durable().handle((ignored, ex) -> ex == null
+                    ? CompletableFuture.completedFuture(null)
+                    : sendToDLQ(record, "Not persisted: " + ex.getMessage())).thenCompose(stage -> stage));
             
         } else if (result.isDuplicate()) {
             log.debug("Duplicate message {} skipped", result.messageId());
+            partitionDedupeCache.add(partitionOf(record), result.messageId());
+            complete(record);
             
         } else if (result.isFailure()) {
             log.error("Failed to process message {}: {}", 
                     result.messageId(), result.errorMessage());
             failedCounter.increment();
-            sendToDLQ(record, result.errorMessage());
+            completeAfter(record, CompletableFuture.allOf(
+                    result.durable(), sendToDLQ(record, result.errorMessage())));
         }
     }
     
-    private void sendToDLQ(ConsumerRecord<String, String> record, String errorReason) {
+    private CompletableFuture<?> sendToDLQ(ConsumerRecord<String, byte[]> record, String errorReason) {
         try {
             log.warn("Sending message to DLQ - Reason: {}, Offset: {}", 
                     errorReason, record.offset());
             
-            kafkaTemplate.send(dlqTopic, record.key(), record.value())
+            // Headers preservados: codec e idempotency-key continuam válidos na DLQ
+            return kafkaTemplate.send(new ProducerRecord<>(dlqTopic, null, record.key(), record.value(), record.headers()))
                 .whenComplete((result, ex) -> {
                     if (ex != null) {
                         log.error("Failed to send message to DLQ", ex);
@@ -196,6 +635,7 @@ public class HighVolumeKafkaConsumer {
                 
         } catch (Exception e) {
             log.error("Error sending message to DLQ", e);
+            return CompletableFuture.completedFuture(null);
         }
     }
 }
@@ -0,0 +1,51 @@
+package com.example.kafka.consumer.consumer;
+
+import com.example.kafka.consumer.dto.MessageHeaders;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Obtém o messageId de um registro sem desserializar o corpo.
+ *
+ * Ordem de busca: header {@link MessageHeaders#IDEMPOTENCY_KEY} (gravado pelo
+ * KafkaMessageProducer) e, se app.kafka.idempotency-key.use-record-key estiver
+ * habilitado, a chave do registro. Sem nenhum dos dois o chamador cai no campo
+ * message_id do corpo.
+ *
+ * A chave do registro fica desligada por padrão: ela costuma ser a chave de
+ * particionamento da entidade (pedido, cliente), não o messageId, e dois
+ * eventos da mesma entidade seriam descartados como duplicatas sem que o
+ * corpo fosse lido. Só vale habilitar quando todo producer do tópico grava o
+ * messageId como chave. Para os registros reivindicados o corpo é lido e, se
+ * divergir, prevalece.
+ */
+@Component
+public class IdempotencyKeyExtractor {
+
+    private final boolean useRecordKey;
+
+    public IdempotencyKeyExtractor(
+            @Value("${app.kafka.idempotency-key.use-record-key:false}") boolean useRecordKey) {
+        this.useRecordKey = useRecordKey;
+    }
+
+    /**
+     * @return messageId do header ou da chave, ou null se for preciso ler o corpo
+     */
+    public String extract(ConsumerRecord<String, ?> record) {
+        Header header = record.headers().lastHeader(MessageHeaders.IDEMPOTENCY_KEY);
+        if (header != null && header.value() != null && header.value().length > 0) {
+            return new String(header.value(), StandardCharsets.UTF_8);
+        }
+
+        if (useRecordKey && record.key() != null && !record.key().isBlank()) {
+            return record.key();
+        }
+
+        return null;
+    }
+}
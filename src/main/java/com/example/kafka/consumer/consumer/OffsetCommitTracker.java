@@ -0,0 +1,245 @@
+package com.example.kafka.consumer.consumer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.context.event.EventListener;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Controla, por partição, quais offsets entregues ao buffer já terminaram de
+ * ser processados, para que o commit no Kafka só avance sobre trabalho concluído.
+ *
+ * As virtual threads terminam fora de ordem; o commit usa apenas o maior offset
+ * contíguo concluído (watermark). Um registro lento segura o commit da sua
+ * partição, mas não o processamento dos seguintes.
+ *
+ * Os commits são assíncronos e agrupados: um único commitAsync por consumer com
+ * todas as partições que avançaram, sempre na thread do consumer (a cada poll
+ * e nos eventos de idle do container). Na revogação de partições o commit é
+ * síncrono e o estado da partição é descartado; registros ainda em voo dessas
+ * partições podem ser reentregues ao novo dono e caem na idempotência.
+ */
+@Component
+@Slf4j
+public class OffsetCommitTracker implements ConsumerAwareRebalanceListener {
+
+    private final MeterRegistry meterRegistry;
+    private final Map<TopicPartition, PartitionState> partitions = new ConcurrentHashMap<>();
+
+    private final Counter commitCounter;
+    private final Counter commitFailedCounter;
+
+    public OffsetCommitTracker(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+
+        this.commitCounter = meterRegistry.counter("kafka.offsets.commit");
+        this.commitFailedCounter = meterRegistry.counter("kafka.offsets.commit.failed");
+    }
+
+    /**
+     * Gauges que leem o próprio bean: registrados depois da construção.
+     */
+    @PostConstruct
+    public void registerGauges() {
+        Gauge.builder("kafka.offsets.inflight.total", this, OffsetCommitTracker::inFlight)
+                .description("Records handed to workers and not yet completed, across all partitions")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Registra um registro recebido no poll. Deve ser chamado na thread do
+     * consumer antes de o registro ser entregue aos workers.
+     */
+    public void register(ConsumerRecord<?, ?> record) {
+        TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+        partitions.computeIfAbsent(partition, this::newPartitionState).register(record.offset());
+    }
+
+    /**
+     * Marca o registro como concluído. Pode ser chamado de qualquer thread.
+     */
+    public void complete(ConsumerRecord<?, ?> record) {
+        PartitionState state = partitions.get(new TopicPartition(record.topic(), record.partition()));
+
+        // Partição revogada enquanto o registro estava em voo
+        if (state != null) {
+            state.complete(record.offset());
+        }
+    }
+
+    /**
+     * Commit assíncrono das partições deste consumer cujo watermark avançou.
+     * Deve ser chamado na thread do consumer.
+     */
+    public void commitReady(Consumer<?, ?> consumer) {
+        Map<TopicPartition, OffsetAndMetadata> offsets = collectReady(consumer.assignment());
+
+        if (offsets.isEmpty()) {
+            return;
+        }
+
+        consumer.commitAsync(offsets, (committed, ex) -> {
+            if (ex != null) {
+                commitFailedCounter.increment();
+                log.warn("Async offset commit failed for {}: {}", committed.keySet(), ex.getMessage());
+            } else {
+                commitCounter.increment();
+                log.debug("Committed offsets {}", committed);
+            }
+        });
+    }
+
+    /**
+     * Sem registros novos o onMessage não é chamado; o evento de idle (publicado
+     * na thread do consumer) garante o commit do que terminou depois do último poll.
+     */
+    @EventListener
+    public void onIdle(ListenerContainerIdleEvent event) {
+        Consumer<?, ?> consumer = event.getConsumer();
+        if (consumer != null) {
+            commitReady(consumer);
+        }
+    }
+
+    @Override
+    public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> revoked) {
+        Map<TopicPartition, OffsetAndMetadata> offsets = collectReady(revoked);
+
+        if (!offsets.isEmpty()) {
+            try {
+                consumer.commitSync(offsets);
+                commitCounter.increment();
+                log.info("Committed offsets {} before revocation", offsets);
+            } catch (Exception e) {
+                commitFailedCounter.increment();
+                log.warn("Offset commit on revocation failed for {}: {}", offsets.keySet(), e.getMessage());
+            }
+        }
+
+        forget(revoked);
+    }
+
+    @Override
+    public void onPartitionsLost(Consumer<?, ?> consumer, Collection<TopicPartition> lost) {
+        forget(lost);
+    }
+
+    private Map<TopicPartition, OffsetAndMetadata> collectReady(Collection<TopicPartition> candidates) {
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+
+        for (TopicPartition partition : candidates) {
+            PartitionState state = partitions.get(partition);
+            if (state == null) {
+                continue;
+            }
+
+            long next = state.advance();
+            if (next >= 0) {
+                offsets.put(partition, new OffsetAndMetadata(next));
+            }
+        }
+
+        return offsets;
+    }
+
+    private void forget(Collection<TopicPartition> removed) {
+        for (TopicPartition partition : removed) {
+            PartitionState state = partitions.remove(partition);
+            if (state != null) {
+                state.gauges.forEach(meterRegistry::remove);
+                if (state.inFlight() > 0) {
+                    log.info("Dropping {} in-flight offsets of {} after rebalance", state.inFlight(), partition);
+                }
+            }
+        }
+    }
+
+    private PartitionState newPartitionState(TopicPartition partition) {
+        PartitionState state = new PartitionState();
+        Tags tags = Tags.of("topic", partition.topic(), "partition", String.valueOf(partition.partition()));
+
+        state.gauges = List.of(
+                Gauge.builder("kafka.offsets.inflight", state, PartitionState::inFlight)
+                        .description("Records of this partition handed to workers and not yet committed")
+                        .tags(tags)
+                        .register(meterRegistry),
+                Gauge.builder("kafka.offsets.oldest.uncommitted", state, PartitionState::oldestUncommitted)
+                        .description("Lowest offset of this partition still waiting for completion")
+                        .tags(tags)
+                        .register(meterRegistry));
+
+        return state;
+    }
+
+    private double inFlight() {
+        long total = 0;
+        for (PartitionState state : partitions.values()) {
+            total += state.inFlight();
+        }
+        return total;
+    }
+
+    /**
+     * Offsets entregues e ainda não commitados de uma partição, em ordem.
+     * O valor indica se o offset já foi concluído.
+     */
+    private static final class PartitionState {
+
+        private final TreeMap<Long, Boolean> pending = new TreeMap<>();
+        private long committed = -1;
+        private List<Gauge> gauges = List.of();
+
+        private synchronized void register(long offset) {
+            pending.putIfAbsent(offset, Boolean.FALSE);
+        }
+
+        private synchronized void complete(long offset) {
+            pending.computeIfPresent(offset, (key, done) -> Boolean.TRUE);
+        }
+
+        /**
+         * Remove o prefixo contíguo de offsets concluídos.
+         *
+         * @return próximo offset a consumir (valor do commit), ou -1 se não avançou
+         */
+        private synchronized long advance() {
+            long next = -1;
+
+            while (!pending.isEmpty() && pending.firstEntry().getValue()) {
+                next = pending.pollFirstEntry().getKey() + 1;
+            }
+
+            if (next <= committed) {
+                return -1;
+            }
+
+            committed = next;
+            return next;
+        }
+
+        private synchronized int inFlight() {
+            return pending.size();
+        }
+
+        private synchronized double oldestUncommitted() {
+            return pending.isEmpty() ? Double.NaN : pending.firstKey();
+        }
+    }
+}
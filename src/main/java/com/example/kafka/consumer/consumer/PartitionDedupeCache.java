@@ -0,0 +1,205 @@
+package com.example.kafka.consumer.consumer;
+
+import com.example.kafka.consumer.repository.ProcessedMessageRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.utils.Utils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Estado local de deduplicação por partição, com ciclo de vida guiado pelo rebalance.
+ *
+ * O producer usa o messageId como chave do registro, então todas as cópias de um
+ * ID caem na mesma partição: quem é dono da partição é o único consumer que
+ * precisa lembrar desses IDs. Na atribuição, o estado é aquecido com as linhas
+ * recentes de processed_message_keys cuja partição (murmur2 da chave, como no
+ * particionador padrão) é a atribuída; na revogação ou perda, é descartado.
+ *
+ * Com o CooperativeStickyAssignor a maioria das partições permanece com o mesmo
+ * consumer e mantém o estado quente entre rebalances. Enquanto o aquecimento
+ * não termina, a partição responde "não sei" e o claim segue para o Redis.
+ * Registros produzidos com outra chave não são encontrados no aquecimento, mas
+ * entram no estado assim que processados aqui.
+ */
+@Component
+@Slf4j
+public class PartitionDedupeCache implements ConsumerAwareRebalanceListener {
+
+    private final ProcessedMessageRepository repository;
+    private final TransactionTemplate readOnlyTransaction;
+    private final boolean enabled;
+    private final Duration warmWindow;
+    private final long maxSizePerPartition;
+    private final Map<TopicPartition, PartitionState> partitions = new ConcurrentHashMap<>();
+
+    private final MeterRegistry meterRegistry;
+    private final Counter hitCounter;
+    private final Counter missCounter;
+
+    public PartitionDedupeCache(
+            ProcessedMessageRepository repository,
+            PlatformTransactionManager transactionManager,
+            @Value("${app.idempotency.partition-cache.enabled:true}") boolean enabled,
+            @Value("${app.idempotency.partition-cache.warm-window-minutes:60}") long warmWindowMinutes,
+            @Value("${app.idempotency.partition-cache.max-size-per-partition:100000}") long maxSizePerPartition,
+            MeterRegistry meterRegistry) {
+
+        this.repository = repository;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.enabled = enabled;
+        this.warmWindow = Duration.ofMinutes(warmWindowMinutes);
+        this.maxSizePerPartition = maxSizePerPartition;
+
+        this.meterRegistry = meterRegistry;
+        this.hitCounter = meterRegistry.counter("idempotency.partition.cache.hit");
+        this.missCounter = meterRegistry.counter("idempotency.partition.cache.miss");
+
+        log.info("PartitionDedupeCache initialized: enabled={}, warmWindow={}, maxSizePerPartition={}",
+                enabled, warmWindow, maxSizePerPartition);
+    }
+
+    /**
+     * Gauges que leem o próprio bean: registrados depois da construção.
+     */
+    @PostConstruct
+    public void registerGauges() {
+        Gauge.builder("idempotency.partition.cache.size", this, PartitionDedupeCache::size)
+                .description("Message IDs held in partition-scoped dedupe state")
+                .register(meterRegistry);
+
+        Gauge.builder("idempotency.partition.cache.partitions", partitions, Map::size)
+                .description("Partitions with local dedupe state")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return true se o messageId já foi processado segundo o estado local da partição
+     */
+    public boolean contains(TopicPartition partition, String messageId) {
+        PartitionState state = partitions.get(partition);
+        if (state == null || !state.ready) {
+            return false;
+        }
+
+        if (state.ids.getIfPresent(messageId) != null) {
+            hitCounter.increment();
+            return true;
+        }
+
+        missCounter.increment();
+        return false;
+    }
+
+    public void add(TopicPartition partition, String messageId) {
+        PartitionState state = partitions.get(partition);
+        if (state != null) {
+            state.ids.put(messageId, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Cria o estado das partições recebidas e dispara o aquecimento fora da
+     * thread do consumer, para não atrasar o poll.
+     */
+    @Override
+    public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> assigned) {
+        if (!enabled || assigned.isEmpty()) {
+            return;
+        }
+
+        Map<TopicPartition, PartitionState> warming = new HashMap<>();
+        Map<String, Integer> partitionCounts = new HashMap<>();
+
+        for (TopicPartition partition : assigned) {
+            PartitionState state = new PartitionState(maxSizePerPartition, warmWindow);
+            partitions.put(partition, state);
+            warming.put(partition, state);
+            partitionCounts.computeIfAbsent(partition.topic(), topic -> consumer.partitionsFor(topic).size());
+        }
+
+        Thread.ofVirtual().name("partition-cache-warmup").start(() -> warmUp(warming, partitionCounts));
+    }
+
+    @Override
+    public void onPartitionsRevokedAfterCommit(Consumer<?, ?> consumer, Collection<TopicPartition> revoked) {
+        revoked.forEach(partitions::remove);
+    }
+
+    @Override
+    public void onPartitionsLost(Consumer<?, ?> consumer, Collection<TopicPartition> lost) {
+        lost.forEach(partitions::remove);
+    }
+
+    private void warmUp(Map<TopicPartition, PartitionState> warming, Map<String, Integer> partitionCounts) {
+        try {
+            LocalDateTime since = LocalDateTime.now().minus(warmWindow);
+            AtomicLong loaded = new AtomicLong();
+
+            readOnlyTransaction.executeWithoutResult(status -> {
+                try (Stream<String> messageIds = repository.streamMessageIdsProcessedSince(since)) {
+                    messageIds.forEach(messageId -> {
+                        byte[] key = messageId.getBytes(StandardCharsets.UTF_8);
+                        for (Map.Entry<String, Integer> topic : partitionCounts.entrySet()) {
+                            int partition = Utils.toPositive(Utils.murmur2(key)) % topic.getValue();
+                            PartitionState state = warming.get(new TopicPartition(topic.getKey(), partition));
+                            if (state != null) {
+                                state.ids.put(messageId, Boolean.TRUE);
+                                loaded.incrementAndGet();
+                            }
+                        }
+                    });
+                }
+            });
+
+            log.info("Partition dedupe state warmed for {} with {} message IDs", warming.keySet(), loaded.get());
+        } catch (Exception e) {
+            log.warn("Partition dedupe warm-up failed for {}, relying on processed records only: {}",
+                    warming.keySet(), e.getMessage());
+        } finally {
+            warming.values().forEach(state -> state.ready = true);
+        }
+    }
+
+    private double size() {
+        long total = 0;
+        for (PartitionState state : partitions.values()) {
+            total += state.ids.estimatedSize();
+        }
+        return total;
+    }
+
+    private static final class PartitionState {
+
+        private final Cache<String, Boolean> ids;
+        private volatile boolean ready;
+
+        private PartitionState(long maxSize, Duration ttl) {
+            this.ids = Caffeine.newBuilder()
+                    .maximumSize(maxSize)
+                    .expireAfterWrite(ttl)
+                    .build();
+        }
+    }
+}
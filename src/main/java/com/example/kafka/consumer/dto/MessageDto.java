@@ -1,12 +1,15 @@
 package com.example.kafka.consumer.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 
 import java.time.LocalDateTime;
 
@@ -36,4 +39,24 @@ public class MessageDto {
     
     @JsonProperty("correlation_id")
     private String correlationId;
+    
+    /**
+     * Payload ainda não decodificado, preenchido pelo MessageDtoDeserializer.
+     */
+    @JsonIgnore
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private transient RawJsonString rawPayload;
+    
+    /**
+     * Decodifica o payload na primeira leitura quando a mensagem veio do
+     * deserializer do consumer; depois disso o valor fica em cache no campo.
+     */
+    public String getPayload() {
+        if (payload == null && rawPayload != null) {
+            payload = rawPayload.decode();
+            rawPayload = null;
+        }
+        return payload;
+    }
 }
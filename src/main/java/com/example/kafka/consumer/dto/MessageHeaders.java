@@ -0,0 +1,16 @@
+package com.example.kafka.consumer.dto;
+
+/**
+ * Headers Kafka trocados entre o producer e o consumer desta aplicação.
+ */
+public final class MessageHeaders {
+    
+    /** messageId em UTF-8: permite rejeitar duplicatas sem desserializar o corpo. */
+    public static final String IDEMPOTENCY_KEY = "idempotency-key";
+    
+    /** Nome do MessageCodec do corpo ("json", "avro"); ausente = json. */
+    public static final String CODEC = "codec";
+    
+    private MessageHeaders() {
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.kafka.consumer.dto;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Literal de string JSON ainda não decodificado: uma fatia (aspas incluídas)
+ * do array de bytes original do registro do Kafka.
+ * 
+ * A decodificação só acontece quando alguém lê o valor. Duplicatas, que são
+ * descartadas antes de o payload ser usado, nunca pagam a cópia.
+ */
+public final class RawJsonString {
+    
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    
+    private final byte[] source;
+    private final int offset;
+    private final int length;
+    private final boolean escaped;
+    
+    /**
+     * @param offset  posição da aspa de abertura
+     * @param length  tamanho incluindo as duas aspas
+     * @param escaped se o literal contém sequências de escape (\n, \", \\uXXXX...)
+     */
+    public RawJsonString(byte[] source, int offset, int length, boolean escaped) {
+        this.source = source;
+        this.offset = offset;
+        this.length = length;
+        this.escaped = escaped;
+    }
+    
+    public String decode() {
+        // Sem escapes o conteúdo entre as aspas já é o texto em UTF-8
+        if (!escaped) {
+            return new String(source, offset + 1, length - 2, StandardCharsets.UTF_8);
+        }
+        
+        try (JsonParser parser = JSON_FACTORY.createParser(source, offset, length)) {
+            parser.nextToken();
+            return parser.getText();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Invalid JSON string literal", e);
+        }
+    }
+    
+    public int length() {
+        return length;
+    }
+}
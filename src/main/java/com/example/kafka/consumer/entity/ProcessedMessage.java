@@ -10,11 +10,15 @@ import org.hibernate.annotations.UpdateTimestamp;
 
 import java.time.LocalDateTime;
 
+/**
+ * Linha de auditoria de processed_messages, gravada em lote depois do
+ * processamento. A deduplicação usa só processed_message_keys
+ * ({@link com.example.kafka.consumer.repository.ProcessedMessageKey}).
+ */
 @Entity
 @Table(name = "processed_messages", indexes = {
-    @Index(name = "idx_message_id", columnList = "message_id", unique = true),
-    @Index(name = "idx_event_type", columnList = "event_type"),
-    @Index(name = "idx_processed_at", columnList = "processed_at")
+    @Index(name = "idx_message_id", columnList = "message_id"),
+    @Index(name = "idx_event_type", columnList = "event_type")
 })
 @Data
 @Builder
@@ -22,11 +26,20 @@ import java.time.LocalDateTime;
 @AllArgsConstructor
 public class ProcessedMessage {
     
+    /**
+     * Sequence com pooled optimizer: IDENTITY desabilita o batch de INSERT do
+     * Hibernate. allocationSize deve bater com o INCREMENT BY do schema.sql.
+     */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "processed_messages_seq")
+    @SequenceGenerator(name = "processed_messages_seq", sequenceName = "processed_messages_id_seq", allocationSize = 50)
     private Long id;
     
-    @Column(name = "message_id", nullable = false, unique = true, length = 255)
+    /**
+     * Sem unicidade aqui: a auditoria registra cada processamento, e quem
+     * garante um único claim por messageId é processed_message_keys.
+     */
+    @Column(name = "message_id", nullable = false, length = 255)
     private String messageId;
     
     @Column(name = "event_type", nullable = false, length = 100)
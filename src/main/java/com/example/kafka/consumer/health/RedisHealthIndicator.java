@@ -1,47 +1,82 @@
 package com.example.kafka.consumer.health;
 
+import com.example.kafka.consumer.service.RedisCircuitBreaker;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.actuate.health.Health;
 import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Component;
 
+/**
+ * Saúde do Redis a partir do {@link RedisCircuitBreaker}: com o circuito
+ * aberto o health não faz PING (que só esperaria o timeout) e reporta o modo
+ * de fallback em uso. Com o circuito fechado, o PING usa a conexão
+ * compartilhada do template em vez de abrir uma nova a cada sonda.
+ */
 @Component("redisHealth")
 @Slf4j
 public class RedisHealthIndicator implements HealthIndicator {
     
     private final RedisTemplate<String, String> redisTemplate;
+    private final RedisCircuitBreaker circuitBreaker;
+    private final boolean redisFallbackEnabled;
     
-    public RedisHealthIndicator(RedisTemplate<String, String> redisTemplate) {
+    public RedisHealthIndicator(
+            RedisTemplate<String, String> redisTemplate,
+            RedisCircuitBreaker circuitBreaker,
+            @Value("${app.performance.redis-fallback-enabled:true}") boolean redisFallbackEnabled) {
         this.redisTemplate = redisTemplate;
+        this.circuitBreaker = circuitBreaker;
+        this.redisFallbackEnabled = redisFallbackEnabled;
     }
     
     @Override
     public Health health() {
+        RedisCircuitBreaker.State state = circuitBreaker.state();
+        
+        if (state != RedisCircuitBreaker.State.CLOSED) {
+            return Health.down()
+                .withDetail("status", state == RedisCircuitBreaker.State.OPEN
+                    ? "Redis circuit open" : "Redis circuit half-open, probing")
+                .withDetail("fallback_mode", fallbackMode())
+                .withDetail("circuit_breaker", circuitBreaker.details())
+                .build();
+        }
+        
         try {
-            String pong = redisTemplate.getConnectionFactory()
-                .getConnection()
-                .ping();
+            String pong = redisTemplate.execute((RedisCallback<String>) RedisConnection::ping);
             
             if ("PONG".equalsIgnoreCase(pong)) {
                 return Health.up()
                     .withDetail("status", "Redis is available")
                     .withDetail("fallback_mode", "disabled")
+                    .withDetail("circuit_breaker", circuitBreaker.details())
                     .build();
             } else {
                 return Health.down()
                     .withDetail("status", "Redis ping failed")
-                    .withDetail("fallback_mode", "enabled - using PostgreSQL")
+                    .withDetail("fallback_mode", "per call - until the circuit opens")
+                    .withDetail("circuit_breaker", circuitBreaker.details())
                     .build();
             }
             
         } catch (Exception e) {
-            log.warn("Redis health check failed", e);
+            log.warn("Redis health check failed: {}", e.getMessage());
             return Health.down()
                 .withDetail("status", "Redis is unavailable")
-                .withDetail("fallback_mode", "enabled - using PostgreSQL")
+                .withDetail("fallback_mode", "per call - until the circuit opens")
+                .withDetail("circuit_breaker", circuitBreaker.details())
                 .withDetail("error", e.getMessage())
                 .build();
         }
     }
+    
+    private String fallbackMode() {
+        return redisFallbackEnabled
+            ? "enabled - using PostgreSQL with advisory locks"
+            : "unavailable - claims failing until Redis recovers";
+    }
 }
@@ -0,0 +1,42 @@
+package com.example.kafka.consumer.health;
+
+import com.example.kafka.consumer.service.RedisRehydrationService;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * /actuator/rehydration: GET mostra progresso, taxa e ETA da reidratação do Redis,
+ * POST inicia (ou retoma do checkpoint) e DELETE interrompe.
+ */
+@Component
+@Endpoint(id = "rehydration")
+public class RehydrationEndpoint {
+
+    private final RedisRehydrationService rehydrationService;
+
+    public RehydrationEndpoint(RedisRehydrationService rehydrationService) {
+        this.rehydrationService = rehydrationService;
+    }
+
+    @ReadOperation
+    public Map<String, Object> status() {
+        return rehydrationService.status();
+    }
+
+    @WriteOperation
+    public Map<String, Object> start() {
+        boolean started = rehydrationService.start();
+        return Map.of("started", started, "status", rehydrationService.status());
+    }
+
+    @DeleteOperation
+    public Map<String, Object> cancel() {
+        boolean cancelled = rehydrationService.cancel();
+        return Map.of("cancelled", cancelled, "status", rehydrationService.status());
+    }
+}
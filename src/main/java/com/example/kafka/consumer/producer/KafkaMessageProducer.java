@@ -1,13 +1,16 @@
 package com.example.kafka.consumer.producer;
 
 import com.example.kafka.consumer.dto.MessageDto;
+import com.example.kafka.consumer.dto.MessageHeaders;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.ProducerRecord;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.support.SendResult;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
@@ -41,7 +44,7 @@ public class KafkaMessageProducer {
 
         log.info("Sending message to Kafka topic [{}]: messageId={}", topic, message.getMessageId());
         
-        return kafkaTemplate.send(topic, message.getMessageId(), message)
+        return kafkaTemplate.send(buildRecord(topic, message))
                 .whenComplete((result, ex) -> {
                     if (ex == null) {
                         log.info("Message sent successfully: messageId={}, partition={}, offset={}",
@@ -73,7 +76,7 @@ public class KafkaMessageProducer {
 
         log.info("Sending message to Kafka topic [{}]: messageId={}", targetTopic, message.getMessageId());
         
-        return kafkaTemplate.send(targetTopic, message.getMessageId(), message)
+        return kafkaTemplate.send(buildRecord(targetTopic, message))
                 .whenComplete((result, ex) -> {
                     if (ex == null) {
                         log.info("Message sent successfully to [{}]: messageId={}, partition={}, offset={}",
@@ -87,4 +90,15 @@ public class KafkaMessageProducer {
                     }
                 });
     }
+
+    /**
+     * Registro com o messageId como chave (todas as cópias na mesma partição)
+     * e no header de idempotência, para que o consumer descarte duplicatas
+     * sem desserializar o corpo.
+     */
+    private ProducerRecord<String, MessageDto> buildRecord(String targetTopic, MessageDto message) {
+        ProducerRecord<String, MessageDto> record = new ProducerRecord<>(targetTopic, message.getMessageId(), message);
+        record.headers().add(MessageHeaders.IDEMPOTENCY_KEY, message.getMessageId().getBytes(StandardCharsets.UTF_8));
+        return record;
+    }
 }
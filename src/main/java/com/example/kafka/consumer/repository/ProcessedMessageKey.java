@@ -0,0 +1,16 @@
+package com.example.kafka.consumer.repository;
+
+import com.example.kafka.consumer.entity.ProcessedMessage;
+
+import java.time.LocalDateTime;
+
+/**
+ * Linha de processed_message_keys: só o necessário para a deduplicação, sem
+ * payload. Usada no claim, na gravação em lote e na paginação por keyset.
+ *
+ * @param messageId   chave de idempotência, desempate da ordenação
+ * @param status      resultado do processamento
+ * @param processedAt instante do processamento, primeira coluna do keyset
+ */
+public record ProcessedMessageKey(String messageId, ProcessedMessage.ProcessingStatus status, LocalDateTime processedAt) {
+}
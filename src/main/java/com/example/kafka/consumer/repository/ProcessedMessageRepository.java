@@ -1,26 +1,37 @@
 package com.example.kafka.consumer.repository;
 
 import com.example.kafka.consumer.entity.ProcessedMessage;
+import jakarta.persistence.QueryHint;
 import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
 import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE;
 
 @Repository
-public interface ProcessedMessageRepository extends JpaRepository<ProcessedMessage, Long> {
+public interface ProcessedMessageRepository extends JpaRepository<ProcessedMessage, Long>, ProcessedMessageRepositoryCustom {
     
+    /**
+     * Linha de auditoria da mensagem. Para saber se ela já foi processada use
+     * {@link #findExistingMessageIds}: a auditoria é gravada depois, em lote.
+     */
     Optional<ProcessedMessage> findByMessageId(String messageId);
     
-    boolean existsByMessageId(String messageId);
-    
-    @Modifying
-    @Query("DELETE FROM ProcessedMessage pm WHERE pm.processedAt < :cutoffDate")
-    int deleteOldMessages(@Param("cutoffDate") LocalDateTime cutoffDate);
+    /**
+     * Stream de messageIds recentes (de processed_message_keys) para aquecer
+     * filtros em memória. Deve ser consumido dentro de uma transação para o
+     * driver usar cursor.
+     */
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "10000"))
+    @Query(value = "SELECT message_id FROM processed_message_keys WHERE processed_at >= :since", nativeQuery = true)
+    Stream<String> streamMessageIdsProcessedSince(@Param("since") LocalDateTime since);
     
-    @Query("SELECT COUNT(pm) FROM ProcessedMessage pm WHERE pm.processedAt >= :since")
+    @Query(value = "SELECT COUNT(*) FROM processed_message_keys WHERE processed_at >= :since", nativeQuery = true)
     long countProcessedSince(@Param("since") LocalDateTime since);
 }
@@ -0,0 +1,113 @@
+package com.example.kafka.consumer.repository;
+
+import com.example.kafka.consumer.entity.ProcessedMessage;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Operações de processed_message_keys e processed_messages que dependem de
+ * SQL específico do PostgreSQL.
+ * 
+ * A deduplicação só lê e grava processed_message_keys (message_id, status,
+ * processed_at), que não é particionada para manter message_id como chave
+ * única; a linha completa de auditoria vai para processed_messages depois, em
+ * lote, e só ela é particionada por dia.
+ */
+public interface ProcessedMessageRepositoryCustom {
+    
+    /**
+     * Resolve em um único statement quais messageIds do lote já existem,
+     * usando message_id = ANY(?) sobre a chave primária de processed_message_keys.
+     */
+    Set<String> findExistingMessageIds(Collection<String> messageIds);
+    
+    /**
+     * Claim atômico de um lote no PostgreSQL: um único
+     * INSERT INTO processed_message_keys ... ON CONFLICT (message_id) DO NOTHING
+     * RETURNING message_id, resolvido pela chave primária.
+     * 
+     * @return messageIds cujas chaves foram inseridas por esta chamada
+     */
+    Set<String> insertKeys(List<ProcessedMessageKey> keys);
+    
+    /**
+     * Corrige o status da chave (SUCCESS otimista gravado no claim).
+     * 
+     * @return linhas atualizadas
+     */
+    int updateKeyStatus(String messageId, ProcessedMessage.ProcessingStatus status);
+    
+    /**
+     * Apaga as chaves de claims abandonados antes de {@code markAsProcessed},
+     * para que a reentrega da mensagem possa ser reivindicada de novo.
+     * 
+     * @return linhas apagadas
+     */
+    int deleteKeys(Collection<String> messageIds);
+    
+    /**
+     * Retenção das chaves: apaga até limit chaves com processed_at anterior ao
+     * corte. Chamado em laço até devolver menos que limit, para que cada
+     * DELETE seja uma transação curta.
+     * 
+     * @return linhas apagadas
+     */
+    int deleteKeysBefore(LocalDateTime processedAt, int limit);
+    
+    /**
+     * Ingestão em massa das linhas de auditoria via COPY: as linhas são
+     * enviadas pelo CopyManager do PgJDBC direto para processed_messages, que
+     * não tem restrição de unicidade (a deduplicação é feita nas chaves).
+     * 
+     * @return linhas gravadas
+     */
+    long copyInsert(List<ProcessedMessage> messages);
+    
+    /**
+     * Próxima página do keyset (processed_at, message_id) de
+     * processed_message_keys a partir da posição dada, em ordem crescente,
+     * usando o índice idx_keys_processed_at_message_id. Não depende de
+     * OFFSET, então o custo por página é constante mesmo no fim da janela.
+     */
+    List<ProcessedMessageKey> findKeysAfter(LocalDateTime processedAt, String messageId, int limit);
+    
+    /**
+     * Dias com partição (processed_messages_pAAAAMMDD), em ordem.
+     */
+    List<LocalDate> findPartitions();
+    
+    /**
+     * Cria a partição do dia [day, day + 1) de processed_messages. Linhas do
+     * dia que caíram na partição DEFAULT são movidas para a nova partição.
+     * 
+     * @return false se ela já existia
+     */
+    boolean createPartition(LocalDate day);
+    
+    /**
+     * DETACH + DROP da partição do dia: a retenção da auditoria vira uma
+     * operação de catálogo, sem DELETE nem vacuum. Com a partição DEFAULT o
+     * DETACH não pode ser CONCURRENTLY; ele desiste depois de um lock_timeout
+     * curto e fica para a próxima manutenção. Um DETACH CONCURRENTLY
+     * interrompido antes é concluído com FINALIZE.
+     */
+    void dropPartition(LocalDate day);
+    
+    /**
+     * Linhas por dia na partição DEFAULT: dias que chegaram
+     * antes da sua partição diária.
+     */
+    Map<LocalDate, Long> findDefaultPartitionRows();
+    
+    /**
+     * Apaga da partição DEFAULT as linhas anteriores a day (fora da retenção).
+     * 
+     * @return linhas apagadas
+     */
+    int deleteDefaultPartitionRowsBefore(LocalDate day);
+}
@@ -0,0 +1,377 @@
+package com.example.kafka.consumer.repository;
+
+import com.example.kafka.consumer.entity.ProcessedMessage;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+class ProcessedMessageRepositoryImpl implements ProcessedMessageRepositoryCustom {
+    
+    private static final String FIND_EXISTING_SQL =
+            "SELECT message_id FROM processed_message_keys WHERE message_id = ANY(?)";
+    
+    private static final String COLUMNS =
+            "message_id, event_type, payload, source, correlation_id, message_timestamp, " +
+            "processed_at, updated_at, status, retry_count, error_message";
+    
+    private static final String COPY_SQL =
+            "COPY processed_messages (" + COLUMNS + ") FROM STDIN WITH (FORMAT text)";
+    
+    /**
+     * A ordem por message_id fixa a ordem em que dois lotes concorrentes com
+     * IDs em comum esperam um pelo outro no índice único, sem deadlock.
+     */
+    private static final String INSERT_KEYS_SQL =
+            "INSERT INTO processed_message_keys (message_id, status, processed_at) " +
+            "SELECT * FROM unnest(?::varchar[], ?::varchar[], ?::timestamp[]) " +
+            "AS k(message_id, status, processed_at) ORDER BY message_id " +
+            "ON CONFLICT (message_id) DO NOTHING RETURNING message_id";
+    
+    private static final String UPDATE_KEY_STATUS_SQL =
+            "UPDATE processed_message_keys SET status = ? WHERE message_id = ?";
+    
+    private static final String DELETE_KEYS_SQL =
+            "DELETE FROM processed_message_keys WHERE message_id = ANY(?)";
+    
+    /** Um lote da retenção das chaves, pelo índice (processed_at, message_id). */
+    private static final String DELETE_KEYS_BEFORE_SQL =
+            "DELETE FROM processed_message_keys WHERE message_id IN (" +
+            "SELECT message_id FROM processed_message_keys WHERE processed_at < ? " +
+            "ORDER BY processed_at LIMIT ?)";
+    
+    private static final String AUDIT_TABLE = "processed_messages";
+    private static final String PARTITION_PREFIX = AUDIT_TABLE + "_p";
+    private static final String DEFAULT_PARTITION = AUDIT_TABLE + "_default";
+    
+    private static final String PARTITIONS_SQL =
+            "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+            "WHERE i.inhparent = '" + AUDIT_TABLE + "'::regclass";
+    
+    private static final String DETACH_PENDING_SQL =
+            "SELECT inhdetachpending FROM pg_inherits WHERE inhrelid = to_regclass(?)";
+    
+    private static final String RELATION_EXISTS_SQL = "SELECT to_regclass(?) IS NOT NULL";
+    
+    /** Espera máxima pelo lock da tabela pai no DETACH, para não enfileirar as inserções atrás dele. */
+    private static final String DETACH_LOCK_TIMEOUT_SQL = "SET LOCAL lock_timeout = '5s'";
+    
+    private static final String KEYSET_SQL =
+            "SELECT message_id, status, processed_at FROM processed_message_keys " +
+            "WHERE (processed_at, message_id) > (?, ?) ORDER BY processed_at, message_id LIMIT ?";
+    
+    /** Tamanho do bloco enviado ao servidor a cada writeToCopy. */
+    private static final int COPY_CHUNK_BYTES = 64 * 1024;
+    
+    private final JdbcTemplate jdbcTemplate;
+    
+    ProcessedMessageRepositoryImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+    
+    @Override
+    public Set<String> findExistingMessageIds(Collection<String> messageIds) {
+        Set<String> existing = new HashSet<>();
+        
+        if (messageIds.isEmpty()) {
+            return existing;
+        }
+        
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(FIND_EXISTING_SQL);
+            Array ids = connection.createArrayOf("varchar", messageIds.toArray());
+            statement.setArray(1, ids);
+            return statement;
+        }, resultSet -> {
+            existing.add(resultSet.getString(1));
+        });
+        
+        return existing;
+    }
+    
+    @Override
+    public Set<String> insertKeys(List<ProcessedMessageKey> keys) {
+        Set<String> inserted = new HashSet<>();
+        
+        if (keys.isEmpty()) {
+            return inserted;
+        }
+        
+        int size = keys.size();
+        Object[] messageIds = new Object[size];
+        Object[] statuses = new Object[size];
+        Object[] processedAts = new Object[size];
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        
+        for (int i = 0; i < size; i++) {
+            ProcessedMessageKey key = keys.get(i);
+            messageIds[i] = key.messageId();
+            statuses[i] = key.status().name();
+            processedAts[i] = key.processedAt() != null ? Timestamp.valueOf(key.processedAt()) : now;
+        }
+        
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(INSERT_KEYS_SQL);
+            statement.setArray(1, connection.createArrayOf("varchar", messageIds));
+            statement.setArray(2, connection.createArrayOf("varchar", statuses));
+            statement.setArray(3, connection.createArrayOf("timestamp", processedAts));
+            return statement;
+        }, resultSet -> {
+            inserted.add(resultSet.getString(1));
+        });
+        
+        return inserted;
+    }
+    
+    @Override
+    public int updateKeyStatus(String messageId, ProcessedMessage.ProcessingStatus status) {
+        return jdbcTemplate.update(UPDATE_KEY_STATUS_SQL, status.name(), messageId);
+    }
+    
+    @Override
+    public int deleteKeys(Collection<String> messageIds) {
+        if (messageIds.isEmpty()) {
+            return 0;
+        }
+        
+        return jdbcTemplate.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement(DELETE_KEYS_SQL);
+            statement.setArray(1, connection.createArrayOf("varchar", messageIds.toArray()));
+            return statement;
+        });
+    }
+    
+    @Override
+    public int deleteKeysBefore(LocalDateTime processedAt, int limit) {
+        return jdbcTemplate.update(DELETE_KEYS_BEFORE_SQL, Timestamp.valueOf(processedAt), limit);
+    }
+    
+    @Override
+    public long copyInsert(List<ProcessedMessage> messages) {
+        if (messages.isEmpty()) {
+            return 0;
+        }
+        
+        return jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+            CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_SQL);
+            try {
+                ByteArrayOutputStream chunk = new ByteArrayOutputStream(COPY_CHUNK_BYTES);
+                StringBuilder row = new StringBuilder(256);
+                LocalDateTime now = LocalDateTime.now();
+                
+                for (ProcessedMessage message : messages) {
+                    if (message.getProcessedAt() == null) {
+                        message.setProcessedAt(now);
+                    }
+                    message.setUpdatedAt(now);
+                    
+                    row.setLength(0);
+                    appendRow(row, message);
+                    chunk.writeBytes(row.toString().getBytes(StandardCharsets.UTF_8));
+                    
+                    if (chunk.size() >= COPY_CHUNK_BYTES) {
+                        copyIn.writeToCopy(chunk.toByteArray(), 0, chunk.size());
+                        chunk.reset();
+                    }
+                }
+                
+                if (chunk.size() > 0) {
+                    copyIn.writeToCopy(chunk.toByteArray(), 0, chunk.size());
+                }
+                return copyIn.endCopy();
+            } finally {
+                if (copyIn.isActive()) {
+                    copyIn.cancelCopy();
+                }
+            }
+        });
+    }
+    
+    @Override
+    public List<ProcessedMessageKey> findKeysAfter(LocalDateTime processedAt, String messageId, int limit) {
+        return jdbcTemplate.query(KEYSET_SQL,
+                (resultSet, rowNum) -> new ProcessedMessageKey(
+                        resultSet.getString(1),
+                        ProcessedMessage.ProcessingStatus.valueOf(resultSet.getString(2)),
+                        resultSet.getTimestamp(3).toLocalDateTime()),
+                Timestamp.valueOf(processedAt), messageId, limit);
+    }
+    
+    @Override
+    public List<LocalDate> findPartitions() {
+        Set<LocalDate> days = new TreeSet<>();
+        
+        jdbcTemplate.query(PARTITIONS_SQL, resultSet -> {
+            String name = resultSet.getString(1);
+            if (name.startsWith(PARTITION_PREFIX)) {
+                try {
+                    days.add(LocalDate.parse(name.substring(PARTITION_PREFIX.length()), DateTimeFormatter.BASIC_ISO_DATE));
+                } catch (DateTimeParseException e) {
+                    // Partição criada fora do padrão: não é gerenciada aqui
+                }
+            }
+        });
+        
+        return new ArrayList<>(days);
+    }
+    
+    @Override
+    public boolean createPartition(LocalDate day) {
+        String name = partitionName(day);
+        Integer existing = jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM pg_class WHERE relname = ?", Integer.class, name);
+        
+        if (existing != null && existing > 0) {
+            return false;
+        }
+        
+        String range = "FOR VALUES FROM ('" + day + "') TO ('" + day.plusDays(1) + "')";
+        String inRange = "processed_at >= '" + day + "' AND processed_at < '" + day.plusDays(1) + "'";
+        
+        if (relationExists(DEFAULT_PARTITION) && Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM " + DEFAULT_PARTITION + " WHERE " + inRange + ")", Boolean.class))) {
+            // CREATE ... PARTITION OF falharia com linhas do dia na DEFAULT: elas
+            // são movidas para uma tabela avulsa, que então entra como partição
+            executeAtomically(
+                    "CREATE TABLE " + name + " (LIKE " + AUDIT_TABLE + " INCLUDING DEFAULTS INCLUDING CONSTRAINTS" +
+                            " INCLUDING INDEXES)",
+                    "WITH moved AS (DELETE FROM " + DEFAULT_PARTITION + " WHERE " + inRange + " RETURNING *) " +
+                            "INSERT INTO " + name + " SELECT * FROM moved",
+                    "ALTER TABLE " + AUDIT_TABLE + " ATTACH PARTITION " + name + " " + range);
+        } else {
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + name + " PARTITION OF " + AUDIT_TABLE + " " + range);
+        }
+        return true;
+    }
+    
+    @Override
+    public void dropPartition(LocalDate day) {
+        String name = partitionName(day);
+        List<Boolean> detachPending = jdbcTemplate.queryForList(DETACH_PENDING_SQL, Boolean.class, name);
+        
+        if (detachPending.isEmpty()) {
+            jdbcTemplate.execute("DROP TABLE IF EXISTS " + name);
+        } else if (detachPending.get(0)) {
+            // DETACH CONCURRENTLY interrompido (antes da partição DEFAULT existir)
+            jdbcTemplate.execute("ALTER TABLE " + AUDIT_TABLE + " DETACH PARTITION " + name + " FINALIZE");
+            jdbcTemplate.execute("DROP TABLE IF EXISTS " + name);
+        } else {
+            // Com partição DEFAULT não há DETACH CONCURRENTLY: o DETACH comum é
+            // só catálogo, e o lock_timeout evita que as inserções esperem atrás dele
+            executeAtomically(
+                    DETACH_LOCK_TIMEOUT_SQL,
+                    "ALTER TABLE " + AUDIT_TABLE + " DETACH PARTITION " + name,
+                    "DROP TABLE " + name);
+        }
+    }
+    
+    @Override
+    public Map<LocalDate, Long> findDefaultPartitionRows() {
+        Map<LocalDate, Long> rows = new TreeMap<>();
+        
+        if (relationExists(DEFAULT_PARTITION)) {
+            jdbcTemplate.query("SELECT processed_at::date, count(*) FROM " + DEFAULT_PARTITION + " GROUP BY 1",
+                    resultSet -> {
+                        rows.put(resultSet.getDate(1).toLocalDate(), resultSet.getLong(2));
+                    });
+        }
+        
+        return rows;
+    }
+    
+    @Override
+    public int deleteDefaultPartitionRowsBefore(LocalDate day) {
+        if (!relationExists(DEFAULT_PARTITION)) {
+            return 0;
+        }
+        
+        return jdbcTemplate.update(
+                "DELETE FROM " + DEFAULT_PARTITION + " WHERE processed_at < ?", Timestamp.valueOf(day.atStartOfDay()));
+    }
+    
+    private boolean relationExists(String name) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(RELATION_EXISTS_SQL, Boolean.class, name));
+    }
+    
+    /**
+     * Executa os statements em uma única transação.
+     */
+    private void executeAtomically(String... statements) {
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                for (String sql : statements) {
+                    statement.execute(sql);
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+            return null;
+        });
+    }
+    
+    private static String partitionName(LocalDate day) {
+        return PARTITION_PREFIX + day.format(DateTimeFormatter.BASIC_ISO_DATE);
+    }
+    
+    /**
+     * Uma linha no formato text do COPY: colunas separadas por TAB, \N para NULL.
+     */
+    static void appendRow(StringBuilder row, ProcessedMessage message) {
+        appendField(row, message.getMessageId()).append('\t');
+        appendField(row, message.getEventType()).append('\t');
+        appendField(row, message.getPayload()).append('\t');
+        appendField(row, message.getSource()).append('\t');
+        appendField(row, message.getCorrelationId()).append('\t');
+        appendField(row, message.getMessageTimestamp()).append('\t');
+        appendField(row, message.getProcessedAt()).append('\t');
+        appendField(row, message.getUpdatedAt()).append('\t');
+        appendField(row, message.getStatus() != null ? message.getStatus().name() : null).append('\t');
+        appendField(row, message.getRetryCount()).append('\t');
+        appendField(row, message.getErrorMessage()).append('\n');
+    }
+    
+    private static StringBuilder appendField(StringBuilder row, Object value) {
+        if (value == null) {
+            return row.append("\\N");
+        }
+        
+        String text = value.toString();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '\\' -> row.append("\\\\");
+                case '\t' -> row.append("\\t");
+                case '\n' -> row.append("\\n");
+                case '\r' -> row.append("\\r");
+                default -> row.append(c);
+            }
+        }
+        return row;
+    }
+}
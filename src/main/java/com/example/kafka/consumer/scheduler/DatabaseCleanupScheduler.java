@@ -1,48 +1,183 @@
 package com.example.kafka.consumer.scheduler;
 
 import com.example.kafka.consumer.repository.ProcessedMessageRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Retenção de processed_messages por partição diária e de
+ * processed_message_keys por DELETE em lotes.
+ * 
+ * Cria as partições de hoje e dos próximos premake-days dias (na subida e a
+ * cada execução) e remove com DETACH + DROP as partições inteiramente mais
+ * antigas que postgres-cleanup-days. Substitui o DELETE ... WHERE processed_at < ?
+ * único sobre a auditoria, que inchava a tabela e todos os índices e segurava
+ * locks por minutos.
+ * 
+ * A tabela de chaves não é particionada (a unicidade de message_id depende
+ * disso); como as linhas são estreitas, ela é aparada em lotes de
+ * key-cleanup-batch-size pelo índice de processed_at, uma transação curta por lote.
+ * 
+ * Linhas sem partição diária caem na partição DEFAULT: o gauge
+ * db.partitions.default.rows alerta, e a manutenção cria a partição desses
+ * dias (movendo as linhas) ou, fora da retenção, apaga as linhas.
+ * 
+ * Várias réplicas podem rodar ao mesmo tempo: quem chega depois só encontra
+ * a partição já criada ou removida.
+ */
 @Component
 @Slf4j
 public class DatabaseCleanupScheduler {
     
     private final ProcessedMessageRepository repository;
     private final int cleanupDays;
+    private final int premakeDays;
+    private final int keyCleanupBatchSize;
+    private final Counter partitionsCreatedCounter;
+    private final Counter partitionsDroppedCounter;
+    private final Counter keysDeletedCounter;
+    private final AtomicLong defaultPartitionRows = new AtomicLong();
     
     public DatabaseCleanupScheduler(
             ProcessedMessageRepository repository,
-            @Value("${app.idempotency.postgres-cleanup-days:7}") int cleanupDays) {
+            @Value("${app.idempotency.postgres-cleanup-days:7}") int cleanupDays,
+            @Value("${app.idempotency.partitions.premake-days:3}") int premakeDays,
+            @Value("${app.idempotency.key-cleanup-batch-size:10000}") int keyCleanupBatchSize,
+            MeterRegistry meterRegistry) {
         
         this.repository = repository;
         this.cleanupDays = cleanupDays;
+        this.premakeDays = premakeDays;
+        this.keyCleanupBatchSize = keyCleanupBatchSize;
+        this.partitionsCreatedCounter = meterRegistry.counter("db.partitions.created");
+        this.partitionsDroppedCounter = meterRegistry.counter("db.partitions.dropped");
+        this.keysDeletedCounter = meterRegistry.counter("db.keys.deleted");
+        meterRegistry.gauge("db.partitions.default.rows", defaultPartitionRows);
         
-        log.info("DatabaseCleanupScheduler initialized - cleanup after {} days", cleanupDays);
+        log.info("DatabaseCleanupScheduler initialized - daily partitions, {} days ahead, dropped after {} days",
+                premakeDays, cleanupDays);
     }
     
-    // @Scheduled(cron = "0 0 2 * * *")
-    // @Transactional
-    // public void cleanupOldMessages() {
-    //     log.info("Starting cleanup of old processed messages");
+    /**
+     * Garante a partição de hoje antes de os listeners começarem a gravar.
+     */
+    @PostConstruct
+    public void createUpcomingPartitions() {
+        LocalDate today = LocalDate.now();
         
-    //     try {
-    //         LocalDateTime cutoffDate = LocalDateTime.now().minusDays(cleanupDays);
+        for (int i = 0; i <= premakeDays; i++) {
+            LocalDate day = today.plusDays(i);
+            try {
+                if (repository.createPartition(day)) {
+                    partitionsCreatedCounter.increment();
+                    log.info("Created daily partition for {}", day);
+                }
+            } catch (Exception e) {
+                log.warn("Could not create daily partition for {}: {}", day, e.getMessage());
+            }
+        }
+    }
+    
+    @Scheduled(cron = "${app.idempotency.partitions.maintenance-cron:0 5 * * * *}")
+    public void maintainPartitions() {
+        createUpcomingPartitions();
+        
+        // A partição [day, day + 1) só sai quando todas as linhas dela passaram da retenção
+        LocalDate oldestKept = LocalDate.now().minusDays(cleanupDays);
+        
+        try {
+            for (LocalDate day : repository.findPartitions()) {
+                if (!day.isBefore(oldestKept)) {
+                    break;
+                }
+                
+                try {
+                    repository.dropPartition(day);
+                    partitionsDroppedCounter.increment();
+                    log.info("Dropped daily partition for {} (retention {} days)", day, cleanupDays);
+                } catch (Exception e) {
+                    log.warn("Could not drop daily partition for {}: {}", day, e.getMessage());
+                }
+            }
             
-    //         int deletedCount = repository.deleteOldMessages(cutoffDate);
+            drainDefaultPartitions(oldestKept);
+        } catch (Exception e) {
+            log.error("Error during partition maintenance", e);
+        }
+        
+        deleteExpiredKeys(oldestKept);
+    }
+    
+    /**
+     * Apaga as chaves anteriores a oldestKept, o mesmo corte das partições.
+     */
+    private void deleteExpiredKeys(LocalDate oldestKept) {
+        LocalDateTime cutoff = oldestKept.atStartOfDay();
+        long total = 0;
+        
+        try {
+            int deleted;
+            do {
+                deleted = repository.deleteKeysBefore(cutoff, keyCleanupBatchSize);
+                total += deleted;
+                keysDeletedCounter.increment(deleted);
+            } while (deleted >= keyCleanupBatchSize);
             
-    //         log.info("Cleanup completed - {} old messages deleted (older than {})", 
-    //                 deletedCount, cutoffDate);
+            if (total > 0) {
+                log.info("Deleted {} idempotency keys older than {}", total, cutoff);
+            }
+        } catch (Exception e) {
+            log.error("Error deleting idempotency keys older than {} after {} rows", cutoff, total, e);
+        }
+    }
+    
+    /**
+     * Dá partição própria aos dias que caíram na DEFAULT e apaga os que já
+     * passaram da retenção.
+     */
+    private void drainDefaultPartitions(LocalDate oldestKept) {
+        Map<LocalDate, Long> rows = repository.findDefaultPartitionRows();
+        defaultPartitionRows.set(rows.values().stream().mapToLong(Long::longValue).sum());
+        
+        if (rows.isEmpty()) {
+            return;
+        }
+        
+        log.warn("Default partition holds rows without a daily partition: {}", rows);
+        
+        for (LocalDate day : rows.keySet()) {
+            if (day.isBefore(oldestKept)) {
+                continue;
+            }
             
-    //     } catch (Exception e) {
-    //         log.error("Error during database cleanup", e);
-    //     }
-    // }
+            try {
+                if (repository.createPartition(day)) {
+                    partitionsCreatedCounter.increment();
+                    log.info("Created daily partition for {} from the default partition", day);
+                }
+            } catch (Exception e) {
+                log.warn("Could not move default partition rows for {}: {}", day, e.getMessage());
+            }
+        }
+        
+        int expired = repository.deleteDefaultPartitionRowsBefore(oldestKept);
+        if (expired > 0) {
+            log.info("Deleted {} default partition rows older than {}", expired, oldestKept);
+        }
+        
+        defaultPartitionRows.set(repository.findDefaultPartitionRows().values().stream()
+                .mapToLong(Long::longValue).sum());
+    }
     
     // @Scheduled(fixedRate = 3600000)
     // public void logStatistics() {
@@ -0,0 +1,17 @@
+package com.example.kafka.consumer.service;
+
+import com.example.kafka.consumer.entity.ProcessedMessage;
+
+import java.util.List;
+
+/**
+ * Estratégia de gravação das linhas de auditoria (processed_messages) usada
+ * pelo {@link PostgresBatchPersistService#flushBatch()}.
+ * 
+ * Selecionada por app.performance.flush-strategy (jpa | copy). Sempre chamada
+ * dentro da transação do flush, depois da gravação das chaves.
+ */
+public interface BatchFlushStrategy {
+    
+    void flush(List<ProcessedMessage> messages);
+}
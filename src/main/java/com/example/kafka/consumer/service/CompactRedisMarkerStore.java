@@ -0,0 +1,323 @@
+package com.example.kafka.consumer.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Formato compacto: IDs binários de 128 bits agrupados em hashes pequenos.
+ *
+ * O messageId vira 16 bytes (o próprio UUID quando está na forma canônica,
+ * senão os 16 primeiros bytes do SHA-256). Os 4 primeiros bytes escolhem o
+ * bucket "idem:&lt;n&gt;" e os 12 restantes são o campo do hash, com valor vazio
+ * (processado) ou "p" (reserva pendente).
+ * Com poucos campos por bucket (abaixo de hash-max-listpack-entries) o Redis
+ * guarda o hash como listpack, sem o overhead de uma chave de topo por ID.
+ *
+ * A expiração é por campo (HEXPIRE), o que exige Redis 7.4+.
+ */
+@Component
+public class CompactRedisMarkerStore implements RedisMarkerStore {
+
+    private static final String BUCKET_PREFIX = "idem:";
+    private static final int ID_BYTES = 16;
+    private static final int BUCKET_BYTES = 4;
+
+    /**
+     * HSETNX + HEXPIRE por campo em uma única execução atômica. KEYS[i] é o
+     * bucket do campo ARGV[i + 1]; ARGV[1] é o TTL da reserva. Retorna
+     * 1 (claimed) ou 0 (duplicate) por campo, na ordem de KEYS.
+     */
+    private static final RedisScript<List<Long>> CLAIM_ALL_SCRIPT = RedisMarkers.listScript("""
+            local result = {}
+            for i, key in ipairs(KEYS) do
+                local field = ARGV[i + 1]
+                if redis.call('HSETNX', key, field, 'p') == 1 then
+                    redis.call('HEXPIRE', key, ARGV[1], 'FIELDS', 1, field)
+                    result[i] = 1
+                else
+                    result[i] = 0
+                end
+            end
+            return result
+            """);
+
+    /**
+     * HSET do valor de processado + HEXPIRE com o TTL completo (ARGV[1]) por
+     * campo, com o mesmo layout de KEYS e ARGV do claim.
+     */
+    private static final RedisScript<Long> PROMOTE_ALL_SCRIPT = new DefaultRedisScript<>("""
+            for i, key in ipairs(KEYS) do
+                local field = ARGV[i + 1]
+                redis.call('HSET', key, field, '')
+                redis.call('HEXPIRE', key, ARGV[1], 'FIELDS', 1, field)
+            end
+            return #KEYS
+            """, Long.class);
+
+    /**
+     * HDEL de cada campo ARGV[i] que ainda guarda a reserva.
+     */
+    private static final RedisScript<Long> RELEASE_ALL_SCRIPT = new DefaultRedisScript<>("""
+            local released = 0
+            for i, key in ipairs(KEYS) do
+                if redis.call('HGET', key, ARGV[i]) == 'p' then
+                    redis.call('HDEL', key, ARGV[i])
+                    released = released + 1
+                end
+            end
+            return released
+            """, Long.class);
+
+    /**
+     * Como o claim, mas grava direto o valor de processado com TTL próprio por
+     * campo: ARGV alterna campo e TTL.
+     */
+    private static final RedisScript<Long> RESTORE_ALL_SCRIPT = new DefaultRedisScript<>("""
+            local restored = 0
+            for i, key in ipairs(KEYS) do
+                local field = ARGV[2 * i - 1]
+                if redis.call('HSETNX', key, field, '') == 1 then
+                    redis.call('HEXPIRE', key, ARGV[2 * i], 'FIELDS', 1, field)
+                    restored = restored + 1
+                end
+            end
+            return restored
+            """, Long.class);
+
+    private final RedisShards shards;
+    private final int buckets;
+
+    public CompactRedisMarkerStore(
+            RedisShards shards,
+            @Value("${app.idempotency.redis-keys.compact-buckets:262144}") int buckets) {
+
+        this.shards = shards;
+        this.buckets = buckets;
+    }
+
+    @Override
+    public RedisMarkers.KeyFormat format() {
+        return RedisMarkers.KeyFormat.COMPACT;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Boolean> claimAll(List<String> messageIds, long leaseSeconds) {
+        byte[] ttl = String.valueOf(leaseSeconds).getBytes(StandardCharsets.US_ASCII);
+
+        return shards.execute(markersOf(messageIds), Marker::bucket, "claim", (redis, markers) -> {
+            List<String> keys = new ArrayList<>(markers.size());
+            Object[] args = new Object[markers.size() + 1];
+            args[0] = ttl;
+
+            for (int i = 0; i < markers.size(); i++) {
+                keys.add(markers.get(i).bucket());
+                args[i + 1] = markers.get(i).field();
+            }
+
+            List<Long> claimed = redis.execute(
+                CLAIM_ALL_SCRIPT,
+                RedisSerializer.byteArray(),
+                (RedisSerializer<List<Long>>) (RedisSerializer<?>) redis.getValueSerializer(),
+                keys,
+                args
+            );
+
+            List<Boolean> results = new ArrayList<>(claimed.size());
+            for (Number result : claimed) {
+                results.add(result.longValue() == 1L);
+            }
+            return results;
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void promoteAll(List<String> messageIds, long ttlSeconds) {
+        byte[] ttl = String.valueOf(ttlSeconds).getBytes(StandardCharsets.US_ASCII);
+
+        shards.executeAll(markersOf(messageIds), Marker::bucket, "promote", (redis, markers) -> {
+            List<String> keys = new ArrayList<>(markers.size());
+            Object[] args = new Object[markers.size() + 1];
+            args[0] = ttl;
+
+            for (int i = 0; i < markers.size(); i++) {
+                keys.add(markers.get(i).bucket());
+                args[i + 1] = markers.get(i).field();
+            }
+
+            redis.execute(
+                PROMOTE_ALL_SCRIPT,
+                RedisSerializer.byteArray(),
+                (RedisSerializer<Long>) (RedisSerializer<?>) redis.getValueSerializer(),
+                keys,
+                args
+            );
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void releaseAll(List<String> messageIds) {
+        shards.executeAll(markersOf(messageIds), Marker::bucket, "release", (redis, markers) -> {
+            List<String> keys = new ArrayList<>(markers.size());
+            Object[] args = new Object[markers.size()];
+
+            for (int i = 0; i < markers.size(); i++) {
+                keys.add(markers.get(i).bucket());
+                args[i] = markers.get(i).field();
+            }
+
+            redis.execute(
+                RELEASE_ALL_SCRIPT,
+                RedisSerializer.byteArray(),
+                (RedisSerializer<Long>) (RedisSerializer<?>) redis.getValueSerializer(),
+                keys,
+                args
+            );
+        });
+    }
+
+    @Override
+    public List<Boolean> existsAll(List<String> messageIds) {
+        return shards.execute(markersOf(messageIds), Marker::bucket, "exists", (redis, markers) -> {
+            List<Object> exists = redis.executePipelined((RedisCallback<Object>) connection -> {
+                for (Marker marker : markers) {
+                    connection.hashCommands().hExists(marker.bucket().getBytes(StandardCharsets.UTF_8), marker.field());
+                }
+                return null;
+            });
+
+            List<Boolean> results = new ArrayList<>(exists.size());
+            for (Object result : exists) {
+                results.add(Boolean.TRUE.equals(result));
+            }
+            return results;
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void restoreAll(Map<String, Long> ttlSecondsByMessageId) {
+        List<Marker> restores = new ArrayList<>(ttlSecondsByMessageId.size());
+        ttlSecondsByMessageId.forEach((messageId, ttlSeconds) -> restores.add(markerOf(messageId, ttlSeconds)));
+
+        shards.executeAll(restores, Marker::bucket, "restore", (redis, markers) -> {
+            List<String> keys = new ArrayList<>(markers.size());
+            Object[] args = new Object[markers.size() * 2];
+
+            int i = 0;
+            for (Marker marker : markers) {
+                keys.add(marker.bucket());
+                args[i++] = marker.field();
+                args[i++] = String.valueOf(marker.ttlSeconds()).getBytes(StandardCharsets.US_ASCII);
+            }
+
+            redis.execute(
+                RESTORE_ALL_SCRIPT,
+                RedisSerializer.byteArray(),
+                (RedisSerializer<Long>) (RedisSerializer<?>) redis.getValueSerializer(),
+                keys,
+                args
+            );
+        });
+    }
+
+    /**
+     * MEMORY USAGE de cada bucket dividido pelo HLEN: inclui o overhead da
+     * chave do bucket rateado entre os campos.
+     */
+    @Override
+    public double sampleBytesPerKey(List<String> messageIds) {
+        Map<String, Boolean> sampledBuckets = new LinkedHashMap<>();
+        for (String messageId : messageIds) {
+            sampledBuckets.put(markerOf(messageId, 0).bucket(), Boolean.TRUE);
+        }
+
+        long bytes = 0;
+        long fields = 0;
+
+        for (String bucket : sampledBuckets.keySet()) {
+            RedisTemplate<String, String> redis = shards.templateFor(bucket);
+            Long usage = RedisMarkers.memoryUsage(redis, bucket);
+            Long size = redis.opsForHash().size(bucket);
+            if (usage != null && size != null && size > 0) {
+                bytes += usage;
+                fields += size;
+            }
+        }
+
+        return fields == 0 ? Double.NaN : (double) bytes / fields;
+    }
+
+    @Override
+    public String trackingKey(String messageId) {
+        return null;
+    }
+
+    @Override
+    public String messageIdOf(String redisKey) {
+        return null;
+    }
+
+    private List<Marker> markersOf(List<String> messageIds) {
+        List<Marker> markers = new ArrayList<>(messageIds.size());
+        for (String messageId : messageIds) {
+            markers.add(markerOf(messageId, 0));
+        }
+        return markers;
+    }
+
+    Marker markerOf(String messageId, long ttlSeconds) {
+        byte[] id = binaryId(messageId);
+        long prefix = Integer.toUnsignedLong(ByteBuffer.wrap(id, 0, BUCKET_BYTES).getInt());
+        return new Marker(BUCKET_PREFIX + (prefix % buckets), Arrays.copyOfRange(id, BUCKET_BYTES, ID_BYTES), ttlSeconds);
+    }
+
+    /**
+     * UUID canônico (minúsculo, com hífens) vira seus 16 bytes; qualquer outro
+     * formato usa o hash, para que dois IDs distintos nunca compartilhem marcador.
+     * Também usado pelo {@link WindowedRedisMarkerStore}.
+     */
+    static byte[] binaryId(String messageId) {
+        if (messageId.length() == 36 && messageId.charAt(8) == '-') {
+            try {
+                UUID uuid = UUID.fromString(messageId);
+                if (uuid.toString().equals(messageId)) {
+                    return ByteBuffer.allocate(ID_BYTES)
+                            .putLong(uuid.getMostSignificantBits())
+                            .putLong(uuid.getLeastSignificantBits())
+                            .array();
+                }
+            } catch (IllegalArgumentException e) {
+                // Não é UUID: segue para o hash
+            }
+        }
+
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(messageId.getBytes(StandardCharsets.UTF_8));
+            return Arrays.copyOf(digest, ID_BYTES);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    record Marker(String bucket, byte[] field, long ttlSeconds) {
+    }
+}
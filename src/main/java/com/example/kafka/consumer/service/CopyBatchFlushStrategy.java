@@ -0,0 +1,28 @@
+package com.example.kafka.consumer.service;
+
+import com.example.kafka.consumer.entity.ProcessedMessage;
+import com.example.kafka.consumer.repository.ProcessedMessageRepository;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Gravação via COPY direto em processed_messages: a auditoria não tem
+ * unicidade, então dispensa staging e merge.
+ */
+@Component
+@ConditionalOnProperty(name = "app.performance.flush-strategy", havingValue = "copy")
+public class CopyBatchFlushStrategy implements BatchFlushStrategy {
+    
+    private final ProcessedMessageRepository repository;
+    
+    public CopyBatchFlushStrategy(ProcessedMessageRepository repository) {
+        this.repository = repository;
+    }
+    
+    @Override
+    public void flush(List<ProcessedMessage> messages) {
+        repository.copyInsert(messages);
+    }
+}
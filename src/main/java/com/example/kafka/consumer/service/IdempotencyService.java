@@ -1,67 +1,195 @@
 package com.example.kafka.consumer.service;
 
 import com.example.kafka.consumer.entity.ProcessedMessage;
+import com.example.kafka.consumer.repository.ProcessedMessageKey;
 import com.example.kafka.consumer.repository.ProcessedMessageRepository;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
-import java.time.Duration;
-import java.util.concurrent.TimeUnit;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 @Slf4j
 public class IdempotencyService {
     
-    private static final String REDIS_KEY_PREFIX = "idempotency:";
-    private static final String LOCK_KEY_PREFIX = "lock:idempotency:";
-    
-    private final RedisTemplate<String, String> redisTemplate;
-    private final RedissonClient redissonClient;
+    private final RedisMarkers redisMarkers;
     private final ProcessedMessageRepository repository;
+    private final ProcessedMessageNearCache nearCache;
+    private final ProcessedMessageBloomFilter bloomFilter;
+    private final PostgresBatchPersistService batchPersistService;
+    private final PostgresAdvisoryLocks advisoryLocks;
     private final boolean redisFallbackEnabled;
-    private final long redisTtlSeconds;
+    private final ClaimStore claimStore;
     
     private final Counter redisHitCounter;
     private final Counter redisMissCounter;
     private final Counter redisErrorCounter;
+    private final Counter redisBypassCounter;
     private final Counter postgresHitCounter;
     private final Counter duplicateCounter;
     
     public IdempotencyService(
-            RedisTemplate<String, String> redisTemplate,
-            RedissonClient redissonClient,
+            RedisMarkers redisMarkers,
             ProcessedMessageRepository repository,
+            ProcessedMessageNearCache nearCache,
+            ProcessedMessageBloomFilter bloomFilter,
+            PostgresBatchPersistService batchPersistService,
+            PostgresAdvisoryLocks advisoryLocks,
             @Value("${app.performance.redis-fallback-enabled:true}") boolean redisFallbackEnabled,
-            @Value("${app.idempotency.redis-ttl-seconds:86400}") long redisTtlSeconds,
+            @Value("${app.idempotency.claim-store:redis}") ClaimStore claimStore,
             MeterRegistry meterRegistry) {
         
-        this.redisTemplate = redisTemplate;
-        this.redissonClient = redissonClient;
+        this.redisMarkers = redisMarkers;
         this.repository = repository;
+        this.nearCache = nearCache;
+        this.bloomFilter = bloomFilter;
+        this.batchPersistService = batchPersistService;
+        this.advisoryLocks = advisoryLocks;
         this.redisFallbackEnabled = redisFallbackEnabled;
-        this.redisTtlSeconds = redisTtlSeconds;
+        this.claimStore = claimStore;
         
         this.redisHitCounter = meterRegistry.counter("idempotency.redis.hit");
         this.redisMissCounter = meterRegistry.counter("idempotency.redis.miss");
         this.redisErrorCounter = meterRegistry.counter("idempotency.redis.error");
+        this.redisBypassCounter = meterRegistry.counter("idempotency.redis.bypass");
         this.postgresHitCounter = meterRegistry.counter("idempotency.postgres.hit");
         this.duplicateCounter = meterRegistry.counter("idempotency.duplicate.detected");
+        
+        log.info("IdempotencyService initialized with claim store {}", claimStore);
+    }
+    
+    /**
+     * Reivindica atomicamente o messageId com um único SET NX + TTL no Redis.
+     *
+     * O marcador gravado aqui é a fonte única de verdade: quem consegue criar
+     * a chave é o único a processar a mensagem. Substitui o antigo fluxo
+     * lock + hasKey + set (6+ round-trips) por um único round-trip.
+     *
+     * O claim grava só uma reserva pendente com TTL curto
+     * (redis-pending-lease-seconds); {@link #markAsProcessed} a promove ao
+     * marcador com o TTL completo e {@link #release(String)} a apaga. Se a
+     * réplica cair no meio do processamento, a reserva expira e a reentrega
+     * volta a ser reivindicada em vez de ser descartada como duplicata.
+     *
+     * Com o fallback habilitado, um claim bem-sucedido ainda é confirmado no
+     * PostgreSQL para cobrir marcadores perdidos no Redis (expiração, flush).
+     * Se o Redis falha (ou o circuit breaker está aberto), o claim é feito só
+     * no PostgreSQL, ver {@link #claimInPostgres(List)}.
+     *
+     * Com app.idempotency.claim-store=postgres o claim é a inserção da chave
+     * em processed_message_keys, ver {@link #claimKeys(List)}.
+     *
+     * @param messageId chave de idempotência
+     * @return CLAIMED se este consumidor deve processar, DUPLICATE se já foi
+     *         reivindicada, ERROR se nenhum store pôde responder
+     */
+    public ClaimResult claim(String messageId) {
+        return claimAll(List.of(messageId)).get(messageId);
+    }
+    
+    /**
+     * Versão em lote de {@link #claim(String)}: verifica e reivindica todos os
+     * IDs de um poll em uma única chamada de script no Redis, trocando N
+     * round-trips por um.
+     *
+     * IDs repetidos na entrada são avaliados uma única vez; cabe ao chamador
+     * tratar as ocorrências seguintes como duplicadas.
+     *
+     * @param messageIds chaves de idempotência do lote
+     * @return veredito por messageId, na ordem de entrada
+     */
+    public Map<String, ClaimResult> claimAll(Collection<String> messageIds) {
+        Map<String, ClaimResult> results = new LinkedHashMap<>();
+        List<String> ids = new ArrayList<>();
+        
+        for (String messageId : new LinkedHashSet<>(messageIds)) {
+            if (nearCache.contains(messageId)) {
+                duplicateCounter.increment();
+                results.put(messageId, ClaimResult.DUPLICATE);
+            } else {
+                results.put(messageId, null);
+                ids.add(messageId);
+            }
+        }
+        
+        if (ids.isEmpty()) {
+            return results;
+        }
+        
+        if (claimStore == ClaimStore.POSTGRES) {
+            results.putAll(claimKeys(ids));
+            return results;
+        }
+        
+        List<Boolean> claimed;
+        try {
+            claimed = redisMarkers.claimAll(ids);
+        } catch (RedisCircuitBreaker.CircuitOpenException e) {
+            redisBypassCounter.increment();
+            results.putAll(claimWithoutRedis(ids));
+            return results;
+        } catch (Exception e) {
+            log.warn("Redis error claiming batch of {} messages: {}. Falling back to PostgreSQL", 
+                    ids.size(), e.getMessage());
+            redisErrorCounter.increment();
+            results.putAll(claimWithoutRedis(ids));
+            return results;
+        }
+        
+        List<String> claimedIds = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            if (claimed.get(i)) {
+                redisMissCounter.increment();
+                results.put(ids.get(i), ClaimResult.CLAIMED);
+                claimedIds.add(ids.get(i));
+            } else {
+                redisHitCounter.increment();
+                duplicateCounter.increment();
+                results.put(ids.get(i), ClaimResult.DUPLICATE);
+            }
+        }
+        
+        if (redisFallbackEnabled) {
+            List<String> processed = new ArrayList<>(checkInPostgres(claimedIds));
+            if (!processed.isEmpty()) {
+                // Marcador perdido no Redis: a reserva recém-criada vira o marcador definitivo
+                processed.forEach(messageId -> results.put(messageId, ClaimResult.DUPLICATE));
+                promoteInRedis(processed);
+                processed.forEach(nearCache::add);
+            }
+        }
+        
+        return results;
+    }
+    
+    /**
+     * O claim feito sem Redis perdeu o advisory lock (a sessão do PostgreSQL
+     * caiu) e não garante mais exclusividade: a mensagem não deve ser processada.
+     */
+    public boolean isClaimLost(String messageId) {
+        return advisoryLocks.isLost(messageId);
     }
     
     public boolean isAlreadyProcessed(String messageId) {
-        String redisKey = REDIS_KEY_PREFIX + messageId;
+        if (nearCache.contains(messageId)) {
+            log.debug("Message {} already processed (near cache hit)", messageId);
+            duplicateCounter.increment();
+            return true;
+        }
         
         try {
-            Boolean exists = redisTemplate.hasKey(redisKey);
-            
-            if (Boolean.TRUE.equals(exists)) {
+            if (redisMarkers.exists(messageId)) {
                 log.debug("Message {} already processed (Redis hit)", messageId);
                 redisHitCounter.increment();
                 duplicateCounter.increment();
@@ -70,14 +198,12 @@ public class IdempotencyService {
             
             redisMissCounter.increment();
             
+        } catch (RedisCircuitBreaker.CircuitOpenException e) {
+            redisBypassCounter.increment();
         } catch (Exception e) {
             log.warn("Redis error checking message {}: {}. Falling back to PostgreSQL", 
                     messageId, e.getMessage());
             redisErrorCounter.increment();
-            
-            if (redisFallbackEnabled) {
-                return checkInPostgres(messageId);
-            }
         }
         
         if (redisFallbackEnabled) {
@@ -87,54 +213,225 @@ public class IdempotencyService {
         return false;
     }
     
-    public boolean markAsProcessed(String messageId, ProcessedMessage message) {
-        String lockKey = LOCK_KEY_PREFIX + messageId;
-        RLock lock = redissonClient.getLock(lockKey);
+    /**
+     * Registra o resultado do processamento de uma mensagem já reivindicada
+     * via {@link #claim(String)}: promove a reserva pendente do Redis ao
+     * marcador com o TTL completo, registra no near cache e persiste no
+     * PostgreSQL. A promoção vem antes do near cache, para que o tracking do
+     * near cache só veja o marcador definitivo.
+     * 
+     * Chave e auditoria são gravadas em batch pelo {@link PostgresBatchPersistService}.
+     * Com claim-store=postgres a chave já foi gravada no claim: só um
+     * resultado FAILED precisa ser corrigido nela, e o batch grava a auditoria.
+     * 
+     * @return future que completa quando as linhas estão duráveis no PostgreSQL
+     *         (imediatamente se o fallback do Redis estiver desabilitado)
+     */
+    public CompletableFuture<Void> markAsProcessed(ProcessedMessage message) {
+        if (claimStore == ClaimStore.POSTGRES) {
+            nearCache.add(message.getMessageId());
+            if (message.getStatus() != ProcessedMessage.ProcessingStatus.SUCCESS) {
+                repository.updateKeyStatus(message.getMessageId(), message.getStatus());
+            }
+            return batchPersistService.enqueue(message);
+        }
+        
+        promoteInRedis(message.getMessageId());
+        nearCache.add(message.getMessageId());
+        
+        if (!redisFallbackEnabled) {
+            return CompletableFuture.completedFuture(null);
+        }
+        
+        bloomFilter.put(message.getMessageId());
+        
+        log.debug("Message {} enqueued for persistence", message.getMessageId());
+        CompletableFuture<Void> durable = batchPersistService.enqueue(message);
+        
+        if (advisoryLocks.isHeld(message.getMessageId())) {
+            // Claim feito sem Redis: o lock só cai quando a linha está gravada
+            durable.whenComplete((ignored, error) -> advisoryLocks.unlock(message.getMessageId()));
+        } else if (advisoryLocks.isLost(message.getMessageId())) {
+            log.warn("Advisory lock of message {} was lost while processing, another replica may have processed it",
+                    message.getMessageId());
+            advisoryLocks.unlock(message.getMessageId());
+        }
+        return durable;
+    }
+    
+    /**
+     * Desfaz o claim de uma mensagem abandonada antes de
+     * {@link #markAsProcessed} (exceção no processamento, payload ilegível,
+     * falha da lane), para que a reentrega ou o replay da DLQ possa
+     * reivindicá-la de novo sem esperar a reserva expirar.
+     */
+    public void release(String messageId) {
+        if (claimStore == ClaimStore.POSTGRES) {
+            try {
+                repository.deleteKeys(List.of(messageId));
+            } catch (Exception e) {
+                log.error("Error releasing claim of message {} in PostgreSQL", messageId, e);
+            }
+            return;
+        }
+        
+        if (advisoryLocks.isHeld(messageId) || advisoryLocks.isLost(messageId)) {
+            // Claim feito sem Redis
+            advisoryLocks.unlock(messageId);
+            return;
+        }
         
         try {
-            if (lock.tryLock(5, 10, TimeUnit.SECONDS)) {
-                try {
-                    if (isAlreadyProcessed(messageId)) {
-                        log.debug("Message {} was processed by another thread", messageId);
-                        return false;
-                    }
-                    
-                    markInRedis(messageId);
-                    
-                    if (redisFallbackEnabled) {
-                        persistInPostgres(message);
-                    }
-                    
-                    log.debug("Message {} marked as processed", messageId);
-                    return true;
-                    
-                } finally {
-                    lock.unlock();
-                }
+            redisMarkers.release(messageId);
+        } catch (RedisCircuitBreaker.CircuitOpenException e) {
+            redisBypassCounter.increment();
+        } catch (Exception e) {
+            log.warn("Redis error releasing claim of message {}: {}. The pending lease will expire", 
+                    messageId, e.getMessage());
+            redisErrorCounter.increment();
+        }
+    }
+    
+    /**
+     * Claim sem o Redis, com o fallback habilitado: cada ID é travado com um
+     * advisory lock no PostgreSQL ({@link PostgresAdvisoryLocks}) e conferido
+     * em processed_message_keys. O lock de um ID CLAIMED é mantido até a linha ser
+     * gravada por {@link #markAsProcessed}, então outra réplica que receba o
+     * mesmo ID nesse intervalo o vê como DUPLICATE, como faria com o marcador.
+     * 
+     * @return ERROR para todos os IDs com o fallback desabilitado ou o
+     *         PostgreSQL indisponível
+     */
+    private Map<String, ClaimResult> claimWithoutRedis(List<String> messageIds) {
+        Map<String, ClaimResult> results = new LinkedHashMap<>();
+        
+        if (!redisFallbackEnabled) {
+            for (String messageId : messageIds) {
+                results.put(messageId, ClaimResult.ERROR);
+            }
+            return results;
+        }
+        
+        return claimInPostgres(messageIds);
+    }
+    
+    /**
+     * Não consulta o filtro de Bloom: ele só recebe as chaves gravadas por
+     * outras réplicas a cada refresh-interval-ms, e sem o Redis nada mais
+     * cobriria essa janela. Todo ID travado é conferido em processed_message_keys.
+     */
+    private Map<String, ClaimResult> claimInPostgres(List<String> messageIds) {
+        Map<String, ClaimResult> results = new LinkedHashMap<>();
+        Set<String> locked;
+        Set<String> existing;
+        
+        try {
+            locked = advisoryLocks.tryLockAll(messageIds);
+        } catch (Exception e) {
+            log.error("PostgreSQL error locking batch of {} messages", messageIds.size(), e);
+            for (String messageId : messageIds) {
+                results.put(messageId, ClaimResult.ERROR);
+            }
+            return results;
+        }
+        
+        try {
+            existing = repository.findExistingMessageIds(locked);
+        } catch (Exception e) {
+            log.error("PostgreSQL error checking batch of {} messages", locked.size(), e);
+            advisoryLocks.unlockAll(locked);
+            for (String messageId : messageIds) {
+                results.put(messageId, ClaimResult.ERROR);
+            }
+            return results;
+        }
+        
+        if (!existing.isEmpty()) {
+            postgresHitCounter.increment(existing.size());
+            duplicateCounter.increment(existing.size());
+        }
+        List<String> release = new ArrayList<>(existing);
+        
+        for (String messageId : messageIds) {
+            if (!locked.contains(messageId)) {
+                // Em processamento nesta ou em outra réplica
+                duplicateCounter.increment();
+                results.put(messageId, ClaimResult.DUPLICATE);
+            } else if (existing.contains(messageId)) {
+                results.put(messageId, ClaimResult.DUPLICATE);
             } else {
-                log.warn("Could not acquire lock for message {} within timeout", messageId);
-                return false;
+                results.put(messageId, ClaimResult.CLAIMED);
+            }
+        }
+        
+        if (!release.isEmpty()) {
+            advisoryLocks.unlockAll(release);
+        }
+        return results;
+    }
+    
+    /**
+     * Claim com claim-store=postgres: um único INSERT ... RETURNING de
+     * (message_id, status, processed_at) em processed_message_keys decide quem
+     * ganha cada messageId, sem Redis e sem gravar payload no caminho do claim.
+     * A chave vai com o status otimista SUCCESS; falhas de processamento são
+     * corrigidas depois em {@link #markAsProcessed}.
+     */
+    private Map<String, ClaimResult> claimKeys(List<String> messageIds) {
+        Map<String, ClaimResult> results = new LinkedHashMap<>();
+        List<ProcessedMessageKey> keys = new ArrayList<>(messageIds.size());
+        LocalDateTime now = LocalDateTime.now();
+        
+        for (String messageId : messageIds) {
+            keys.add(new ProcessedMessageKey(messageId, ProcessedMessage.ProcessingStatus.SUCCESS, now));
+        }
+        
+        try {
+            Set<String> claimed = repository.insertKeys(keys);
+            
+            for (String messageId : messageIds) {
+                if (claimed.contains(messageId)) {
+                    results.put(messageId, ClaimResult.CLAIMED);
+                } else {
+                    postgresHitCounter.increment();
+                    duplicateCounter.increment();
+                    results.put(messageId, ClaimResult.DUPLICATE);
+                }
             }
             
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            log.error("Interrupted while trying to acquire lock for message {}", messageId, e);
-            return false;
         } catch (Exception e) {
-            log.error("Error marking message {} as processed", messageId, e);
-            return false;
+            log.error("PostgreSQL error claiming batch of {} messages", messageIds.size(), e);
+            for (String messageId : messageIds) {
+                results.put(messageId, ClaimResult.ERROR);
+            }
+        }
+        
+        return results;
+    }
+    
+    /**
+     * Sem o Redis a reserva pendente só expira: com o fallback habilitado a
+     * chave gravada no PostgreSQL continua barrando a reentrega.
+     */
+    private void promoteInRedis(String messageId) {
+        promoteInRedis(List.of(messageId));
+    }
+    
+    private void promoteInRedis(List<String> messageIds) {
+        try {
+            redisMarkers.promoteAll(messageIds);
+        } catch (RedisCircuitBreaker.CircuitOpenException e) {
+            redisBypassCounter.increment();
+        } catch (Exception e) {
+            log.warn("Redis error promoting markers of {} messages: {}", messageIds.size(), e.getMessage());
+            redisErrorCounter.increment();
         }
     }
     
     private void markInRedis(String messageId) {
         try {
-            String redisKey = REDIS_KEY_PREFIX + messageId;
-            redisTemplate.opsForValue().set(
-                redisKey, 
-                String.valueOf(System.currentTimeMillis()),
-                Duration.ofSeconds(redisTtlSeconds)
-            );
-            log.debug("Message {} marked in Redis with TTL {}s", messageId, redisTtlSeconds);
+            redisMarkers.restore(messageId);
+            log.debug("Message {} marked in Redis with TTL {}s", messageId, redisMarkers.ttlSeconds());
         } catch (Exception e) {
             log.error("Error marking message {} in Redis", messageId, e);
             redisErrorCounter.increment();
@@ -143,12 +440,19 @@ public class IdempotencyService {
     }
     
     private boolean checkInPostgres(String messageId) {
+        if (!bloomFilter.mightContain(messageId)) {
+            log.debug("Message {} never seen (Bloom filter negative), skipping PostgreSQL", messageId);
+            return false;
+        }
+        
         try {
-            boolean exists = repository.existsByMessageId(messageId);
+            boolean exists = !repository.findExistingMessageIds(List.of(messageId)).isEmpty();
             if (exists) {
                 log.debug("Message {} already processed (PostgreSQL hit)", messageId);
                 postgresHitCounter.increment();
                 duplicateCounter.increment();
+            } else {
+                bloomFilter.recordFalsePositives(1);
             }
             return exists;
         } catch (Exception e) {
@@ -157,19 +461,44 @@ public class IdempotencyService {
         }
     }
     
-    @Transactional
-    private void persistInPostgres(ProcessedMessage message) {
+    /**
+     * Versão em lote de {@link #checkInPostgres(String)}: um único
+     * SELECT ... WHERE message_id = ANY(?) para todos os IDs que o filtro
+     * de Bloom não descartou.
+     *
+     * @return IDs do lote que já existem em processed_message_keys
+     */
+    private Set<String> checkInPostgres(Collection<String> messageIds) {
+        List<String> candidates = new ArrayList<>(messageIds.size());
+        for (String messageId : messageIds) {
+            if (bloomFilter.mightContain(messageId)) {
+                candidates.add(messageId);
+            }
+        }
+        
+        if (candidates.isEmpty()) {
+            return Set.of();
+        }
+        
         try {
-            repository.save(message);
-            log.debug("Message {} persisted in PostgreSQL", message.getMessageId());
+            Set<String> existing = repository.findExistingMessageIds(candidates);
+            if (!existing.isEmpty()) {
+                log.debug("{} of {} messages already processed (PostgreSQL hit)", 
+                        existing.size(), candidates.size());
+                postgresHitCounter.increment(existing.size());
+                duplicateCounter.increment(existing.size());
+            }
+            bloomFilter.recordFalsePositives(candidates.size() - existing.size());
+            return existing;
         } catch (Exception e) {
-            log.error("Error persisting message {} in PostgreSQL", message.getMessageId(), e);
+            log.error("Error checking batch of {} messages in PostgreSQL", candidates.size(), e);
+            return Set.of();
         }
     }
     
     public void syncToRedis(String messageId) {
         try {
-            if (repository.existsByMessageId(messageId)) {
+            if (!repository.findExistingMessageIds(List.of(messageId)).isEmpty()) {
                 markInRedis(messageId);
                 log.info("Message {} synced from PostgreSQL to Redis", messageId);
             }
@@ -177,4 +506,18 @@ public class IdempotencyService {
             log.error("Error syncing message {} to Redis", messageId, e);
         }
     }
+    
+    public enum ClaimResult {
+        CLAIMED,
+        DUPLICATE,
+        ERROR
+    }
+    
+    /**
+     * Autoridade do claim (app.idempotency.claim-store).
+     */
+    public enum ClaimStore {
+        REDIS,
+        POSTGRES
+    }
 }
@@ -0,0 +1,28 @@
+package com.example.kafka.consumer.service;
+
+import com.example.kafka.consumer.entity.ProcessedMessage;
+import com.example.kafka.consumer.repository.ProcessedMessageRepository;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Gravação via saveAll() com hibernate.jdbc.batch_size. Uma falha derruba o
+ * batch inteiro; o isolamento fica a cargo do serviço de persistência.
+ */
+@Component
+@ConditionalOnProperty(name = "app.performance.flush-strategy", havingValue = "jpa", matchIfMissing = true)
+public class JpaBatchFlushStrategy implements BatchFlushStrategy {
+    
+    private final ProcessedMessageRepository repository;
+    
+    public JpaBatchFlushStrategy(ProcessedMessageRepository repository) {
+        this.repository = repository;
+    }
+    
+    @Override
+    public void flush(List<ProcessedMessage> messages) {
+        repository.saveAll(messages);
+    }
+}
@@ -0,0 +1,185 @@
+package com.example.kafka.consumer.service;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Formato original: uma string "idempotency:&lt;messageId&gt;" por mensagem, com TTL
+ * próprio. O claim grava o valor "pending" com o TTL da reserva; a promoção
+ * troca pelo timestamp do processamento em milissegundos com o TTL completo.
+ */
+@Component
+public class LegacyRedisMarkerStore implements RedisMarkerStore {
+
+    private static final String KEY_PREFIX = "idempotency:";
+    private static final String PENDING = "pending";
+
+    /**
+     * Reivindica todas as chaves de KEYS com SET NX EX em uma única execução
+     * atômica no servidor. Retorna 1 (claimed) ou 0 (duplicate) por chave,
+     * na mesma ordem de KEYS.
+     */
+    private static final RedisScript<List<Long>> CLAIM_ALL_SCRIPT = RedisMarkers.listScript("""
+            local result = {}
+            for i, key in ipairs(KEYS) do
+                if redis.call('SET', key, ARGV[2], 'NX', 'EX', ARGV[1]) then
+                    result[i] = 1
+                else
+                    result[i] = 0
+                end
+            end
+            return result
+            """);
+
+    /**
+     * Apaga as chaves de KEYS que ainda guardam a reserva ARGV[1]; marcadores
+     * já promovidos ficam.
+     */
+    private static final RedisScript<Long> RELEASE_ALL_SCRIPT = new DefaultRedisScript<>("""
+            local released = 0
+            for i, key in ipairs(KEYS) do
+                if redis.call('GET', key) == ARGV[1] then
+                    redis.call('DEL', key)
+                    released = released + 1
+                end
+            end
+            return released
+            """, Long.class);
+
+    private final RedisShards shards;
+
+    public LegacyRedisMarkerStore(RedisShards shards) {
+        this.shards = shards;
+    }
+
+    @Override
+    public RedisMarkers.KeyFormat format() {
+        return RedisMarkers.KeyFormat.LEGACY;
+    }
+
+    @Override
+    public List<Boolean> claimAll(List<String> messageIds, long leaseSeconds) {
+        return shards.execute(keysOf(messageIds), key -> key, "claim", (redis, keys) -> {
+            List<Long> claimed = redis.execute(CLAIM_ALL_SCRIPT, keys, String.valueOf(leaseSeconds), PENDING);
+
+            List<Boolean> results = new ArrayList<>(claimed.size());
+            for (Number result : claimed) {
+                results.add(result.longValue() == 1L);
+            }
+            return results;
+        });
+    }
+
+    /**
+     * Pipeline de SET EX incondicional: a reserva (ou a sua ausência, se já
+     * expirou) vira marcador de processado.
+     */
+    @Override
+    public void promoteAll(List<String> messageIds, long ttlSeconds) {
+        byte[] value = String.valueOf(System.currentTimeMillis()).getBytes(StandardCharsets.UTF_8);
+
+        shards.executeAll(keysOf(messageIds), key -> key, "promote", (redis, keys) ->
+                redis.executePipelined((RedisCallback<Object>) connection -> {
+                    for (String key : keys) {
+                        connection.stringCommands().setEx(key.getBytes(StandardCharsets.UTF_8), ttlSeconds, value);
+                    }
+                    return null;
+                }));
+    }
+
+    @Override
+    public void releaseAll(List<String> messageIds) {
+        shards.executeAll(keysOf(messageIds), key -> key, "release",
+                (redis, keys) -> redis.execute(RELEASE_ALL_SCRIPT, keys, PENDING));
+    }
+
+    @Override
+    public List<Boolean> existsAll(List<String> messageIds) {
+        return shards.execute(keysOf(messageIds), key -> key, "exists", (redis, keys) -> {
+            List<Object> exists = redis.executePipelined((RedisCallback<Object>) connection -> {
+                for (String key : keys) {
+                    connection.keyCommands().exists(key.getBytes(StandardCharsets.UTF_8));
+                }
+                return null;
+            });
+
+            List<Boolean> results = new ArrayList<>(exists.size());
+            for (Object result : exists) {
+                results.add(Boolean.TRUE.equals(result) || (result instanceof Number count && count.longValue() > 0));
+            }
+            return results;
+        });
+    }
+
+    /**
+     * Pipeline de SET NX EX com o TTL de cada ID: um round-trip por shard.
+     */
+    @Override
+    public void restoreAll(Map<String, Long> ttlSecondsByMessageId) {
+        String value = String.valueOf(System.currentTimeMillis());
+
+        shards.executeAll(new ArrayList<>(ttlSecondsByMessageId.entrySet()), entry -> keyOf(entry.getKey()), "restore",
+                (redis, entries) -> redis.executePipelined(new SessionCallback<Object>() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                        RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+
+                        for (Map.Entry<String, Long> entry : entries) {
+                            ops.opsForValue().setIfAbsent(
+                                    keyOf(entry.getKey()), value, Duration.ofSeconds(entry.getValue()));
+                        }
+                        return null;
+                    }
+                }));
+    }
+
+    @Override
+    public double sampleBytesPerKey(List<String> messageIds) {
+        long bytes = 0;
+        long keys = 0;
+
+        for (String key : keysOf(messageIds)) {
+            Long usage = RedisMarkers.memoryUsage(shards.templateFor(key), key);
+            if (usage != null) {
+                bytes += usage;
+                keys++;
+            }
+        }
+
+        return keys == 0 ? Double.NaN : (double) bytes / keys;
+    }
+
+    @Override
+    public String trackingKey(String messageId) {
+        return keyOf(messageId);
+    }
+
+    @Override
+    public String messageIdOf(String redisKey) {
+        return redisKey.startsWith(KEY_PREFIX) ? redisKey.substring(KEY_PREFIX.length()) : null;
+    }
+
+    private static String keyOf(String messageId) {
+        return KEY_PREFIX + messageId;
+    }
+
+    private static List<String> keysOf(List<String> messageIds) {
+        List<String> keys = new ArrayList<>(messageIds.size());
+        for (String messageId : messageIds) {
+            keys.add(keyOf(messageId));
+        }
+        return keys;
+    }
+}
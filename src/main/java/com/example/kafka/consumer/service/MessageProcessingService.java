@@ -7,7 +7,11 @@ import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 @Slf4j
@@ -31,45 +35,98 @@ public class MessageProcessingService {
         this.processingTimer = meterRegistry.timer("message.processing.duration");
     }
     
-    @Transactional
     public ProcessingResult processMessage(MessageDto messageDto) {
+        return processClaimed(messageDto, claimAll(List.of(messageDto)).get(messageDto.getMessageId()));
+    }
+    
+    /**
+     * Reivindica de uma vez todas as mensagens de um lote.
+     * O resultado deve ser repassado a {@link #processClaimed} mensagem a mensagem.
+     */
+    public Map<String, IdempotencyService.ClaimResult> claimAll(List<MessageDto> messages) {
+        List<String> messageIds = new ArrayList<>(messages.size());
+        for (MessageDto message : messages) {
+            messageIds.add(message.getMessageId());
+        }
+        return claimIds(messageIds);
+    }
+    
+    /**
+     * Claim apenas pelos messageIds, antes de desserializar os corpos: nos
+     * dois claim-stores basta a chave, e o payload das duplicatas nem chega a
+     * ser decodificado.
+     */
+    public Map<String, IdempotencyService.ClaimResult> claimIds(List<String> messageIds) {
+        return idempotencyService.claimAll(messageIds);
+    }
+    
+    /**
+     * Desfaz o claim de uma mensagem que não chegará a {@link #processClaimed}.
+     * 
+     * @see IdempotencyService#release(String)
+     */
+    public void release(String messageId) {
+        idempotencyService.release(messageId);
+    }
+    
+    /**
+     * Processa uma mensagem cujo claim já foi resolvido, individualmente
+     * ({@link #processMessage}) ou em lote ({@link #claimAll}).
+     * 
+     * Não é transacional: a gravação da chave e da auditoria é assíncrona e em
+     * batch, e {@link ProcessingResult#durable()} indica quando ela terminou.
+     */
+    public ProcessingResult processClaimed(MessageDto messageDto, IdempotencyService.ClaimResult claim) {
         return processingTimer.record(() -> {
             log.debug("Processing message: {}", messageDto.getMessageId());
             
             try {
-                if (idempotencyService.isAlreadyProcessed(messageDto.getMessageId())) {
+                if (claim == IdempotencyService.ClaimResult.DUPLICATE) {
                     log.info("Duplicate message detected and skipped: {}", messageDto.getMessageId());
                     duplicateCounter.increment();
                     return ProcessingResult.duplicate(messageDto.getMessageId());
                 }
                 
+                if (claim == IdempotencyService.ClaimResult.ERROR) {
+                    log.error("Idempotency store unavailable, message not claimed: {}", messageDto.getMessageId());
+                    failureCounter.increment();
+                    return ProcessingResult.failure(messageDto.getMessageId(), "Idempotency store unavailable");
+                }
+                
+                if (idempotencyService.isClaimLost(messageDto.getMessageId())) {
+                    // Liberado para que o replay da DLQ possa reivindicar de novo
+                    log.error("Claim of message {} lost with the PostgreSQL lock session", messageDto.getMessageId());
+                    failureCounter.increment();
+                    idempotencyService.release(messageDto.getMessageId());
+                    return ProcessingResult.failure(messageDto.getMessageId(), "Idempotency claim lost");
+                }
+                
                 executeBusinessLogic(messageDto);
                 
                 ProcessedMessage processedMessage = buildProcessedMessage(messageDto, 
                         ProcessedMessage.ProcessingStatus.SUCCESS, null);
                 
-                if (idempotencyService.markAsProcessed(messageDto.getMessageId(), processedMessage)) {
-                    log.info("Message processed successfully: {}", messageDto.getMessageId());
-                    successCounter.increment();
-                    return ProcessingResult.success(messageDto.getMessageId());
-                } else {
-                    log.warn("Failed to mark message as processed: {}", messageDto.getMessageId());
-                    return ProcessingResult.duplicate(messageDto.getMessageId());
-                }
+                CompletableFuture<Void> durable = idempotencyService.markAsProcessed(processedMessage);
+                
+                log.info("Message processed successfully: {}", messageDto.getMessageId());
+                successCounter.increment();
+                return ProcessingResult.success(messageDto.getMessageId(), durable);
                 
             } catch (Exception e) {
                 log.error("Error processing message: {}", messageDto.getMessageId(), e);
                 failureCounter.increment();
                 
+                CompletableFuture<Void> durable = CompletableFuture.completedFuture(null);
                 try {
                     ProcessedMessage errorMessage = buildProcessedMessage(messageDto, 
                             ProcessedMessage.ProcessingStatus.FAILED, e.getMessage());
-                    idempotencyService.markAsProcessed(messageDto.getMessageId(), errorMessage);
+                    durable = idempotencyService.markAsProcessed(errorMessage);
                 } catch (Exception ex) {
                     log.error("Failed to save error state for message: {}", messageDto.getMessageId(), ex);
+                    idempotencyService.release(messageDto.getMessageId());
                 }
                 
-                return ProcessingResult.failure(messageDto.getMessageId(), e.getMessage());
+                return ProcessingResult.failure(messageDto.getMessageId(), e.getMessage(), durable);
             }
         });
     }
@@ -122,10 +179,15 @@ public class MessageProcessingService {
                 .build();
     }
     
+    /**
+     * @param durable completa quando as linhas correspondentes em processed_message_keys
+     *                e processed_messages foram commitadas; já completo quando não há nada a gravar
+     */
     public record ProcessingResult(
             String messageId,
             Status status,
-            String errorMessage
+            String errorMessage,
+            CompletableFuture<Void> durable
     ) {
         public enum Status {
             SUCCESS,
@@ -133,16 +195,20 @@ public class MessageProcessingService {
             FAILURE
         }
         
-        public static ProcessingResult success(String messageId) {
-            return new ProcessingResult(messageId, Status.SUCCESS, null);
+        public static ProcessingResult success(String messageId, CompletableFuture<Void> durable) {
+            return new ProcessingResult(messageId, Status.SUCCESS, null, durable);
         }
         
         public static ProcessingResult duplicate(String messageId) {
-            return new ProcessingResult(messageId, Status.DUPLICATE, null);
+            return new ProcessingResult(messageId, Status.DUPLICATE, null, CompletableFuture.completedFuture(null));
         }
         
         public static ProcessingResult failure(String messageId, String errorMessage) {
-            return new ProcessingResult(messageId, Status.FAILURE, errorMessage);
+            return failure(messageId, errorMessage, CompletableFuture.completedFuture(null));
+        }
+        
+        public static ProcessingResult failure(String messageId, String errorMessage, CompletableFuture<Void> durable) {
+            return new ProcessingResult(messageId, Status.FAILURE, errorMessage, durable);
         }
         
         public boolean isSuccess() {
@@ -0,0 +1,303 @@
+package com.example.kafka.consumer.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Exclusão mútua por messageId com advisory locks do PostgreSQL, usada pelo
+ * {@link IdempotencyService} enquanto o Redis não responde.
+ *
+ * Sem o marcador do Redis, a chave em processed_message_keys só existe depois do
+ * processamento; o lock cobre esse intervalo para que outra réplica não
+ * processe o mesmo ID em paralelo. Os locks são de sessão (pg_try_advisory_lock
+ * sobre hashtextextended do ID) e ficam em uma única conexão dedicada, aberta
+ * no primeiro lock e devolvida ao pool quando o último é liberado. Dentro da
+ * réplica, o mapa de IDs travados faz a exclusão entre threads, já que a mesma
+ * sessão pode readquirir o próprio lock.
+ *
+ * Um lock não liberado (mensagem abandonada no meio do processamento) expira
+ * localmente após lease-ms. Se a conexão cair, o PostgreSQL solta todos: os
+ * IDs travados passam a perdidos ({@link #isLost}), e o claim deles falha
+ * em vez de seguir sem exclusão mútua.
+ */
+@Component
+@Slf4j
+public class PostgresAdvisoryLocks {
+
+    private static final String TRY_LOCK_SQL =
+            "SELECT id FROM unnest(?::varchar[]) AS t(id) WHERE pg_try_advisory_lock(hashtextextended(id, 0))";
+
+    private static final String UNLOCK_SQL =
+            "SELECT pg_advisory_unlock(hashtextextended(id, 0)) FROM unnest(?::varchar[]) AS t(id)";
+
+    private static final String UNLOCK_ALL_SQL = "SELECT pg_advisory_unlock_all()";
+
+    private final DataSource dataSource;
+    private final long leaseMillis;
+    private final MeterRegistry meterRegistry;
+    private final Counter lostCounter;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, Long> held = new HashMap<>();
+    private final Map<String, Long> lost = new HashMap<>();
+    private Connection connection;
+
+    public PostgresAdvisoryLocks(
+            DataSource dataSource,
+            @Value("${app.idempotency.redis-circuit-breaker.lock-lease-ms:300000}") long leaseMillis,
+            MeterRegistry meterRegistry) {
+
+        this.dataSource = dataSource;
+        this.leaseMillis = leaseMillis;
+        this.meterRegistry = meterRegistry;
+        this.lostCounter = meterRegistry.counter("idempotency.postgres.advisory.locks.lost");
+    }
+
+    /**
+     * Gauges que leem o próprio bean: registrados depois da construção.
+     */
+    @PostConstruct
+    public void registerGauges() {
+        Gauge.builder("idempotency.postgres.advisory.locks", this, PostgresAdvisoryLocks::size)
+                .description("Message IDs locked in PostgreSQL while Redis is unavailable")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Tenta travar cada ID sem esperar.
+     *
+     * @return IDs travados por esta chamada; os demais estão em processamento
+     *         nesta ou em outra réplica
+     * @throws SQLException se o PostgreSQL não respondeu: nenhum ID fica
+     *         travado, e os que já estavam passam a perdidos
+     */
+    public Set<String> tryLockAll(Collection<String> messageIds) throws SQLException {
+        Set<String> locked = new LinkedHashSet<>();
+
+        lock.lock();
+        try {
+            List<String> candidates = new ArrayList<>(messageIds.size());
+            for (String messageId : messageIds) {
+                if (!held.containsKey(messageId)) {
+                    candidates.add(messageId);
+                }
+            }
+
+            if (candidates.isEmpty()) {
+                return locked;
+            }
+
+            try (PreparedStatement statement = connection().prepareStatement(TRY_LOCK_SQL)) {
+                statement.setArray(1, connection.createArrayOf("varchar", candidates.toArray()));
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        locked.add(resultSet.getString(1));
+                    }
+                }
+            } catch (SQLException e) {
+                discardConnection();
+                throw e;
+            }
+
+            long now = System.currentTimeMillis();
+            for (String messageId : locked) {
+                held.put(messageId, now);
+            }
+            releaseConnectionIfIdle();
+            return locked;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isHeld(String messageId) {
+        lock.lock();
+        try {
+            return held.containsKey(messageId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * O lock do ID caiu com a sessão antes do unlock: outra réplica pode ter
+     * reivindicado o mesmo ID. Continua perdido até o {@link #unlock} do dono.
+     */
+    public boolean isLost(String messageId) {
+        lock.lock();
+        try {
+            return lost.containsKey(messageId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void unlock(String messageId) {
+        unlockAll(List.of(messageId));
+    }
+
+    public void unlockAll(Collection<String> messageIds) {
+        lock.lock();
+        try {
+            List<String> release = new ArrayList<>(messageIds.size());
+            for (String messageId : messageIds) {
+                lost.remove(messageId);
+                if (held.remove(messageId) != null) {
+                    release.add(messageId);
+                }
+            }
+
+            if (release.isEmpty() || connection == null) {
+                return;
+            }
+
+            if (held.isEmpty()) {
+                releaseConnectionIfIdle();
+                return;
+            }
+
+            try (PreparedStatement statement = connection.prepareStatement(UNLOCK_SQL)) {
+                statement.setArray(1, connection.createArrayOf("varchar", release.toArray()));
+                statement.executeQuery().close();
+            } catch (SQLException e) {
+                log.warn("Failed to release {} PostgreSQL advisory locks, dropping the session: {}",
+                        release.size(), e.getMessage());
+                discardConnection();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Libera locks cujo processamento não terminou dentro do lease.
+     */
+    @Scheduled(fixedDelayString = "${app.idempotency.redis-circuit-breaker.lock-sweep-interval-ms:60000}")
+    public void expireStale() {
+        List<String> stale = new ArrayList<>();
+        long cutoff = System.currentTimeMillis() - leaseMillis;
+
+        lock.lock();
+        try {
+            held.forEach((messageId, lockedAt) -> {
+                if (lockedAt < cutoff) {
+                    stale.add(messageId);
+                }
+            });
+            lost.values().removeIf(lostAt -> lostAt < cutoff);
+        } finally {
+            lock.unlock();
+        }
+
+        if (!stale.isEmpty()) {
+            log.warn("Releasing {} PostgreSQL advisory locks held longer than {}ms", stale.size(), leaseMillis);
+            unlockAll(stale);
+        }
+    }
+
+    private int size() {
+        lock.lock();
+        try {
+            return held.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Connection connection() throws SQLException {
+        if (connection == null) {
+            connection = dataSource.getConnection();
+            connection.setAutoCommit(true);
+            log.info("PostgreSQL advisory lock session opened");
+        }
+        return connection;
+    }
+
+    /**
+     * Sem locks pendentes, solta tudo na sessão e devolve a conexão ao pool
+     * (o pool não encerra a sessão, então locks esquecidos sobreviveriam).
+     */
+    private void releaseConnectionIfIdle() {
+        if (connection == null || !held.isEmpty()) {
+            return;
+        }
+
+        try (Statement statement = connection.createStatement()) {
+            statement.executeQuery(UNLOCK_ALL_SQL).close();
+        } catch (SQLException e) {
+            log.warn("Failed to release PostgreSQL advisory locks: {}", e.getMessage());
+        }
+        closeConnection();
+        log.info("PostgreSQL advisory lock session closed");
+    }
+
+    /**
+     * Conexão em estado desconhecido: é fechada de fato (abort), para que o
+     * PostgreSQL encerre a sessão e solte os locks dela. Os IDs ainda
+     * travados passam a perdidos.
+     */
+    private void discardConnection() {
+        if (!held.isEmpty()) {
+            log.warn("PostgreSQL advisory lock session dropped with {} locks held, their claims are lost",
+                    held.size());
+            lostCounter.increment(held.size());
+            long now = System.currentTimeMillis();
+            held.keySet().forEach(messageId -> lost.put(messageId, now));
+            held.clear();
+        }
+
+        if (connection == null) {
+            return;
+        }
+
+        try {
+            connection.abort(Runnable::run);
+        } catch (SQLException e) {
+            log.debug("Failed to abort PostgreSQL advisory lock session: {}", e.getMessage());
+        }
+        closeConnection();
+    }
+
+    private void closeConnection() {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.debug("Failed to close PostgreSQL advisory lock session: {}", e.getMessage());
+        } finally {
+            connection = null;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        lock.lock();
+        try {
+            held.clear();
+            releaseConnectionIfIdle();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
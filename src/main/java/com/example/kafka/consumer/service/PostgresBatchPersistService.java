@@ -1,6 +1,7 @@
 package com.example.kafka.consumer.service;
 
 import com.example.kafka.consumer.entity.ProcessedMessage;
+import com.example.kafka.consumer.repository.ProcessedMessageKey;
 import com.example.kafka.consumer.repository.ProcessedMessageRepository;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.Gauge;
@@ -8,14 +9,20 @@ import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.NonTransientDataAccessException;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
@@ -28,31 +35,61 @@ import java.util.concurrent.TimeUnit;
  * As mensagens são acumuladas em um buffer e persistidas periodicamente
  * em batch via saveAll(), reduzindo significativamente o número de 
  * round-trips ao banco.
+ * 
+ * Cada batch grava, na mesma transação, as chaves em processed_message_keys
+ * (só com claim-store redis; com claim-store postgres elas já foram gravadas
+ * no claim) e as linhas de auditoria em processed_messages. A gravação da
+ * auditoria é delegada a uma {@link BatchFlushStrategy} (saveAll via JPA ou
+ * COPY), escolhida por app.performance.flush-strategy.
+ * 
+ * Cada enqueue devolve um CompletableFuture que só completa depois do
+ * commit da transação que gravou a linha, permitindo ao chamador esperar
+ * a durabilidade antes de confirmar o offset no Kafka. Uma linha que o
+ * banco recusa (erro não transitório ou max-write-attempts esgotado) faz o
+ * future falhar, e o chamador a manda para a DLQ.
  */
 @Service
 @Slf4j
 public class PostgresBatchPersistService {
 
     private final ProcessedMessageRepository repository;
-    private final BlockingQueue<ProcessedMessage> buffer;
+    private final BatchFlushStrategy flushStrategy;
+    private final boolean writeKeys;
+    private final TransactionTemplate transactionTemplate;
+    private final BlockingQueue<PendingWrite> buffer;
     private final Semaphore backPressureSemaphore;
+    private final int bufferCapacity;
+    private final int maxPermits;
     private final int batchSize;
+    private final int maxWriteAttempts;
 
     private final Counter batchPersistCounter;
     private final Counter batchErrorCounter;
+    private final Counter batchDuplicateCounter;
+    private final Counter rejectedRowCounter;
     private final Counter backPressureRejectedCounter;
 
     public PostgresBatchPersistService(
             ProcessedMessageRepository repository,
+            BatchFlushStrategy flushStrategy,
+            PlatformTransactionManager transactionManager,
+            @Value("${app.idempotency.claim-store:redis}") IdempotencyService.ClaimStore claimStore,
             @Value("${app.performance.buffer-capacity:10000}") int bufferCapacity,
             @Value("${app.performance.batch-size:50}") int batchSize,
             @Value("${app.performance.max-concurrent-permits:5000}") int maxPermits,
+            @Value("${app.performance.max-write-attempts:5}") int maxWriteAttempts,
             MeterRegistry meterRegistry) {
 
         this.repository = repository;
+        this.flushStrategy = flushStrategy;
+        this.writeKeys = claimStore == IdempotencyService.ClaimStore.REDIS;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
         this.buffer = new LinkedBlockingQueue<>(bufferCapacity);
         this.backPressureSemaphore = new Semaphore(maxPermits);
+        this.bufferCapacity = bufferCapacity;
+        this.maxPermits = maxPermits;
         this.batchSize = batchSize;
+        this.maxWriteAttempts = maxWriteAttempts;
 
         // Métricas de observabilidade
         Gauge.builder("persist.buffer.size", buffer, BlockingQueue::size)
@@ -65,10 +102,12 @@ public class PostgresBatchPersistService {
 
         this.batchPersistCounter = meterRegistry.counter("persist.batch.success");
         this.batchErrorCounter = meterRegistry.counter("persist.batch.error");
+        this.batchDuplicateCounter = meterRegistry.counter("persist.batch.duplicate");
+        this.rejectedRowCounter = meterRegistry.counter("persist.row.rejected");
         this.backPressureRejectedCounter = meterRegistry.counter("persist.backpressure.rejected");
 
-        log.info("PostgresBatchPersistService initialized: bufferCapacity={}, batchSize={}, maxPermits={}",
-                bufferCapacity, batchSize, maxPermits);
+        log.info("PostgresBatchPersistService initialized: bufferCapacity={}, batchSize={}, maxPermits={}, strategy={}",
+                bufferCapacity, batchSize, maxPermits, flushStrategy.getClass().getSimpleName());
     }
 
     /**
@@ -79,77 +118,175 @@ public class PostgresBatchPersistService {
      * 2. LinkedBlockingQueue com capacidade limitada impede OOM
      * 
      * @param message mensagem a ser persistida
-     * @return true se enfileirada com sucesso, false se back pressure ativo
+     * @return future que completa quando a linha está commitada no PostgreSQL,
+     *         ou falha com RejectedExecutionException se back pressure ativo
      */
-    public boolean enqueue(ProcessedMessage message) {
+    public CompletableFuture<Void> enqueue(ProcessedMessage message) {
+        PendingWrite write = new PendingWrite(message, new CompletableFuture<>(), 1);
+        
         try {
             // Semáforo: primeiro nível de back pressure
             if (!backPressureSemaphore.tryAcquire(2, TimeUnit.SECONDS)) {
                 log.warn("Back pressure ativo: semáforo esgotado para message {}",
                         message.getMessageId());
                 backPressureRejectedCounter.increment();
-                return false;
+                return CompletableFuture.failedFuture(
+                        new RejectedExecutionException("Back pressure: no permits available"));
             }
 
             // Fila limitada: segundo nível de back pressure
-            boolean offered = buffer.offer(message, 1, TimeUnit.SECONDS);
+            boolean offered = buffer.offer(write, 1, TimeUnit.SECONDS);
             if (!offered) {
                 backPressureSemaphore.release();
                 log.warn("Buffer cheio, back pressure ativo para message {}",
                         message.getMessageId());
                 backPressureRejectedCounter.increment();
-                return false;
+                return CompletableFuture.failedFuture(
+                        new RejectedExecutionException("Back pressure: persist buffer full"));
             }
 
-            return true;
+            return write.durable();
 
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             backPressureSemaphore.release();
             log.error("Interrupted while enqueuing message {}", message.getMessageId(), e);
-            return false;
+            return CompletableFuture.failedFuture(e);
         }
     }
 
     /**
-     * Flush periódico: drena o buffer e persiste em batch.
+     * Flush periódico: drena o buffer e persiste em batches até esvaziá-lo.
+     * 
+     * Chaves e auditoria do batch inteiro vão em uma transação: um
+     * INSERT ... RETURNING das chaves e a estratégia configurada para a
+     * auditoria (saveAll() com hibernate.jdbc.batch_size, ou COPY).
      * 
-     * Usa saveAll() para reduzir round-trips ao PostgreSQL.
-     * Combinado com hibernate.jdbc.batch_size e order_inserts,
-     * o Hibernate fará INSERT em batch real.
+     * Os futures de durabilidade só são completados depois do commit,
+     * por isso a transação é controlada aqui e não via @Transactional.
      */
     @Scheduled(fixedDelayString = "${app.performance.flush-interval-ms:500}")
-    @Transactional
     public void flushBatch() {
-        if (buffer.isEmpty()) {
-            return;
-        }
+        List<PendingWrite> batch = new ArrayList<>(batchSize);
 
-        List<ProcessedMessage> batch = new ArrayList<>(batchSize);
-        int drained = buffer.drainTo(batch, batchSize);
+        // Limita ao que já estava no buffer: linhas re-enfileiradas esperam o próximo ciclo
+        int pending = buffer.size();
+        while (pending > 0 && buffer.drainTo(batch, Math.min(batchSize, pending)) > 0) {
+            pending -= batch.size();
+            persist(batch);
+            batch.clear();
+        }
+    }
 
-        if (drained == 0) {
-            return;
+    private void persist(List<PendingWrite> batch) {
+        int drained = batch.size();
+        List<ProcessedMessage> messages = new ArrayList<>(drained);
+        for (PendingWrite write : batch) {
+            messages.add(write.message());
         }
 
+        int requeued = 0;
         try {
-            repository.saveAll(batch);
-            batchPersistCounter.increment(drained);
-            log.debug("Batch persisted: {} messages in PostgreSQL", drained);
+            int written = transactionTemplate.execute(status -> writeRows(messages));
+            batchPersistCounter.increment(written);
+            batchDuplicateCounter.increment(drained - written);
+            log.debug("Batch persisted: {} inserted, {} already present in PostgreSQL",
+                    written, drained - written);
+
+            // Duplicatas já estão gravadas: para o chamador também são duráveis
+            for (PendingWrite write : batch) {
+                write.durable().complete(null);
+            }
         } catch (Exception e) {
             batchErrorCounter.increment(drained);
-            log.error("Error persisting batch of {} messages. Re-enqueuing...", drained, e);
+            log.error("Error persisting batch of {} messages. Retrying row by row...", drained, e);
+
+            requeued = persistIndividually(batch);
+        } finally {
+            // Libera os permits para permitir novas mensagens (re-enfileiradas mantêm o seu)
+            backPressureSemaphore.release(drained - requeued);
+        }
+    }
+
+    /**
+     * Grava as chaves ainda ausentes e a auditoria só das mensagens cuja chave
+     * entrou agora: uma chave já presente significa que a mensagem já está
+     * gravada, o que para o chamador equivale a durável.
+     * 
+     * @return linhas de auditoria gravadas
+     */
+    private int writeRows(List<ProcessedMessage> messages) {
+        if (!writeKeys) {
+            flushStrategy.flush(messages);
+            return messages.size();
+        }
+
+        List<ProcessedMessageKey> keys = new ArrayList<>(messages.size());
+        for (ProcessedMessage message : messages) {
+            keys.add(new ProcessedMessageKey(message.getMessageId(), message.getStatus(), message.getProcessedAt()));
+        }
+        Set<String> inserted = repository.insertKeys(keys);
+
+        List<ProcessedMessage> audit = new ArrayList<>(inserted.size());
+        for (ProcessedMessage message : messages) {
+            if (inserted.contains(message.getMessageId())) {
+                audit.add(message);
+            }
+        }
+
+        flushStrategy.flush(audit);
+        return audit.size();
+    }
 
-            // Re-enfileira as mensagens que falharam (best-effort)
-            for (ProcessedMessage msg : batch) {
-                if (!buffer.offer(msg)) {
-                    log.error("Could not re-enqueue message {} after batch failure", msg.getMessageId());
+    /**
+     * Isola a linha problemática de um batch que falhou.
+     * 
+     * Falhas transitórias voltam para o buffer (best-effort) até
+     * max-write-attempts tentativas. O future falha na hora para erros não
+     * transitórios (constraint, dado inválido), que nenhuma nova tentativa
+     * corrige, quando as tentativas se esgotam ou quando não há espaço.
+     * 
+     * @return quantidade de mensagens re-enfileiradas
+     */
+    private int persistIndividually(List<PendingWrite> batch) {
+        int requeued = 0;
+        for (PendingWrite write : batch) {
+            ProcessedMessage message = write.message();
+            // O ID gerado no INSERT que sofreu rollback não existe no banco
+            message.setId(null);
+
+            try {
+                transactionTemplate.execute(status -> writeRows(List.of(message)));
+                write.durable().complete(null);
+            } catch (Exception e) {
+                message.setId(null);
+                if (isPoison(e)) {
+                    log.error("Message {} rejected by PostgreSQL: {}", message.getMessageId(), e.getMessage());
+                    rejectedRowCounter.increment();
+                    write.durable().completeExceptionally(e);
+                } else if (write.attempts() >= maxWriteAttempts) {
+                    log.error("Giving up on message {} after {} write attempts", message.getMessageId(), write.attempts(), e);
+                    rejectedRowCounter.increment();
+                    write.durable().completeExceptionally(e);
+                } else if (buffer.offer(write.retry())) {
+                    requeued++;
+                } else {
+                    log.error("Could not re-enqueue message {} after batch failure", message.getMessageId());
+                    write.durable().completeExceptionally(e);
                 }
             }
-        } finally {
-            // Libera os permits para permitir novas mensagens
-            backPressureSemaphore.release(drained);
         }
+        return requeued;
+    }
+
+    /**
+     * Erro que se repetiria em qualquer nova tentativa da mesma linha. Falha
+     * de conexão também é NonTransientDataAccessException no Spring, mas não
+     * depende da linha e continua sendo retentada.
+     */
+    private static boolean isPoison(Exception e) {
+        return e instanceof NonTransientDataAccessException
+                && !(e instanceof DataAccessResourceFailureException);
     }
 
     /**
@@ -180,4 +317,22 @@ public class PostgresBatchPersistService {
     public int getAvailablePermits() {
         return backPressureSemaphore.availablePermits();
     }
+
+    /**
+     * Ocupação do back pressure, de 0.0 (ocioso) a 1.0 (enqueue rejeitando):
+     * o maior entre a fração de permits em uso e a fração do buffer ocupada.
+     * Usado pelo controle de fluxo do consumer para pausar o poll antes das rejeições.
+     */
+    public double getPressure() {
+        double permitsInUse = 1.0 - (double) backPressureSemaphore.availablePermits() / maxPermits;
+        double bufferInUse = (double) buffer.size() / bufferCapacity;
+        return Math.max(permitsInUse, bufferInUse);
+    }
+
+    private record PendingWrite(ProcessedMessage message, CompletableFuture<Void> durable, int attempts) {
+
+        PendingWrite retry() {
+            return new PendingWrite(message, durable, attempts + 1);
+        }
+    }
 }
@@ -0,0 +1,345 @@
+package com.example.kafka.consumer.service;
+
+import com.example.kafka.consumer.repository.ProcessedMessageRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Stream;
+
+/**
+ * Filtro de Bloom com rotação temporal para respostas negativas do fallback PostgreSQL.
+ *
+ * A maioria das mensagens é nova, então o caminho comum do fallback é uma
+ * consulta a processed_message_keys que não encontra nada. Se o filtro diz
+ * "nunca visto", o PostgreSQL não é consultado.
+ *
+ * O filtro é composto por gerações: cada uma cobre uma fatia da janela de
+ * retenção (postgres-cleanup-days) e é selada quando a fatia termina ou quando
+ * atinge a capacidade configurada (crescimento escalável). Gerações cuja fatia
+ * saiu da janela são descartadas.
+ *
+ * Carregado a partir de processed_message_keys no startup e atualizado a cada
+ * markAsProcessed. Linhas gravadas por outras réplicas só entram pelo refresh
+ * incremental periódico: por até refresh-interval-ms o filtro pode responder
+ * "nunca visto" para uma chave que já está no PostgreSQL. Nada mais cobre essa
+ * janela quando o marcador no Redis se perdeu (flush, failover sem réplica), e
+ * uma duplicata processada em outra réplica pode passar. Por isso o claim sem
+ * Redis não consulta o filtro e vai direto ao PostgreSQL
+ * ({@link IdempotencyService}). Enquanto o carregamento inicial não termina,
+ * o filtro responde "talvez".
+ */
+@Component
+@Slf4j
+public class ProcessedMessageBloomFilter {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private final ProcessedMessageRepository repository;
+    private final TransactionTemplate readOnlyTransaction;
+    private final boolean enabled;
+    private final long expectedInsertions;
+    private final double falsePositiveRate;
+    private final Duration window;
+    private final Duration slice;
+    private final Duration refreshOverlap;
+
+    private final MeterRegistry meterRegistry;
+    private final Counter negativeCounter;
+    private final Counter positiveCounter;
+    private final Counter falsePositiveCounter;
+
+    private volatile List<Generation> generations = List.of();
+    private volatile boolean ready;
+    private volatile LocalDateTime loadedUntil;
+
+    public ProcessedMessageBloomFilter(
+            ProcessedMessageRepository repository,
+            PlatformTransactionManager transactionManager,
+            @Value("${app.idempotency.bloom-filter.enabled:true}") boolean enabled,
+            @Value("${app.idempotency.bloom-filter.expected-insertions:1000000}") long expectedInsertions,
+            @Value("${app.idempotency.bloom-filter.false-positive-rate:0.01}") double falsePositiveRate,
+            @Value("${app.idempotency.bloom-filter.generations:7}") int generationCount,
+            @Value("${app.idempotency.bloom-filter.refresh-overlap-seconds:60}") long refreshOverlapSeconds,
+            @Value("${app.idempotency.postgres-cleanup-days:7}") int windowDays,
+            MeterRegistry meterRegistry) {
+
+        this.repository = repository;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.enabled = enabled;
+        this.expectedInsertions = expectedInsertions;
+        this.falsePositiveRate = falsePositiveRate;
+        this.window = Duration.ofDays(windowDays);
+        this.slice = window.dividedBy(Math.max(1, generationCount));
+        this.refreshOverlap = Duration.ofSeconds(refreshOverlapSeconds);
+
+        this.meterRegistry = meterRegistry;
+        this.negativeCounter = meterRegistry.counter("idempotency.bloom.negative");
+        this.positiveCounter = meterRegistry.counter("idempotency.bloom.positive");
+        this.falsePositiveCounter = meterRegistry.counter("idempotency.bloom.false.positive");
+
+        log.info("ProcessedMessageBloomFilter initialized: enabled={}, expectedInsertions={}, fpp={}, window={}, slice={}",
+                enabled, expectedInsertions, falsePositiveRate, window, slice);
+    }
+
+    /**
+     * Gauges que leem o próprio bean: registrados depois da construção.
+     */
+    @PostConstruct
+    public void registerGauges() {
+        Gauge.builder("idempotency.bloom.memory.bytes", this, ProcessedMessageBloomFilter::memoryBytes)
+                .description("Memory held by all Bloom filter generations")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+
+        Gauge.builder("idempotency.bloom.fpp.estimated", this, ProcessedMessageBloomFilter::estimatedFalsePositiveRate)
+                .description("Estimated false positive rate across live generations")
+                .register(meterRegistry);
+
+        Gauge.builder("idempotency.bloom.generations", this, filter -> filter.generations.size())
+                .description("Live Bloom filter generations")
+                .register(meterRegistry);
+
+        Gauge.builder("idempotency.bloom.insertions", this, ProcessedMessageBloomFilter::insertions)
+                .description("Message IDs inserted into live generations")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Carregamento inicial a partir de processed_message_keys, fora da thread de startup.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        if (!enabled) {
+            return;
+        }
+
+        Thread.ofVirtual().name("bloom-filter-warmup").start(() -> {
+            try {
+                LocalDateTime startedAt = LocalDateTime.now();
+                long loaded = load(startedAt.minus(window));
+                this.loadedUntil = startedAt;
+                this.ready = true;
+                log.info("Bloom filter warmed up with {} message IDs from PostgreSQL", loaded);
+            } catch (Exception e) {
+                log.error("Bloom filter warm-up failed, PostgreSQL fallback stays unfiltered", e);
+            }
+        });
+    }
+
+    /**
+     * Refresh incremental com as linhas gravadas por outras réplicas desde o último carregamento.
+     */
+    @Scheduled(fixedDelayString = "${app.idempotency.bloom-filter.refresh-interval-ms:30000}")
+    public void refresh() {
+        if (!enabled || !ready) {
+            return;
+        }
+
+        try {
+            LocalDateTime startedAt = LocalDateTime.now();
+            long loaded = load(loadedUntil.minus(refreshOverlap));
+            this.loadedUntil = startedAt;
+            log.debug("Bloom filter refreshed with {} message IDs", loaded);
+        } catch (Exception e) {
+            log.warn("Bloom filter refresh failed: {}", e.getMessage());
+        }
+    }
+
+    private long load(LocalDateTime since) {
+        Long loaded = readOnlyTransaction.execute(status -> {
+            try (Stream<String> messageIds = repository.streamMessageIdsProcessedSince(since)) {
+                AtomicLong count = new AtomicLong();
+                messageIds.forEach(messageId -> {
+                    put(messageId);
+                    count.incrementAndGet();
+                });
+                return count.get();
+            }
+        });
+        return loaded != null ? loaded : 0L;
+    }
+
+    /**
+     * @return false somente quando o messageId certamente não está em processed_message_keys
+     */
+    public boolean mightContain(String messageId) {
+        if (!enabled || !ready) {
+            return true;
+        }
+
+        long[] hashes = hash(messageId);
+        for (Generation generation : generations) {
+            if (generation.mightContain(hashes)) {
+                positiveCounter.increment();
+                return true;
+            }
+        }
+
+        negativeCounter.increment();
+        return false;
+    }
+
+    public void put(String messageId) {
+        if (!enabled) {
+            return;
+        }
+
+        currentGeneration().put(hash(messageId));
+    }
+
+    /**
+     * Registra respostas positivas do filtro que não foram confirmadas no PostgreSQL.
+     */
+    public void recordFalsePositives(int count) {
+        falsePositiveCounter.increment(count);
+    }
+
+    private Generation currentGeneration() {
+        List<Generation> current = generations;
+        Generation head = current.isEmpty() ? null : current.get(current.size() - 1);
+        long now = System.currentTimeMillis();
+
+        if (head != null && head.count.get() < expectedInsertions && now - head.createdAt < slice.toMillis()) {
+            return head;
+        }
+
+        return rotate(now);
+    }
+
+    private synchronized Generation rotate(long now) {
+        List<Generation> current = generations;
+        Generation head = current.isEmpty() ? null : current.get(current.size() - 1);
+
+        // Outra thread já rotacionou
+        if (head != null && head.count.get() < expectedInsertions && now - head.createdAt < slice.toMillis()) {
+            return head;
+        }
+
+        List<Generation> next = new ArrayList<>(current.size() + 1);
+        for (int i = 0; i < current.size(); i++) {
+            Generation generation = current.get(i);
+            long sealedAt = i + 1 < current.size() ? current.get(i + 1).createdAt : now;
+            if (now - sealedAt <= window.toMillis()) {
+                next.add(generation);
+            }
+        }
+
+        Generation fresh = new Generation(expectedInsertions, falsePositiveRate, now);
+        next.add(fresh);
+        this.generations = List.copyOf(next);
+
+        log.info("Bloom filter rotated: {} live generations, {} bytes",
+                next.size(), memoryBytes());
+        return fresh;
+    }
+
+    private double memoryBytes() {
+        long bytes = 0;
+        for (Generation generation : generations) {
+            bytes += generation.bits.length() * 8L;
+        }
+        return bytes;
+    }
+
+    private double insertions() {
+        long total = 0;
+        for (Generation generation : generations) {
+            total += generation.count.get();
+        }
+        return total;
+    }
+
+    private double estimatedFalsePositiveRate() {
+        double trueNegative = 1.0;
+        for (Generation generation : generations) {
+            trueNegative *= 1.0 - generation.estimatedFalsePositiveRate();
+        }
+        return 1.0 - trueNegative;
+    }
+
+    /**
+     * Dois hashes de 64 bits (FNV-1a + finalizador do Murmur3) para double hashing.
+     */
+    private static long[] hash(String messageId) {
+        long h = FNV_OFFSET;
+        for (byte b : messageId.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= FNV_PRIME;
+        }
+        return new long[] { mix(h), mix(h ^ GOLDEN_GAMMA) | 1L };
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    private static final class Generation {
+
+        private final AtomicLongArray bits;
+        private final long bitCount;
+        private final int hashFunctions;
+        private final long createdAt;
+        private final AtomicLong count = new AtomicLong();
+
+        private Generation(long expectedInsertions, double falsePositiveRate, long createdAt) {
+            long optimalBits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+            int words = (int) Math.max(1, (optimalBits + 63) / 64);
+            this.bits = new AtomicLongArray(words);
+            this.bitCount = words * 64L;
+            this.hashFunctions = Math.max(1, (int) Math.round((double) bitCount / expectedInsertions * Math.log(2)));
+            this.createdAt = createdAt;
+        }
+
+        private void put(long[] hashes) {
+            for (int i = 0; i < hashFunctions; i++) {
+                long index = Math.floorMod(hashes[0] + i * hashes[1], bitCount);
+                int word = (int) (index >>> 6);
+                long mask = 1L << index;
+                long current;
+                do {
+                    current = bits.get(word);
+                    if ((current & mask) != 0) {
+                        break;
+                    }
+                } while (!bits.compareAndSet(word, current, current | mask));
+            }
+            count.incrementAndGet();
+        }
+
+        private boolean mightContain(long[] hashes) {
+            for (int i = 0; i < hashFunctions; i++) {
+                long index = Math.floorMod(hashes[0] + i * hashes[1], bitCount);
+                if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private double estimatedFalsePositiveRate() {
+            return Math.pow(1 - Math.exp(-hashFunctions * (double) count.get() / bitCount), hashFunctions);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.kafka.consumer.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.lettuce.core.RedisChannelHandler;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisConnectionStateListener;
+import io.lettuce.core.TrackingArgs;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.push.PushListener;
+import io.lettuce.core.api.push.PushMessage;
+import io.lettuce.core.codec.StringCodec;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.stereotype.Component;
+
+import java.net.SocketAddress;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Near cache em memória dos messageIds que este nó já confirmou como processados.
+ *
+ * Evita ir ao Redis para duplicatas recentes (ex.: rajadas de retry do producer).
+ * A eviction do Caffeine (W-TinyLFU) considera frequência, e o cache é limitado
+ * por tamanho e por TTL.
+ *
+ * A coerência entre réplicas usa client-side tracking do Redis (RESP3): cada ID
+ * adicionado é lido uma vez pela conexão de tracking, e o servidor envia um
+ * push "invalidate" quando a chave é alterada, removida ou expira. Em reconexões
+ * o tracking é reativado e o cache é esvaziado, pois invalidações podem ter
+ * sido perdidas. No formato compacto de marcadores (vários IDs por hash) não
+ * há chave por ID para rastrear: só o flush do Redis invalida, e o resto fica
+ * com o TTL do cache.
+ */
+@Component
+@Slf4j
+public class ProcessedMessageNearCache {
+
+    private final boolean enabled;
+    private final boolean trackingEnabled;
+    private final LettuceConnectionFactory connectionFactory;
+    private final RedisMarkers redisMarkers;
+    private final Cache<String, Boolean> cache;
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter evictionCounter;
+    private final Counter invalidationCounter;
+
+    private volatile StatefulRedisConnection<String, String> trackingConnection;
+
+    public ProcessedMessageNearCache(
+            LettuceConnectionFactory connectionFactory,
+            RedisMarkers redisMarkers,
+            @Value("${app.idempotency.near-cache.enabled:true}") boolean enabled,
+            @Value("${app.idempotency.near-cache.max-size:100000}") long maxSize,
+            @Value("${app.idempotency.near-cache.ttl-seconds:600}") long ttlSeconds,
+            @Value("${app.idempotency.near-cache.tracking-enabled:true}") boolean trackingEnabled,
+            MeterRegistry meterRegistry) {
+
+        this.enabled = enabled;
+        this.trackingEnabled = trackingEnabled;
+        this.connectionFactory = connectionFactory;
+        this.redisMarkers = redisMarkers;
+
+        this.hitCounter = meterRegistry.counter("idempotency.nearcache.hit");
+        this.missCounter = meterRegistry.counter("idempotency.nearcache.miss");
+        this.evictionCounter = meterRegistry.counter("idempotency.nearcache.eviction");
+        this.invalidationCounter = meterRegistry.counter("idempotency.nearcache.invalidation");
+
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .removalListener((String key, Boolean value, RemovalCause cause) -> {
+                    if (cause.wasEvicted()) {
+                        evictionCounter.increment();
+                    }
+                })
+                .build();
+
+        Gauge.builder("idempotency.nearcache.size", cache, Cache::estimatedSize)
+                .description("Message IDs held in the local near cache")
+                .register(meterRegistry);
+
+        log.info("ProcessedMessageNearCache initialized: enabled={}, maxSize={}, ttl={}s, tracking={}",
+                enabled, maxSize, ttlSeconds, trackingEnabled);
+    }
+
+    @PostConstruct
+    public void startTracking() {
+        if (!enabled || !trackingEnabled) {
+            return;
+        }
+
+        try {
+            RedisClient client = (RedisClient) connectionFactory.getRequiredNativeClient();
+            StatefulRedisConnection<String, String> connection = client.connect(StringCodec.UTF8);
+
+            connection.addListener((PushListener) this::onPushMessage);
+            connection.addListener(new RedisConnectionStateListener() {
+                @Override
+                public void onRedisConnected(RedisChannelHandler<?, ?> handler, SocketAddress address) {
+                    // Invalidações enviadas enquanto desconectado foram perdidas
+                    cache.invalidateAll();
+                    connection.async().clientTracking(TrackingArgs.Builder.enabled());
+                }
+            });
+            connection.sync().clientTracking(TrackingArgs.Builder.enabled());
+
+            this.trackingConnection = connection;
+            log.info("Redis client-side tracking enabled for near cache invalidation");
+
+        } catch (Exception e) {
+            log.warn("Could not enable Redis client-side tracking, near cache will rely on TTL only: {}",
+                    e.getMessage());
+        }
+    }
+
+    /**
+     * @return true se este nó já confirmou o messageId como processado
+     */
+    public boolean contains(String messageId) {
+        if (!enabled) {
+            return false;
+        }
+
+        if (cache.getIfPresent(messageId) != null) {
+            hitCounter.increment();
+            return true;
+        }
+
+        missCounter.increment();
+        return false;
+    }
+
+    public void add(String messageId) {
+        if (!enabled) {
+            return;
+        }
+
+        cache.put(messageId, Boolean.TRUE);
+
+        StatefulRedisConnection<String, String> connection = trackingConnection;
+        String trackingKey = redisMarkers.trackingKey(messageId);
+        if (connection != null && trackingKey != null) {
+            // Leitura assíncrona registra a chave na tabela de tracking do servidor
+            connection.async().exists(trackingKey);
+        }
+    }
+
+    private void onPushMessage(PushMessage message) {
+        if (!"invalidate".equals(message.getType())) {
+            return;
+        }
+
+        List<Object> content = message.getContent(StringCodec.UTF8::decodeKey);
+        Object keys = content.size() > 1 ? content.get(1) : null;
+
+        // Payload nulo = FLUSHALL/FLUSHDB no servidor
+        if (!(keys instanceof List<?> invalidatedKeys)) {
+            log.info("Redis flush detected, clearing near cache");
+            cache.invalidateAll();
+            invalidationCounter.increment();
+            return;
+        }
+
+        for (Object key : invalidatedKeys) {
+            String messageId = redisMarkers.messageIdOf(String.valueOf(key));
+            if (messageId != null) {
+                cache.invalidate(messageId);
+                invalidationCounter.increment();
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        StatefulRedisConnection<String, String> connection = trackingConnection;
+        if (connection != null) {
+            connection.close();
+        }
+    }
+}
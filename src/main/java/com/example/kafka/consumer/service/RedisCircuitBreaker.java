@@ -0,0 +1,286 @@
+package com.example.kafka.consumer.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Circuit breaker das operações de marcadores no Redis ({@link RedisMarkers}).
+ *
+ * - CLOSED: todas as chamadas vão ao Redis; o resultado das últimas window-size
+ *   chamadas fica em uma janela circular. Com pelo menos minimum-calls na janela,
+ *   o circuito abre se a taxa de erro passar de failure-rate-threshold ou a de
+ *   chamadas lentas (acima de slow-call-ms) passar de slow-call-rate-threshold;
+ * - OPEN: as chamadas falham na hora com {@link CircuitOpenException}, sem esperar
+ *   o timeout do Lettuce, e o {@link IdempotencyService} vai direto ao PostgreSQL;
+ * - HALF_OPEN: depois de open-duration-ms, uma chamada de sonda a cada
+ *   probe-interval-ms passa pelo Redis e as demais continuam falhando rápido.
+ *   probes-to-close sondas boas seguidas fecham o circuito; uma sonda com erro
+ *   ou lenta o reabre.
+ *
+ * O estado é publicado em idempotency.redis.circuit.state (0 fechado,
+ * 1 meio aberto, 2 aberto) e no health do Redis.
+ */
+@Component
+@Slf4j
+public class RedisCircuitBreaker {
+
+    private final boolean enabled;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long slowCallNanos;
+    private final double slowCallRateThreshold;
+    private final long openDurationNanos;
+    private final long probeIntervalNanos;
+    private final int probesToClose;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final boolean[] failed;
+    private final boolean[] slow;
+    private int next;
+    private int calls;
+    private int failures;
+    private int slowCalls;
+
+    private volatile State state = State.CLOSED;
+    private long openedAt;
+    private long lastProbeAt;
+    private boolean probeInFlight;
+    private int successfulProbes;
+
+    private final MeterRegistry meterRegistry;
+    private final Counter rejectedCounter;
+
+    public RedisCircuitBreaker(
+            @Value("${app.idempotency.redis-circuit-breaker.enabled:true}") boolean enabled,
+            @Value("${app.idempotency.redis-circuit-breaker.window-size:50}") int windowSize,
+            @Value("${app.idempotency.redis-circuit-breaker.minimum-calls:20}") int minimumCalls,
+            @Value("${app.idempotency.redis-circuit-breaker.failure-rate-threshold:0.5}") double failureRateThreshold,
+            @Value("${app.idempotency.redis-circuit-breaker.slow-call-ms:500}") long slowCallMs,
+            @Value("${app.idempotency.redis-circuit-breaker.slow-call-rate-threshold:0.8}") double slowCallRateThreshold,
+            @Value("${app.idempotency.redis-circuit-breaker.open-duration-ms:10000}") long openDurationMs,
+            @Value("${app.idempotency.redis-circuit-breaker.probe-interval-ms:1000}") long probeIntervalMs,
+            @Value("${app.idempotency.redis-circuit-breaker.probes-to-close:5}") int probesToClose,
+            MeterRegistry meterRegistry) {
+
+        this.enabled = enabled;
+        this.minimumCalls = Math.min(minimumCalls, windowSize);
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMs);
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(openDurationMs);
+        this.probeIntervalNanos = TimeUnit.MILLISECONDS.toNanos(probeIntervalMs);
+        this.probesToClose = probesToClose;
+        this.failed = new boolean[windowSize];
+        this.slow = new boolean[windowSize];
+
+        this.meterRegistry = meterRegistry;
+        this.rejectedCounter = meterRegistry.counter("idempotency.redis.circuit.rejected");
+
+        log.info("RedisCircuitBreaker initialized: enabled={}, window={}, failureRate={}, slowCall={}ms, openDuration={}ms",
+                enabled, windowSize, failureRateThreshold, slowCallMs, openDurationMs);
+    }
+
+    /**
+     * Gauges que leem o próprio bean: registrados depois da construção.
+     */
+    @PostConstruct
+    public void registerGauges() {
+        Gauge.builder("idempotency.redis.circuit.state", this, breaker -> breaker.state.ordinal())
+                .description("Redis circuit breaker state: 0 closed, 1 half-open, 2 open")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Executa a chamada ao Redis se o circuito permitir, registrando erro e latência.
+     *
+     * @throws CircuitOpenException se o circuito está aberto (ou meio aberto
+     *         fora da vez de uma sonda)
+     */
+    public <T> T execute(Supplier<T> call) {
+        if (!enabled) {
+            return call.get();
+        }
+
+        boolean probe = acquire();
+        long start = System.nanoTime();
+
+        try {
+            T result = call.get();
+            onResult(probe, false, System.nanoTime() - start);
+            return result;
+        } catch (RuntimeException e) {
+            onResult(probe, true, System.nanoTime() - start);
+            throw e;
+        }
+    }
+
+    /**
+     * Como {@link #execute(Supplier)}, para chamadas sem resultado.
+     */
+    public void run(Runnable call) {
+        execute(() -> {
+            call.run();
+            return null;
+        });
+    }
+
+    public State state() {
+        return state;
+    }
+
+    /**
+     * @return detalhes para o health: estado e taxas da janela atual
+     */
+    public Map<String, Object> details() {
+        lock.lock();
+        try {
+            Map<String, Object> details = new LinkedHashMap<>();
+            details.put("state", state.name());
+            details.put("calls", calls);
+            details.put("failure_rate", calls == 0 ? 0.0 : (double) failures / calls);
+            details.put("slow_call_rate", calls == 0 ? 0.0 : (double) slowCalls / calls);
+            return details;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true se a chamada é uma sonda do estado meio aberto
+     */
+    private boolean acquire() {
+        if (state == State.CLOSED) {
+            return false;
+        }
+
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+
+            if (state == State.OPEN && now - openedAt >= openDurationNanos) {
+                transitionTo(State.HALF_OPEN);
+                successfulProbes = 0;
+                probeInFlight = false;
+                lastProbeAt = now - probeIntervalNanos;
+            }
+
+            if (state == State.HALF_OPEN && !probeInFlight && now - lastProbeAt >= probeIntervalNanos) {
+                probeInFlight = true;
+                lastProbeAt = now;
+                return true;
+            }
+
+            if (state == State.CLOSED) {
+                return false;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        rejectedCounter.increment();
+        throw new CircuitOpenException();
+    }
+
+    private void onResult(boolean probe, boolean error, long elapsedNanos) {
+        boolean tooSlow = elapsedNanos > slowCallNanos;
+
+        lock.lock();
+        try {
+            if (probe) {
+                probeInFlight = false;
+                if (state != State.HALF_OPEN) {
+                    return;
+                }
+                if (error || tooSlow) {
+                    open();
+                } else if (++successfulProbes >= probesToClose) {
+                    resetWindow();
+                    transitionTo(State.CLOSED);
+                }
+                return;
+            }
+
+            if (state != State.CLOSED) {
+                return;
+            }
+
+            record(error, tooSlow);
+
+            if (calls >= minimumCalls
+                    && ((double) failures / calls >= failureRateThreshold
+                        || (double) slowCalls / calls >= slowCallRateThreshold)) {
+                log.warn("Redis circuit opening: {} calls, {} errors, {} slow", calls, failures, slowCalls);
+                open();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void record(boolean error, boolean tooSlow) {
+        if (calls == failed.length) {
+            failures -= failed[next] ? 1 : 0;
+            slowCalls -= slow[next] ? 1 : 0;
+        } else {
+            calls++;
+        }
+
+        failed[next] = error;
+        slow[next] = tooSlow;
+        failures += error ? 1 : 0;
+        slowCalls += tooSlow ? 1 : 0;
+        next = (next + 1) % failed.length;
+    }
+
+    private void open() {
+        openedAt = System.nanoTime();
+        resetWindow();
+        transitionTo(State.OPEN);
+    }
+
+    private void resetWindow() {
+        next = 0;
+        calls = 0;
+        failures = 0;
+        slowCalls = 0;
+    }
+
+    private void transitionTo(State target) {
+        if (state == target) {
+            return;
+        }
+        log.warn("Redis circuit breaker {} -> {}", state, target);
+        state = target;
+        meterRegistry.counter("idempotency.redis.circuit.transitions", "to", target.name().toLowerCase()).increment();
+    }
+
+    public enum State {
+        CLOSED,
+        HALF_OPEN,
+        OPEN
+    }
+
+    /**
+     * Chamada recusada sem ir ao Redis porque o circuito está aberto.
+     */
+    public static class CircuitOpenException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        public CircuitOpenException() {
+            super("Redis circuit breaker is open", null, false, false);
+        }
+    }
+}
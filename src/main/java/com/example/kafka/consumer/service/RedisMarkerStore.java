@@ -0,0 +1,72 @@
+package com.example.kafka.consumer.service;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Layout dos marcadores de idempotência no Redis.
+ *
+ * Cada implementação decide como um messageId vira chave (e campo) no Redis;
+ * o {@link RedisMarkers} escolhe a implementação ativa e cuida da migração
+ * entre formatos.
+ *
+ * Um ID passa por dois estados: o claim cria uma reserva pendente com TTL
+ * curto, e só o processamento concluído a promove a marcador de processado
+ * com o TTL completo. Uma reserva abandonada é liberada ou expira sozinha, e
+ * a reentrega consegue reivindicar o ID de novo.
+ */
+public interface RedisMarkerStore {
+
+    RedisMarkers.KeyFormat format();
+
+    /**
+     * Cria atomicamente a reserva pendente de cada ID que não tenha reserva
+     * nem marcador de processado.
+     *
+     * @param leaseSeconds validade da reserva se ela não for promovida nem liberada
+     * @return true (criado agora) ou false (já existia) por ID, na ordem de entrada
+     */
+    List<Boolean> claimAll(List<String> messageIds, long leaseSeconds);
+
+    /**
+     * Troca a reserva de cada ID pelo marcador de processado com o TTL dado,
+     * criando o marcador mesmo que a reserva já tenha expirado.
+     */
+    void promoteAll(List<String> messageIds, long ttlSeconds);
+
+    /**
+     * Remove a reserva pendente de cada ID. Marcadores já promovidos ficam.
+     */
+    void releaseAll(List<String> messageIds);
+
+    /**
+     * @return true por ID com marcador de processado ou reserva pendente, na ordem de entrada
+     */
+    List<Boolean> existsAll(List<String> messageIds);
+
+    /**
+     * Recria marcadores ausentes com o TTL dado por ID, sem tocar nos existentes.
+     */
+    void restoreAll(Map<String, Long> ttlSecondsByMessageId);
+
+    /**
+     * Média de bytes de memória do Redis por marcador, medida com MEMORY USAGE
+     * nas chaves dos IDs de amostra.
+     *
+     * @return NaN se nenhum marcador da amostra existe
+     */
+    double sampleBytesPerKey(List<String> messageIds);
+
+    /**
+     * @return chave cuja invalidação (client-side tracking) corresponde exatamente
+     *         a este ID, ou null se o layout agrupa vários IDs por chave
+     */
+    String trackingKey(String messageId);
+
+    /**
+     * Inverso de {@link #trackingKey(String)}.
+     *
+     * @return messageId da chave, ou null se a chave não é um marcador deste layout
+     */
+    String messageIdOf(String redisKey);
+}
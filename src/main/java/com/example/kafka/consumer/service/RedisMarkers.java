@@ -0,0 +1,288 @@
+package com.example.kafka.consumer.service;
+
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Marcadores de idempotência no Redis no formato configurado
+ * (app.idempotency.redis-keys.format).
+ *
+ * Trocar o formato não migra os marcadores existentes: eles simplesmente
+ * expiram. Durante essa janela, previous-format faz um ID recém-reivindicado
+ * no formato ativo ser conferido também no formato anterior (um round-trip
+ * pipelined a mais por lote, só para os IDs novos). Depois de um TTL completo
+ * a opção pode ser removida.
+ *
+ * O claim grava só uma reserva pendente com TTL curto
+ * (redis-pending-lease-seconds): se a réplica cair antes de terminar, a
+ * reserva expira e a mensagem reentregue volta a ser reivindicada.
+ * {@link #promote(String)} troca a reserva pelo marcador de processado com o
+ * TTL completo, e {@link #release(String)} a apaga quando o processamento é
+ * abandonado.
+ *
+ * O TTL de cada marcador promovido recebe um acréscimo aleatório de até
+ * redis-ttl-jitter-seconds, para que marcadores gravados juntos não expirem
+ * todos no mesmo instante.
+ *
+ * A memória média por marcador de cada formato é amostrada periodicamente
+ * com MEMORY USAGE e publicada em idempotency.redis.bytes.per.key.
+ *
+ * Claim, promoção, liberação, consulta e restauração passam pelo {@link RedisCircuitBreaker}: com
+ * o circuito aberto falham na hora com
+ * {@link RedisCircuitBreaker.CircuitOpenException}.
+ */
+@Component
+@Slf4j
+public class RedisMarkers {
+
+    private static final int SAMPLE_SIZE = 32;
+    private static final long MEMORY_USAGE_TIMEOUT_MS = 1000;
+
+    private final RedisShards shards;
+    private final RedisCircuitBreaker circuitBreaker;
+    private final RedisMarkerStore active;
+    private final RedisMarkerStore previous;
+    private final long ttlSeconds;
+    private final long ttlJitterSeconds;
+    private final long pendingLeaseSeconds;
+
+    private final AtomicReferenceArray<String> recentIds = new AtomicReferenceArray<>(SAMPLE_SIZE);
+    private final AtomicLong recentCursor = new AtomicLong();
+    private final Map<KeyFormat, Double> bytesPerKey = new ConcurrentHashMap<>();
+
+    public RedisMarkers(
+            List<RedisMarkerStore> stores,
+            RedisShards shards,
+            RedisCircuitBreaker circuitBreaker,
+            @Value("${app.idempotency.redis-keys.format:legacy}") KeyFormat format,
+            @Value("${app.idempotency.redis-keys.previous-format:}") KeyFormat previousFormat,
+            @Value("${app.idempotency.redis-ttl-seconds:86400}") long ttlSeconds,
+            @Value("${app.idempotency.redis-ttl-jitter-seconds:0}") long ttlJitterSeconds,
+            @Value("${app.idempotency.redis-pending-lease-seconds:300}") long pendingLeaseSeconds,
+            MeterRegistry meterRegistry) {
+
+        this.shards = shards;
+        this.circuitBreaker = circuitBreaker;
+
+        Map<KeyFormat, RedisMarkerStore> byFormat = new EnumMap<>(KeyFormat.class);
+        stores.forEach(store -> byFormat.put(store.format(), store));
+
+        this.active = Objects.requireNonNull(byFormat.get(format), "No RedisMarkerStore for format " + format);
+        this.previous = previousFormat != null && previousFormat != format ? byFormat.get(previousFormat) : null;
+        this.ttlSeconds = ttlSeconds;
+        this.ttlJitterSeconds = ttlJitterSeconds;
+        this.pendingLeaseSeconds = pendingLeaseSeconds;
+
+        for (KeyFormat keyFormat : byFormat.keySet()) {
+            bytesPerKey.put(keyFormat, Double.NaN);
+            Gauge.builder("idempotency.redis.bytes.per.key", bytesPerKey, sampled -> sampled.get(keyFormat))
+                    .description("Sampled Redis memory per idempotency marker")
+                    .tag("format", keyFormat.name().toLowerCase())
+                    .register(meterRegistry);
+        }
+
+        log.info("RedisMarkers initialized: format={}, previousFormat={}, ttl={}s, jitter={}s, pendingLease={}s",
+                format, previous != null ? previous.format() : null, ttlSeconds, ttlJitterSeconds, pendingLeaseSeconds);
+    }
+
+    /**
+     * Reivindica os IDs no formato ativo com uma reserva pendente.
+     *
+     * @return true (claimed) ou false (duplicate) por ID, na ordem de entrada
+     */
+    public List<Boolean> claimAll(List<String> messageIds) {
+        return circuitBreaker.execute(() -> claimInStores(messageIds));
+    }
+
+    /**
+     * Troca a reserva pendente pelo marcador de processado com o TTL completo.
+     */
+    public void promote(String messageId) {
+        promoteAll(List.of(messageId));
+    }
+
+    /**
+     * Versão em lote de {@link #promote(String)}, com o mesmo jitter para todos os IDs.
+     */
+    public void promoteAll(List<String> messageIds) {
+        long jitter = ttlJitterSeconds > 0 ? ThreadLocalRandom.current().nextLong(ttlJitterSeconds + 1) : 0;
+        circuitBreaker.run(() -> active.promoteAll(messageIds, ttlSeconds + jitter));
+    }
+
+    /**
+     * Apaga a reserva pendente; um marcador já promovido não é tocado.
+     */
+    public void release(String messageId) {
+        circuitBreaker.run(() -> active.releaseAll(List.of(messageId)));
+    }
+
+    public boolean exists(String messageId) {
+        return circuitBreaker.execute(() -> active.existsAll(List.of(messageId)).get(0)
+                || previous != null && previous.existsAll(List.of(messageId)).get(0));
+    }
+
+    /**
+     * Recria marcadores ausentes no formato ativo com o TTL restante de cada ID.
+     */
+    public void restoreAll(Map<String, Long> ttlSecondsByMessageId) {
+        if (!ttlSecondsByMessageId.isEmpty()) {
+            circuitBreaker.run(() -> active.restoreAll(ttlSecondsByMessageId));
+        }
+    }
+
+    public void restore(String messageId) {
+        Map<String, Long> single = new LinkedHashMap<>();
+        single.put(messageId, ttlSeconds);
+        restoreAll(single);
+    }
+
+    public long ttlSeconds() {
+        return ttlSeconds;
+    }
+
+    private List<Boolean> claimInStores(List<String> messageIds) {
+        List<Boolean> claimed = new ArrayList<>(active.claimAll(messageIds, pendingLeaseSeconds));
+        remember(messageIds);
+
+        if (previous != null) {
+            List<String> fresh = new ArrayList<>();
+            for (int i = 0; i < messageIds.size(); i++) {
+                if (claimed.get(i)) {
+                    fresh.add(messageIds.get(i));
+                }
+            }
+
+            if (!fresh.isEmpty()) {
+                List<Boolean> existing = previous.existsAll(fresh);
+                List<String> processedBefore = new ArrayList<>();
+                for (int i = 0, j = 0; i < messageIds.size(); i++) {
+                    if (claimed.get(i) && existing.get(j++)) {
+                        claimed.set(i, false);
+                        processedBefore.add(messageIds.get(i));
+                    }
+                }
+
+                // A reserva recém-gravada no formato ativo não será promovida
+                if (!processedBefore.isEmpty()) {
+                    active.releaseAll(processedBefore);
+                }
+            }
+        }
+
+        return claimed;
+    }
+
+    /**
+     * @see RedisMarkerStore#trackingKey(String)
+     * @return null também fora do standalone: o tracking do near cache só
+     *         observa o primário
+     */
+    public String trackingKey(String messageId) {
+        return shards.isStandalone() ? active.trackingKey(messageId) : null;
+    }
+
+    /**
+     * @see RedisMarkerStore#messageIdOf(String)
+     */
+    public String messageIdOf(String redisKey) {
+        return active.messageIdOf(redisKey);
+    }
+
+    @Scheduled(fixedDelayString = "${app.idempotency.redis-keys.memory-sample-interval-ms:60000}")
+    public void sampleMemory() {
+        List<String> sample = new ArrayList<>(SAMPLE_SIZE);
+        for (int i = 0; i < SAMPLE_SIZE; i++) {
+            String messageId = recentIds.get(i);
+            if (messageId != null) {
+                sample.add(messageId);
+            }
+        }
+
+        if (sample.isEmpty() || circuitBreaker.state() != RedisCircuitBreaker.State.CLOSED) {
+            return;
+        }
+
+        sampleMemory(active, sample);
+        if (previous != null) {
+            sampleMemory(previous, sample);
+        }
+    }
+
+    private void sampleMemory(RedisMarkerStore store, List<String> sample) {
+        try {
+            double sampled = store.sampleBytesPerKey(sample);
+            if (!Double.isNaN(sampled)) {
+                bytesPerKey.put(store.format(), sampled);
+                log.debug("Redis {} markers use ~{} bytes per key", store.format(), Math.round(sampled));
+            }
+        } catch (Exception e) {
+            log.debug("Redis memory sampling failed for {} markers: {}", store.format(), e.getMessage());
+        }
+    }
+
+    private void remember(List<String> messageIds) {
+        // Um ID por lote basta para a amostra
+        if (!messageIds.isEmpty()) {
+            recentIds.set((int) (recentCursor.getAndIncrement() % SAMPLE_SIZE), messageIds.get(0));
+        }
+    }
+
+    /**
+     * MEMORY USAGE da chave (não exposto pelo RedisConnection do Spring Data).
+     *
+     * @return bytes, ou null se a chave não existe
+     */
+    @SuppressWarnings("unchecked")
+    static Long memoryUsage(RedisTemplate<String, String> redisTemplate, String key) {
+        return redisTemplate.execute((RedisCallback<Long>) connection -> {
+            RedisClusterAsyncCommands<byte[], byte[]> commands =
+                    (RedisClusterAsyncCommands<byte[], byte[]>) connection.getNativeConnection();
+            try {
+                return commands.memoryUsage(key.getBytes(StandardCharsets.UTF_8))
+                        .get(MEMORY_USAGE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                throw new IllegalStateException("MEMORY USAGE failed for " + key, e);
+            }
+        });
+    }
+
+    /**
+     * Script Lua que devolve um inteiro por item, como os claims em lote dos
+     * {@link RedisMarkerStore}.
+     */
+    @SuppressWarnings("unchecked")
+    static RedisScript<List<Long>> listScript(String script) {
+        return new DefaultRedisScript<>(script, (Class<List<Long>>) (Class<?>) List.class);
+    }
+
+    /**
+     * Layout dos marcadores (app.idempotency.redis-keys.format).
+     */
+    public enum KeyFormat {
+        LEGACY,
+        COMPACT,
+        WINDOWED
+    }
+}
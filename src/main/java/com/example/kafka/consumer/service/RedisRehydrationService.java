@@ -0,0 +1,293 @@
+package com.example.kafka.consumer.service;
+
+import com.example.kafka.consumer.repository.ProcessedMessageKey;
+import com.example.kafka.consumer.repository.ProcessedMessageRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reconstrói os marcadores de idempotência do Redis a partir do PostgreSQL.
+ *
+ * Depois de um flush ou failover do Redis, toda a janela de deduplicação
+ * precisa voltar; até lá cada mensagem cai no fallback do PostgreSQL. O job
+ * percorre processed_message_keys dentro da janela de TTL com paginação por
+ * keyset em (processed_at, message_id) e grava cada página no Redis de uma vez, no formato
+ * de marcador ativo ({@link RedisMarkers}), usando o TTL restante de cada ID
+ * (marcadores mais novos, já recriados pelo tráfego, não são sobrescritos).
+ *
+ * O progresso é salvo no próprio Redis a cada página, então um restart da
+ * aplicação retoma de onde parou. Um flush do Redis é detectado pela ausência
+ * de uma chave sentinela; a réplica que recria a sentinela inicia o job.
+ * Progresso, taxa e ETA ficam em /actuator/rehydration.
+ */
+@Service
+@Slf4j
+public class RedisRehydrationService {
+
+    private static final String CHECKPOINT_KEY = "idempotency-rehydration:checkpoint";
+    private static final String SENTINEL_KEY = "idempotency-rehydration:sentinel";
+    private static final String CHECKPOINT_SEPARATOR = "|";
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final RedisMarkers redisMarkers;
+    private final ProcessedMessageRepository repository;
+    private final boolean autoStart;
+    private final int batchSize;
+    private final long redisTtlSeconds;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile boolean cancelRequested;
+    private volatile State state = State.IDLE;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile long total;
+    private volatile long restored;
+    private volatile long expired;
+    private volatile LocalDateTime cursorProcessedAt;
+    private volatile String cursorMessageId;
+    private volatile String lastError;
+
+    private final MeterRegistry meterRegistry;
+    private final Counter restoredCounter;
+
+    public RedisRehydrationService(
+            RedisTemplate<String, String> redisTemplate,
+            RedisMarkers redisMarkers,
+            ProcessedMessageRepository repository,
+            @Value("${app.idempotency.rehydration.auto-start:true}") boolean autoStart,
+            @Value("${app.idempotency.rehydration.batch-size:5000}") int batchSize,
+            @Value("${app.idempotency.redis-ttl-seconds:86400}") long redisTtlSeconds,
+            MeterRegistry meterRegistry) {
+
+        this.redisTemplate = redisTemplate;
+        this.redisMarkers = redisMarkers;
+        this.repository = repository;
+        this.autoStart = autoStart;
+        this.batchSize = batchSize;
+        this.redisTtlSeconds = redisTtlSeconds;
+
+        this.meterRegistry = meterRegistry;
+        this.restoredCounter = meterRegistry.counter("idempotency.rehydration.restored");
+    }
+
+    /**
+     * Gauges que leem o próprio bean: registrados depois da construção.
+     */
+    @PostConstruct
+    public void registerGauges() {
+        Gauge.builder("idempotency.rehydration.running", running, flag -> flag.get() ? 1 : 0)
+                .description("1 while the Redis rehydration job is running")
+                .register(meterRegistry);
+
+        Gauge.builder("idempotency.rehydration.progress", this, RedisRehydrationService::progress)
+                .description("Fraction of the TTL window already rehydrated")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Detecta flush/failover do Redis pela ausência da sentinela. Só a réplica
+     * que consegue recriá-la (SET NX) dispara o job.
+     */
+    @Scheduled(fixedDelayString = "${app.idempotency.rehydration.check-interval-ms:30000}")
+    public void watchForRedisLoss() {
+        if (!autoStart || running.get()) {
+            return;
+        }
+
+        try {
+            Boolean created = redisTemplate.opsForValue().setIfAbsent(SENTINEL_KEY, Instant.now().toString());
+            if (Boolean.TRUE.equals(created)) {
+                log.warn("Redis rehydration sentinel missing (flush or failover), starting rehydration");
+                start();
+            }
+        } catch (Exception e) {
+            log.debug("Redis rehydration sentinel check failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Inicia o job em uma virtual thread, retomando do checkpoint se houver.
+     *
+     * @return false se já havia um job em andamento
+     */
+    public boolean start() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+
+        cancelRequested = false;
+        Thread.ofVirtual().name("redis-rehydration").start(this::run);
+        return true;
+    }
+
+    /**
+     * Pede a interrupção do job; o checkpoint é mantido para uma retomada posterior.
+     */
+    public boolean cancel() {
+        if (!running.get()) {
+            return false;
+        }
+        cancelRequested = true;
+        return true;
+    }
+
+    private void run() {
+        state = State.RUNNING;
+        startedAt = Instant.now();
+        finishedAt = null;
+        restored = 0;
+        expired = 0;
+        lastError = null;
+
+        try {
+            LocalDateTime windowStart = LocalDateTime.now().minusSeconds(redisTtlSeconds);
+            cursorProcessedAt = windowStart;
+            cursorMessageId = "";
+            resumeFromCheckpoint(windowStart);
+
+            total = repository.countProcessedSince(cursorProcessedAt);
+            log.info("Redis rehydration started from {} ({}): ~{} message IDs to restore",
+                    cursorProcessedAt, cursorMessageId, total);
+
+            List<ProcessedMessageKey> page;
+            while (!cancelRequested
+                    && !(page = repository.findKeysAfter(cursorProcessedAt, cursorMessageId, batchSize)).isEmpty()) {
+
+                writePage(page);
+
+                ProcessedMessageKey last = page.get(page.size() - 1);
+                cursorProcessedAt = last.processedAt();
+                cursorMessageId = last.messageId();
+                saveCheckpoint();
+            }
+
+            if (cancelRequested) {
+                state = State.CANCELLED;
+                log.info("Redis rehydration cancelled at {} ({}), {} keys restored",
+                        cursorProcessedAt, cursorMessageId, restored);
+            } else {
+                redisTemplate.delete(CHECKPOINT_KEY);
+                state = State.COMPLETED;
+                log.info("Redis rehydration completed: {} keys restored, {} already expired in {}",
+                        restored, expired, Duration.between(startedAt, Instant.now()));
+            }
+
+        } catch (Exception e) {
+            state = State.FAILED;
+            lastError = e.getMessage();
+            log.error("Redis rehydration failed at {} ({}), will resume from checkpoint",
+                    cursorProcessedAt, cursorMessageId, e);
+        } finally {
+            finishedAt = Instant.now();
+            running.set(false);
+        }
+    }
+
+    /**
+     * Grava a página com o TTL restante de cada linha: um round-trip por página.
+     */
+    private void writePage(List<ProcessedMessageKey> page) {
+        long nowMillis = System.currentTimeMillis();
+        Map<String, Long> remaining = new LinkedHashMap<>();
+
+        for (ProcessedMessageKey key : page) {
+            long processedAtMillis = key.processedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            long remainingSeconds = redisTtlSeconds - (nowMillis - processedAtMillis) / 1000;
+
+            if (remainingSeconds <= 0) {
+                expired++;
+            } else {
+                remaining.put(key.messageId(), remainingSeconds);
+            }
+        }
+
+        redisMarkers.restoreAll(remaining);
+        restored += remaining.size();
+        restoredCounter.increment(remaining.size());
+    }
+
+    private void resumeFromCheckpoint(LocalDateTime windowStart) {
+        String checkpoint = redisTemplate.opsForValue().get(CHECKPOINT_KEY);
+        if (checkpoint == null) {
+            return;
+        }
+
+        // O messageId pode conter o separador; o instante não
+        int separator = checkpoint.indexOf(CHECKPOINT_SEPARATOR);
+        LocalDateTime processedAt = LocalDateTime.parse(checkpoint.substring(0, separator));
+
+        // Checkpoint mais antigo que a janela: o que faltava já expirou
+        if (processedAt.isAfter(windowStart)) {
+            cursorProcessedAt = processedAt;
+            cursorMessageId = checkpoint.substring(separator + 1);
+        }
+    }
+
+    private void saveCheckpoint() {
+        redisTemplate.opsForValue().set(CHECKPOINT_KEY,
+                cursorProcessedAt + CHECKPOINT_SEPARATOR + cursorMessageId,
+                Duration.ofSeconds(redisTtlSeconds));
+    }
+
+    private double progress() {
+        long expected = total;
+        if (expected == 0) {
+            return state == State.COMPLETED ? 1.0 : 0.0;
+        }
+        return Math.min(1.0, (double) (restored + expired) / expected);
+    }
+
+    /**
+     * Estado atual para o endpoint do actuator.
+     */
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("state", state);
+        status.put("startedAt", startedAt);
+        status.put("finishedAt", finishedAt);
+        status.put("total", total);
+        status.put("restored", restored);
+        status.put("expired", expired);
+        status.put("progress", progress());
+        status.put("cursor", cursorProcessedAt != null ? cursorProcessedAt + CHECKPOINT_SEPARATOR + cursorMessageId : null);
+
+        if (startedAt != null) {
+            Instant end = finishedAt != null ? finishedAt : Instant.now();
+            double elapsedSeconds = Math.max(1, Duration.between(startedAt, end).toMillis()) / 1000.0;
+            double rate = (restored + expired) / elapsedSeconds;
+            status.put("ratePerSecond", Math.round(rate));
+
+            if (state == State.RUNNING && rate > 0) {
+                long remaining = Math.max(0, total - restored - expired);
+                status.put("etaSeconds", Math.round(remaining / rate));
+            }
+        }
+
+        status.put("lastError", lastError);
+        return status;
+    }
+
+    public enum State {
+        IDLE,
+        RUNNING,
+        COMPLETED,
+        CANCELLED,
+        FAILED
+    }
+}
@@ -0,0 +1,295 @@
+package com.example.kafka.consumer.service;
+
+import com.example.kafka.consumer.config.RedisTopology;
+import io.lettuce.core.cluster.RedisClusterClient;
+import io.lettuce.core.cluster.SlotHash;
+import io.lettuce.core.cluster.models.partitions.RedisClusterNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.utils.Utils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Roteia as operações dos marcadores de idempotência para o Redis dono de cada chave.
+ *
+ * - standalone: tudo vai para o primário;
+ * - cluster: cada lote é dividido por slot (scripts Lua só aceitam chaves do
+ *   mesmo slot) e o Lettuce encaminha cada grupo ao nó dono;
+ * - sharded: primários independentes em um anel de hash consistente com nós
+ *   virtuais, para que adicionar um shard remapeie só ~1/N das chaves.
+ *
+ * Como no Redis Cluster, só o conteúdo entre chaves ({...}) de uma chave entra no
+ * hash, então chaves com a mesma hash tag sempre caem juntas. Grupos de um
+ * mesmo lote rodam em paralelo em virtual threads, e a latência e os erros de
+ * cada shard são publicados em idempotency.redis.shard.*.
+ */
+@Component
+@Slf4j
+public class RedisShards {
+
+    private final RedisTopology topology;
+    private final RedisTemplate<String, String> primary;
+    private final LettuceConnectionFactory primaryConnectionFactory;
+    private final LettuceClientConfiguration clientConfiguration;
+    private final NavigableMap<Integer, Shard> ring = new TreeMap<>();
+    private final List<LettuceConnectionFactory> shardConnectionFactories = new ArrayList<>();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final MeterRegistry meterRegistry;
+
+    public RedisShards(
+            RedisTemplate<String, String> redisTemplate,
+            LettuceConnectionFactory connectionFactory,
+            LettuceClientConfiguration clientConfiguration,
+            @Value("${app.redis.topology:standalone}") RedisTopology topology,
+            @Value("${app.redis.shards.nodes:}") List<String> shardNodes,
+            @Value("${app.redis.shards.virtual-nodes:160}") int virtualNodes,
+            @Value("${spring.data.redis.password:#{null}}") String password,
+            MeterRegistry meterRegistry) {
+
+        this.topology = topology;
+        this.primary = redisTemplate;
+        this.primaryConnectionFactory = connectionFactory;
+        this.clientConfiguration = clientConfiguration;
+        this.meterRegistry = meterRegistry;
+
+        if (topology == RedisTopology.SHARDED) {
+            if (shardNodes.isEmpty()) {
+                throw new IllegalStateException("app.redis.topology=sharded requires app.redis.shards.nodes");
+            }
+
+            for (String node : shardNodes) {
+                Shard shard = new Shard(node.trim(), connect(node.trim(), password));
+                for (int i = 0; i < virtualNodes; i++) {
+                    ring.put(hash(shard.name() + "#" + i), shard);
+                }
+            }
+        }
+
+        log.info("RedisShards initialized: topology={}, shards={}", topology,
+                topology == RedisTopology.SHARDED ? shardNodes : topology.name().toLowerCase());
+    }
+
+    /**
+     * Executa o comando uma vez por grupo de itens que cabem na mesma chamada
+     * (mesmo slot ou mesmo shard), em paralelo quando há mais de um grupo.
+     *
+     * @param routingKey chave do Redis tocada por cada item
+     * @param command    recebe o template do shard e os itens do grupo; devolve um
+     *                   resultado por item, na ordem recebida
+     * @return resultados na ordem dos itens de entrada
+     * @throws RuntimeException a primeira falha entre os grupos
+     */
+    public <I, T> List<T> execute(List<I> items, Function<I, String> routingKey, String operation,
+                                  BiFunction<RedisTemplate<String, String>, List<I>, List<T>> command) {
+
+        Map<Object, Group<I>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < items.size(); i++) {
+            I item = items.get(i);
+            String key = routingKey.apply(item);
+            Object groupId = topology == RedisTopology.CLUSTER ? SlotHash.getSlot(key) : shardFor(key);
+            groups.computeIfAbsent(groupId, id -> new Group<>(id)).add(i, item);
+        }
+
+        List<T> results = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            results.add(null);
+        }
+
+        if (groups.size() == 1) {
+            Group<I> group = groups.values().iterator().next();
+            group.collect(run(group, operation, command), results);
+            return results;
+        }
+
+        List<CompletableFuture<List<T>>> futures = new ArrayList<>(groups.size());
+        for (Group<I> group : groups.values()) {
+            futures.add(CompletableFuture.supplyAsync(() -> run(group, operation, command), executor));
+        }
+
+        int g = 0;
+        for (Group<I> group : groups.values()) {
+            try {
+                group.collect(futures.get(g++).join(), results);
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Como {@link #execute}, para comandos sem resultado por item.
+     */
+    public <I> void executeAll(List<I> items, Function<I, String> routingKey, String operation,
+                               BiConsumer<RedisTemplate<String, String>, List<I>> command) {
+        execute(items, routingKey, operation, (template, group) -> {
+            command.accept(template, group);
+            return Collections.nCopies(group.size(), null);
+        });
+    }
+
+    /**
+     * @return template do Redis que guarda a chave (para operações avulsas)
+     */
+    public RedisTemplate<String, String> templateFor(String key) {
+        return topology == RedisTopology.SHARDED ? ((Shard) shardFor(key)).template() : primary;
+    }
+
+    /**
+     * @return true se todas as chaves ficam no primário standalone
+     */
+    public boolean isStandalone() {
+        return topology == RedisTopology.STANDALONE;
+    }
+
+    private <I, T> List<T> run(Group<I> group, String operation,
+                               BiFunction<RedisTemplate<String, String>, List<I>, List<T>> command) {
+
+        String shardName = shardName(group.id);
+        RedisTemplate<String, String> template = group.id instanceof Shard shard ? shard.template() : primary;
+        Timer.Sample sample = Timer.start(meterRegistry);
+
+        try {
+            return command.apply(template, group.items);
+        } catch (RuntimeException e) {
+            Counter.builder("idempotency.redis.shard.errors")
+                    .tag("shard", shardName)
+                    .tag("operation", operation)
+                    .register(meterRegistry)
+                    .increment();
+            log.debug("Redis shard {} failed on {} of {} keys: {}", shardName, operation, group.items.size(),
+                    e.getMessage());
+            throw e;
+        } finally {
+            sample.stop(Timer.builder("idempotency.redis.shard.latency")
+                    .tag("shard", shardName)
+                    .tag("operation", operation)
+                    .register(meterRegistry));
+        }
+    }
+
+    private Object shardFor(String key) {
+        if (topology != RedisTopology.SHARDED) {
+            return topology;
+        }
+        Map.Entry<Integer, Shard> entry = ring.ceilingEntry(hash(hashTag(key)));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    /**
+     * Nome do shard para as métricas: o nó dono do slot no cluster.
+     */
+    private String shardName(Object groupId) {
+        if (groupId instanceof Shard shard) {
+            return shard.name();
+        }
+        if (groupId instanceof Integer slot) {
+            try {
+                RedisClusterClient client = (RedisClusterClient) primaryConnectionFactory.getRequiredNativeClient();
+                RedisClusterNode node = client.getPartitions().getPartitionBySlot(slot);
+                if (node != null) {
+                    return node.getUri().getHost() + ":" + node.getUri().getPort();
+                }
+            } catch (RuntimeException e) {
+                log.debug("Could not resolve cluster node for slot {}: {}", slot, e.getMessage());
+            }
+            return "unknown";
+        }
+        return "standalone";
+    }
+
+    private LettuceConnectionFactory connect(String node, String password) {
+        int separator = node.lastIndexOf(':');
+        RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(
+                node.substring(0, separator), Integer.parseInt(node.substring(separator + 1)));
+
+        if (password != null && !password.isEmpty()) {
+            config.setPassword(password);
+        }
+
+        // Mesmos event loops, pool e timeout da conexão principal
+        LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(config, clientConfiguration);
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        shardConnectionFactories.add(connectionFactory);
+        return connectionFactory;
+    }
+
+    /**
+     * Conteúdo da hash tag ({...}) da chave, ou a chave inteira se não houver.
+     */
+    private static String hashTag(String key) {
+        int open = key.indexOf('{');
+        if (open >= 0) {
+            int close = key.indexOf('}', open + 1);
+            if (close > open + 1) {
+                return key.substring(open + 1, close);
+            }
+        }
+        return key;
+    }
+
+    private static int hash(String value) {
+        return Utils.murmur2(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+        shardConnectionFactories.forEach(LettuceConnectionFactory::destroy);
+    }
+
+    private record Shard(String name, RedisTemplate<String, String> template) {
+
+        private Shard(String name, LettuceConnectionFactory connectionFactory) {
+            this(name, new StringRedisTemplate(connectionFactory));
+        }
+    }
+
+    private static final class Group<I> {
+
+        private final Object id;
+        private final List<Integer> positions = new ArrayList<>();
+        private final List<I> items = new ArrayList<>();
+
+        private Group(Object id) {
+            this.id = id;
+        }
+
+        private void add(int position, I item) {
+            positions.add(position);
+            items.add(item);
+        }
+
+        private <T> void collect(List<T> groupResults, List<T> results) {
+            for (int i = 0; i < positions.size(); i++) {
+                results.set(positions.get(i), groupResults.get(i));
+            }
+        }
+    }
+}
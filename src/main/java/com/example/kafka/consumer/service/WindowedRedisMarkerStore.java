@@ -0,0 +1,355 @@
+package com.example.kafka.consumer.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Formato em janela: IDs em sets por intervalo de tempo que expiram inteiros.
+ *
+ * Cada ID (16 bytes, ver {@link CompactRedisMarkerStore#binaryId(String)}) é
+ * adicionado ao set do intervalo atual (bucket-seconds) do seu shard, e o set
+ * recebe um único EXPIREAT. O Redis passa a expirar O(buckets × shards) chaves
+ * em vez de uma por mensagem.
+ *
+ * A consulta olha os buckets que cobrem a janela redis-ttl-seconds: um ID
+ * continua visível por pelo menos a janela completa e no máximo um bucket a
+ * mais. Claim e consulta de um lote são uma única chamada ao Redis.
+ *
+ * Um set só expira inteiro, então a reserva pendente do claim é uma string
+ * própria "idem:w:{shard}:p:&lt;id em hex&gt;" com o TTL da reserva. Só a promoção
+ * coloca o ID no set do bucket atual e apaga a reserva.
+ *
+ * As chaves "idem:w:{shard}:bucket" usam o shard como hash tag, então todos
+ * os buckets e reservas de um shard ficam no mesmo slot do Redis Cluster (ou
+ * no mesmo nó do {@link RedisShards}) e cabem em um único script.
+ */
+@Component
+public class WindowedRedisMarkerStore implements RedisMarkerStore {
+
+    private static final String KEY_PREFIX = "idem:w:";
+
+    /**
+     * ARGV[1] = buckets por shard (N), ARGV[2] = TTL da reserva e, por ID, o
+     * grupo de shard (1-based), o membro e a posição da chave de reserva em
+     * KEYS. KEYS traz N chaves por grupo, da mais nova para a mais antiga, e
+     * depois as reservas. Retorna 1 (claimed) ou 0 (duplicate) por ID.
+     */
+    private static final RedisScript<List<Long>> CLAIM_ALL_SCRIPT = RedisMarkers.listScript("""
+            local n = tonumber(ARGV[1])
+            local result = {}
+            for i = 3, #ARGV, 3 do
+                local base = (tonumber(ARGV[i]) - 1) * n
+                local member = ARGV[i + 1]
+                local seen = 0
+                for b = 1, n do
+                    if redis.call('SISMEMBER', KEYS[base + b], member) == 1 then
+                        seen = 1
+                        break
+                    end
+                end
+                if seen == 0 and not redis.call('SET', KEYS[tonumber(ARGV[i + 2])], '', 'NX', 'EX', ARGV[2]) then
+                    seen = 1
+                end
+                result[#result + 1] = 1 - seen
+            end
+            return result
+            """);
+
+    private final RedisShards shards;
+    private final long bucketSeconds;
+    private final int shardCount;
+    private final long windowSeconds;
+    private final int bucketsPerLookup;
+
+    public WindowedRedisMarkerStore(
+            RedisShards shards,
+            @Value("${app.idempotency.redis-keys.window.bucket-seconds:3600}") long bucketSeconds,
+            @Value("${app.idempotency.redis-keys.window.shards:64}") int shardCount,
+            @Value("${app.idempotency.redis-ttl-seconds:86400}") long windowSeconds) {
+
+        this.shards = shards;
+        this.bucketSeconds = bucketSeconds;
+        this.shardCount = shardCount;
+        this.windowSeconds = windowSeconds;
+        this.bucketsPerLookup = (int) ((windowSeconds + bucketSeconds - 1) / bucketSeconds) + 1;
+    }
+
+    @Override
+    public RedisMarkers.KeyFormat format() {
+        return RedisMarkers.KeyFormat.WINDOWED;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Boolean> claimAll(List<String> messageIds, long leaseSeconds) {
+        long bucket = currentBucket();
+        byte[] lookup = ascii(bucketsPerLookup);
+        byte[] lease = ascii(leaseSeconds);
+
+        return shards.execute(entriesOf(messageIds), entry -> keyOf(entry.shard(), bucket), "claim", (redis, entries) -> {
+            Map<Integer, Integer> groups = new LinkedHashMap<>();
+            List<String> keys = new ArrayList<>();
+            for (Entry entry : entries) {
+                if (!groups.containsKey(entry.shard())) {
+                    groups.put(entry.shard(), groups.size() + 1);
+                    for (int age = 0; age < bucketsPerLookup; age++) {
+                        keys.add(keyOf(entry.shard(), bucket - age));
+                    }
+                }
+            }
+
+            Object[] args = new Object[2 + entries.size() * 3];
+            args[0] = lookup;
+            args[1] = lease;
+
+            int i = 2;
+            for (Entry entry : entries) {
+                keys.add(pendingKeyOf(entry));
+                args[i++] = ascii(groups.get(entry.shard()));
+                args[i++] = entry.id();
+                args[i++] = ascii(keys.size());
+            }
+
+            List<Long> claimed = redis.execute(
+                CLAIM_ALL_SCRIPT,
+                RedisSerializer.byteArray(),
+                (RedisSerializer<List<Long>>) (RedisSerializer<?>) redis.getValueSerializer(),
+                keys,
+                args
+            );
+
+            List<Boolean> results = new ArrayList<>(claimed.size());
+            for (Number result : claimed) {
+                results.add(result.longValue() == 1L);
+            }
+            return results;
+        });
+    }
+
+    /**
+     * Coloca cada ID no set do bucket atual, renova o EXPIREAT do set e apaga
+     * as reservas, em um único pipeline por Redis. O TTL recebido (janela +
+     * jitter) conta a partir do fim do bucket atual.
+     */
+    @Override
+    public void promoteAll(List<String> messageIds, long ttlSeconds) {
+        long bucket = currentBucket();
+        long expireAt = (bucket + 1) * bucketSeconds + ttlSeconds;
+
+        shards.executeAll(entriesOf(messageIds), entry -> keyOf(entry.shard(), bucket), "promote", (redis, entries) -> {
+            Map<Integer, List<Entry>> byShard = new LinkedHashMap<>();
+            for (Entry entry : entries) {
+                byShard.computeIfAbsent(entry.shard(), shard -> new ArrayList<>()).add(entry);
+            }
+
+            redis.executePipelined((RedisCallback<Object>) connection -> {
+                byShard.forEach((shard, members) -> {
+                    byte[] rawKey = keyOf(shard, bucket).getBytes(StandardCharsets.UTF_8);
+                    byte[][] ids = new byte[members.size()][];
+                    byte[][] pendingKeys = new byte[members.size()][];
+                    for (int j = 0; j < ids.length; j++) {
+                        ids[j] = members.get(j).id();
+                        pendingKeys[j] = pendingKeyOf(members.get(j)).getBytes(StandardCharsets.UTF_8);
+                    }
+                    connection.setCommands().sAdd(rawKey, ids);
+                    connection.keyCommands().expireAt(rawKey, expireAt);
+                    connection.keyCommands().del(pendingKeys);
+                });
+                return null;
+            });
+        });
+    }
+
+    @Override
+    public void releaseAll(List<String> messageIds) {
+        shards.executeAll(entriesOf(messageIds), WindowedRedisMarkerStore::pendingKeyOf, "release", (redis, entries) ->
+                redis.executePipelined((RedisCallback<Object>) connection -> {
+                    byte[][] pendingKeys = new byte[entries.size()][];
+                    for (int j = 0; j < pendingKeys.length; j++) {
+                        pendingKeys[j] = pendingKeyOf(entries.get(j)).getBytes(StandardCharsets.UTF_8);
+                    }
+                    connection.keyCommands().del(pendingKeys);
+                    return null;
+                }));
+    }
+
+    /**
+     * Um SMISMEMBER por shard e bucket da janela e um EXISTS por reserva, em
+     * um único pipeline por Redis.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Boolean> existsAll(List<String> messageIds) {
+        long bucket = currentBucket();
+
+        return shards.execute(entriesOf(messageIds), entry -> keyOf(entry.shard(), bucket), "exists", (redis, entries) -> {
+            Map<Integer, List<Integer>> positionsByShard = new LinkedHashMap<>();
+            for (int i = 0; i < entries.size(); i++) {
+                positionsByShard.computeIfAbsent(entries.get(i).shard(), shard -> new ArrayList<>()).add(i);
+            }
+
+            List<Object> replies = redis.executePipelined((RedisCallback<Object>) connection -> {
+                positionsByShard.forEach((shard, positions) -> {
+                    byte[][] members = new byte[positions.size()][];
+                    for (int j = 0; j < members.length; j++) {
+                        members[j] = entries.get(positions.get(j)).id();
+                    }
+                    for (int age = 0; age < bucketsPerLookup; age++) {
+                        connection.setCommands().sMIsMember(
+                                keyOf(shard, bucket - age).getBytes(StandardCharsets.UTF_8), members);
+                    }
+                });
+                for (Entry entry : entries) {
+                    connection.keyCommands().exists(pendingKeyOf(entry).getBytes(StandardCharsets.UTF_8));
+                }
+                return null;
+            });
+
+            List<Boolean> results = new ArrayList<>(entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                results.add(false);
+            }
+
+            int reply = 0;
+            for (List<Integer> positions : positionsByShard.values()) {
+                for (int age = 0; age < bucketsPerLookup; age++) {
+                    List<Boolean> members = (List<Boolean>) replies.get(reply++);
+                    for (int j = 0; j < positions.size(); j++) {
+                        if (Boolean.TRUE.equals(members.get(j))) {
+                            results.set(positions.get(j), true);
+                        }
+                    }
+                }
+            }
+
+            for (int i = 0; i < entries.size(); i++) {
+                Object pending = replies.get(reply++);
+                if (Boolean.TRUE.equals(pending) || (pending instanceof Number count && count.longValue() > 0)) {
+                    results.set(i, true);
+                }
+            }
+            return results;
+        });
+    }
+
+    /**
+     * Recoloca cada ID no bucket em que foi processado (derivado do TTL
+     * restante), com um SADD e um EXPIREAT por bucket em um único pipeline.
+     */
+    @Override
+    public void restoreAll(Map<String, Long> ttlSecondsByMessageId) {
+        long now = System.currentTimeMillis() / 1000;
+        List<Restore> restores = new ArrayList<>(ttlSecondsByMessageId.size());
+
+        ttlSecondsByMessageId.forEach((messageId, remainingSeconds) -> {
+            long bucket = (now - (windowSeconds - remainingSeconds)) / bucketSeconds;
+            Entry entry = entryOf(messageId);
+            restores.add(new Restore(keyOf(entry.shard(), bucket), entry.id(),
+                    (bucket + 1) * bucketSeconds + windowSeconds));
+        });
+
+        shards.executeAll(restores, Restore::key, "restore", (redis, group) -> {
+            Map<String, List<Restore>> byKey = new LinkedHashMap<>();
+            for (Restore restore : group) {
+                byKey.computeIfAbsent(restore.key(), key -> new ArrayList<>()).add(restore);
+            }
+
+            redis.executePipelined((RedisCallback<Object>) connection -> {
+                byKey.forEach((key, members) -> {
+                    byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+                    byte[][] ids = new byte[members.size()][];
+                    for (int j = 0; j < ids.length; j++) {
+                        ids[j] = members.get(j).id();
+                    }
+                    connection.setCommands().sAdd(rawKey, ids);
+                    connection.keyCommands().expireAt(rawKey, members.get(0).expireAt());
+                });
+                return null;
+            });
+        });
+    }
+
+    /**
+     * MEMORY USAGE do set atual de cada shard amostrado dividido pelo SCARD.
+     */
+    @Override
+    public double sampleBytesPerKey(List<String> messageIds) {
+        long bucket = currentBucket();
+        Map<String, Boolean> sampledKeys = new LinkedHashMap<>();
+        for (String messageId : messageIds) {
+            sampledKeys.put(keyOf(entryOf(messageId).shard(), bucket), Boolean.TRUE);
+        }
+
+        long bytes = 0;
+        long members = 0;
+
+        for (String key : sampledKeys.keySet()) {
+            RedisTemplate<String, String> redis = shards.templateFor(key);
+            Long usage = RedisMarkers.memoryUsage(redis, key);
+            Long size = redis.opsForSet().size(key);
+            if (usage != null && size != null && size > 0) {
+                bytes += usage;
+                members += size;
+            }
+        }
+
+        return members == 0 ? Double.NaN : (double) bytes / members;
+    }
+
+    @Override
+    public String trackingKey(String messageId) {
+        return null;
+    }
+
+    @Override
+    public String messageIdOf(String redisKey) {
+        return null;
+    }
+
+    private long currentBucket() {
+        return System.currentTimeMillis() / 1000 / bucketSeconds;
+    }
+
+    private List<Entry> entriesOf(List<String> messageIds) {
+        List<Entry> entries = new ArrayList<>(messageIds.size());
+        for (String messageId : messageIds) {
+            entries.add(entryOf(messageId));
+        }
+        return entries;
+    }
+
+    Entry entryOf(String messageId) {
+        byte[] id = CompactRedisMarkerStore.binaryId(messageId);
+        return new Entry((int) (Integer.toUnsignedLong(ByteBuffer.wrap(id).getInt()) % shardCount), id);
+    }
+
+    static String keyOf(int shard, long bucket) {
+        return KEY_PREFIX + "{" + shard + "}:" + bucket;
+    }
+
+    static String pendingKeyOf(Entry entry) {
+        return KEY_PREFIX + "{" + entry.shard() + "}:p:" + HexFormat.of().formatHex(entry.id());
+    }
+
+    private static byte[] ascii(long value) {
+        return String.valueOf(value).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    record Entry(int shard, byte[] id) {
+    }
+
+    private record Restore(String key, byte[] id, long expireAt) {
+    }
+}
@@ -0,0 +1,70 @@
+-- Migração da tabela processed_messages antiga (sem partições, índice único em
+-- message_id) para o schema particionado de schema.sql.
+--
+-- Rodar uma vez, com os consumers parados, a partir deste diretório:
+--   psql -v ON_ERROR_STOP=1 -v retention_days=7 -f migration-partitioned.sql
+-- retention_days deve ser o app.idempotency.postgres-cleanup-days; linhas mais
+-- antigas que isso não são copiadas (a retenção as apagaria de qualquer forma).
+--
+-- A tabela antiga fica como processed_messages_unpartitioned para conferência;
+-- remover depois com DROP TABLE processed_messages_unpartitioned.
+
+\if :{?retention_days}
+\else
+\set retention_days 7
+\endif
+
+BEGIN;
+
+-- Libera os nomes usados por schema.sql (índices e sequência são globais no schema)
+ALTER TABLE processed_messages RENAME TO processed_messages_unpartitioned;
+ALTER TABLE processed_messages_unpartitioned
+    RENAME CONSTRAINT processed_messages_pkey TO processed_messages_unpartitioned_pkey;
+ALTER SEQUENCE processed_messages_id_seq RENAME TO processed_messages_unpartitioned_id_seq;
+ALTER INDEX IF EXISTS idx_message_id RENAME TO idx_unpartitioned_message_id;
+ALTER INDEX IF EXISTS idx_event_type RENAME TO idx_unpartitioned_event_type;
+ALTER INDEX IF EXISTS idx_processed_at RENAME TO idx_unpartitioned_processed_at;
+ALTER INDEX IF EXISTS idx_status_processed_at RENAME TO idx_unpartitioned_status_processed_at;
+ALTER INDEX IF EXISTS idx_correlation_id RENAME TO idx_unpartitioned_correlation_id;
+
+\ir schema.sql
+
+-- Partições diárias de auditoria de toda a janela de retenção (schema.sql só
+-- cria de hoje em diante); processed_message_keys não é particionada
+SELECT set_config('migration.retention_days', :'retention_days', true);
+
+DO $$
+DECLARE
+    day DATE;
+BEGIN
+    FOR i IN 1..current_setting('migration.retention_days')::int LOOP
+        day := CURRENT_DATE - i;
+        EXECUTE format(
+            'CREATE TABLE IF NOT EXISTS %I PARTITION OF processed_messages FOR VALUES FROM (%L) TO (%L)',
+            'processed_messages_p' || to_char(day, 'YYYYMMDD'), day, day + 1);
+    END LOOP;
+END;
+$$;
+
+-- O índice único da tabela antiga já garante um message_id por linha
+INSERT INTO processed_message_keys (message_id, status, processed_at)
+SELECT message_id, status, COALESCE(processed_at, updated_at, CURRENT_TIMESTAMP)
+FROM processed_messages_unpartitioned
+WHERE COALESCE(processed_at, updated_at, CURRENT_TIMESTAMP) >= CURRENT_DATE - :'retention_days'::int;
+
+INSERT INTO processed_messages (id, message_id, event_type, payload, source, correlation_id,
+        message_timestamp, processed_at, updated_at, status, retry_count, error_message)
+SELECT id, message_id, event_type, payload, source, correlation_id,
+        message_timestamp, COALESCE(processed_at, updated_at, CURRENT_TIMESTAMP), updated_at, status,
+        retry_count, error_message
+FROM processed_messages_unpartitioned
+WHERE COALESCE(processed_at, updated_at, CURRENT_TIMESTAMP) >= CURRENT_DATE - :'retention_days'::int;
+
+-- Novos ids depois dos copiados, com folga de um bloco do pooled optimizer
+SELECT setval('processed_messages_id_seq',
+        COALESCE((SELECT max(id) FROM processed_messages_unpartitioned), 0) + 50);
+
+COMMIT;
+
+ANALYZE processed_message_keys;
+ANALYZE processed_messages;
@@ -1,29 +1,62 @@
 -- Script SQL para criação da tabela com otimizações para alto volume
 
+-- processed_message_keys: chave de idempotência, estreita, gravada no claim e
+-- consultada a cada deduplicação. Cabe inteira em poucas páginas de cache.
+-- processed_messages: auditoria com payload, gravada depois, em lote e fora do
+-- caminho do claim.
+--
+-- Só a auditoria é particionada por dia em processed_at: a retenção
+-- (app.idempotency.postgres-cleanup-days) é um DETACH + DROP da partição vencida,
+-- sem DELETE em massa. As partições são criadas com antecedência pelo
+-- DatabaseCleanupScheduler (processed_messages_pAAAAMMDD).
+-- Bancos com a tabela antiga, sem partições: migration-partitioned.sql.
+--
+-- As chaves não são particionadas: todo índice único de uma tabela particionada
+-- precisa conter a chave de partição, e o claim depende de um índice único só
+-- em message_id para o INSERT ... ON CONFLICT (message_id) DO NOTHING. A
+-- reentrega chega com outro processed_at, então um índice (message_id,
+-- processed_at) não deduplicaria nada. A retenção das chaves é um DELETE em
+-- lotes pelo índice de processed_at; com linhas de poucas dezenas de bytes,
+-- cada lote toca poucas páginas.
+
+-- fillfactor 90: a troca de status (SUCCESS -> FAILED) não mexe em coluna
+-- indexada e vira HOT update na mesma página
+CREATE TABLE IF NOT EXISTS processed_message_keys (
+    message_id VARCHAR(255) PRIMARY KEY,
+    status VARCHAR(20) NOT NULL,
+    processed_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+) WITH (fillfactor = 90);
+
+-- Keyset (processed_at, message_id) da reidratação do Redis e da retenção
+CREATE INDEX IF NOT EXISTS idx_keys_processed_at_message_id 
+ON processed_message_keys(processed_at, message_id);
+
 CREATE TABLE IF NOT EXISTS processed_messages (
-    id BIGSERIAL PRIMARY KEY,
+    id BIGSERIAL,
     message_id VARCHAR(255) NOT NULL,
     event_type VARCHAR(100) NOT NULL,
     payload TEXT,
     source VARCHAR(100),
     correlation_id VARCHAR(255),
     message_timestamp TIMESTAMP,
-    processed_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    processed_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
     updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
     status VARCHAR(20) NOT NULL,
     retry_count INTEGER DEFAULT 0,
-    error_message TEXT
-);
+    error_message TEXT,
+    PRIMARY KEY (id, processed_at)
+) PARTITION BY RANGE (processed_at);
 
-CREATE UNIQUE INDEX IF NOT EXISTS idx_message_id 
+-- Pooled optimizer do Hibernate (allocationSize = 50) para permitir batch de INSERT
+ALTER SEQUENCE processed_messages_id_seq INCREMENT BY 50;
+
+-- Consultas de auditoria; nenhum destes índices é lido no caminho do claim
+CREATE INDEX IF NOT EXISTS idx_message_id 
 ON processed_messages(message_id);
 
 CREATE INDEX IF NOT EXISTS idx_event_type 
 ON processed_messages(event_type);
 
-CREATE INDEX IF NOT EXISTS idx_processed_at 
-ON processed_messages(processed_at DESC);
-
 CREATE INDEX IF NOT EXISTS idx_status_processed_at 
 ON processed_messages(status, processed_at DESC);
 
@@ -31,8 +64,32 @@ CREATE INDEX IF NOT EXISTS idx_correlation_id
 ON processed_messages(correlation_id) 
 WHERE correlation_id IS NOT NULL;
 
+-- Partições iniciais (hoje e os próximos dias); as seguintes vêm do scheduler
+DO $$
+DECLARE
+    day DATE;
+BEGIN
+    FOR i IN 0..3 LOOP
+        day := CURRENT_DATE + i;
+        EXECUTE format(
+            'CREATE TABLE IF NOT EXISTS %I PARTITION OF processed_messages FOR VALUES FROM (%L) TO (%L)',
+            'processed_messages_p' || to_char(day, 'YYYYMMDD'), day, day + 1);
+    END LOOP;
+END;
+$$;
+
+-- Partição DEFAULT: uma linha sem partição diária (scheduler parado por mais
+-- de premake-days, relógio adiantado) cai aqui em vez de falhar o INSERT. O
+-- DatabaseCleanupScheduler alerta quando ela tem linhas e as move para a
+-- partição do dia ao criá-la. Com DEFAULT o DETACH da retenção não pode ser
+-- CONCURRENTLY.
+CREATE TABLE IF NOT EXISTS processed_messages_default PARTITION OF processed_messages DEFAULT;
+
+ANALYZE processed_message_keys;
 ANALYZE processed_messages;
 
-COMMENT ON TABLE processed_messages IS 'Armazena mensagens processadas do Kafka para controle de idempotência';
-COMMENT ON COLUMN processed_messages.message_id IS 'ID único da mensagem (chave de idempotência)';
+COMMENT ON TABLE processed_message_keys IS 'Chaves de idempotência das mensagens processadas do Kafka';
+COMMENT ON COLUMN processed_message_keys.message_id IS 'ID único da mensagem (chave de idempotência)';
+COMMENT ON COLUMN processed_message_keys.status IS 'Status do processamento: SUCCESS, FAILED, DUPLICATE';
+COMMENT ON TABLE processed_messages IS 'Auditoria das mensagens processadas do Kafka (payload e erro)';
 COMMENT ON COLUMN processed_messages.status IS 'Status do processamento: SUCCESS, FAILED, DUPLICATE';
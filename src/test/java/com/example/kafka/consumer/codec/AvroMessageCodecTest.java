@@ -0,0 +1,101 @@
+package com.example.kafka.consumer.codec;
+
+import com.example.kafka.consumer.dto.MessageDto;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.kafka.common.errors.SerializationException;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AvroMessageCodecTest {
+
+    private static final ClassPathResource SCHEMA = new ClassPathResource("avro/message-dto.avsc");
+
+    private final AvroMessageCodec codec = new AvroMessageCodec(SCHEMA);
+
+    AvroMessageCodecTest() throws IOException {
+    }
+
+    @Test
+    void roundTripKeepsEveryField() {
+        MessageDto original = message()
+                .timestamp(LocalDateTime.of(2026, 10, 16, 12, 30, 15, 123_456_000))
+                .source("api")
+                .correlationId("corr-1")
+                .build();
+
+        assertThat(codec.decode(codec.encode(original))).isEqualTo(original);
+    }
+
+    @Test
+    void roundTripKeepsNullUnions() {
+        MessageDto original = message().build();
+
+        MessageDto decoded = codec.decode(codec.encode(original));
+
+        assertThat(decoded).isEqualTo(original);
+        assertThat(decoded.getTimestamp()).isNull();
+        assertThat(decoded.getSource()).isNull();
+        assertThat(decoded.getCorrelationId()).isNull();
+    }
+
+    @Test
+    void timestampBeforeTheEpochKeepsItsMicros() {
+        MessageDto original = message().timestamp(LocalDateTime.of(1969, 12, 31, 23, 59, 59, 999_999_000)).build();
+
+        assertThat(codec.decode(codec.encode(original)).getTimestamp()).isEqualTo(original.getTimestamp());
+    }
+
+    @Test
+    void encodingIsReadableWithTheSchema() throws IOException {
+        Schema schema;
+        try (InputStream in = SCHEMA.getInputStream()) {
+            schema = new Schema.Parser().parse(in);
+        }
+        byte[] data = codec.encode(message().source("api").build());
+
+        GenericRecord record = new GenericDatumReader<GenericRecord>(schema)
+                .read(null, DecoderFactory.get().binaryDecoder(data, null));
+
+        assertThat(record.get("message_id")).hasToString("msg-1");
+        assertThat(record.get("payload")).hasToString("{\"amount\":10}");
+        assertThat(record.get("timestamp")).isNull();
+        assertThat(record.get("source")).hasToString("api");
+        assertThat(record.get("correlation_id")).isNull();
+    }
+
+    @Test
+    void missingRequiredFieldIsRejected() {
+        assertThatThrownBy(() -> codec.encode(message().payload(null).build()))
+                .isInstanceOf(SerializationException.class);
+    }
+
+    @Test
+    void schemaWithAnotherFieldOrderIsRejected() {
+        String schema = """
+                {"type":"record","name":"MessageDto","fields":[
+                  {"name":"event_type","type":"string"},
+                  {"name":"message_id","type":"string"}]}""";
+
+        assertThatThrownBy(() -> new AvroMessageCodec(new ByteArrayResource(schema.getBytes(StandardCharsets.UTF_8))))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    private static MessageDto.MessageDtoBuilder message() {
+        return MessageDto.builder()
+                .messageId("msg-1")
+                .eventType("ORDER_CREATED")
+                .payload("{\"amount\":10}");
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.kafka.consumer.codec;
+
+import com.example.kafka.consumer.dto.MessageDto;
+import com.example.kafka.consumer.dto.RawJsonString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.apache.kafka.common.errors.SerializationException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class JsonMessageCodecTest {
+
+    private final JsonMessageCodec codec = new JsonMessageCodec(new ObjectMapper().registerModule(new JavaTimeModule()));
+
+    @Test
+    void payloadWithEscapedQuotesIsSlicedAtTheClosingQuote() {
+        MessageDto message = codec.decode(bytes("""
+                {"message_id":"msg-1","payload":"{\\"note\\":\\"say \\\\\\"hi\\\\\\"\\"}","source":"api"}"""));
+
+        assertThat(message.getRawPayload()).isNotNull();
+        assertThat(message.getPayload()).isEqualTo("{\"note\":\"say \\\"hi\\\"\"}");
+        assertThat(message.getSource()).isEqualTo("api");
+    }
+
+    @Test
+    void payloadEndingInEscapedBackslashStopsAtTheRealQuote() {
+        MessageDto message = codec.decode(bytes("""
+                {"payload":"C:\\\\temp\\\\","event_type":"ORDER_CREATED"}"""));
+
+        assertThat(message.getPayload()).isEqualTo("C:\\temp\\");
+        assertThat(message.getEventType()).isEqualTo("ORDER_CREATED");
+    }
+
+    @Test
+    void unescapedMultibytePayloadIsDecodedAsUtf8() {
+        MessageDto message = codec.decode(bytes("""
+                {"payload":"ação ✓"}"""));
+
+        assertThat(message.getPayload()).isEqualTo("ação ✓");
+    }
+
+    @Test
+    void objectPayloadIsKeptAsJsonText() {
+        MessageDto message = codec.decode(bytes("""
+                {"payload":{"amount":10}}"""));
+
+        assertThat(message.getRawPayload()).isNull();
+        assertThat(message.getPayload()).isEqualTo("{\"amount\":10}");
+    }
+
+    @Test
+    void roundTripKeepsEveryField() {
+        MessageDto original = MessageDto.builder()
+                .messageId("msg-1")
+                .eventType("ORDER_CREATED")
+                .payload("{\"line\":\"a\\nb\"}")
+                .timestamp(LocalDateTime.of(2026, 10, 16, 12, 30, 15))
+                .source("api")
+                .correlationId("corr-1")
+                .build();
+
+        MessageDto decoded = codec.decode(codec.encode(original));
+
+        assertThat(decoded).isEqualTo(original);
+    }
+
+    @Test
+    void unterminatedPayloadIsRejected() {
+        assertThatThrownBy(() -> codec.decode(bytes("{\"payload\":\"abc")))
+                .isInstanceOf(SerializationException.class);
+    }
+
+    @Test
+    void rawJsonStringDecodesOnlyItsSlice() {
+        byte[] data = bytes("xx\"a\\u00e7\\\"b\"yy");
+
+        assertThat(new RawJsonString(data, 2, 12, true).decode()).isEqualTo("aç\"b");
+        assertThat(new RawJsonString(bytes("[\"plain\"]"), 1, 7, false).decode()).isEqualTo("plain");
+    }
+
+    private static byte[] bytes(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.kafka.consumer.config;
+
+import io.lettuce.core.api.StatefulConnection;
+import io.lettuce.core.cluster.ClusterClientOptions;
+import io.lettuce.core.resource.ClientResources;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.pool2.BasePooledObjectFactory;
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.impl.DefaultPooledObject;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettucePoolingClientConfiguration;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+class RedisConfigTest {
+
+    private final RedisConfig config = new RedisConfig();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(config, "redisHost", "localhost");
+        ReflectionTestUtils.setField(config, "redisPort", 6379);
+        ReflectionTestUtils.setField(config, "topology", RedisTopology.STANDALONE);
+        ReflectionTestUtils.setField(config, "clusterNodes", List.of());
+        ReflectionTestUtils.setField(config, "clusterMaxRedirects", 3);
+        ReflectionTestUtils.setField(config, "commandTimeout", Duration.ofSeconds(3));
+        ReflectionTestUtils.setField(config, "poolMaxActive", 16);
+        ReflectionTestUtils.setField(config, "poolMaxIdle", 16);
+        ReflectionTestUtils.setField(config, "poolMinIdle", 4);
+        ReflectionTestUtils.setField(config, "poolMaxWait", Duration.ofSeconds(1));
+        ReflectionTestUtils.setField(config, "poolEvictionInterval", Duration.ofSeconds(30));
+    }
+
+    @Test
+    void poolUsesTheConfiguredLimitsAndSharedResources() {
+        ClientResources clientResources = mock(ClientResources.class);
+
+        LettuceClientConfiguration clientConfiguration = config.lettuceClientConfiguration(clientResources);
+
+        assertThat(clientConfiguration).isInstanceOf(LettucePoolingClientConfiguration.class);
+        GenericObjectPoolConfig<?> poolConfig = ((LettucePoolingClientConfiguration) clientConfiguration).getPoolConfig();
+        assertThat(poolConfig.getMaxTotal()).isEqualTo(16);
+        assertThat(poolConfig.getMinIdle()).isEqualTo(4);
+        assertThat(poolConfig.getMaxWaitDuration()).isEqualTo(Duration.ofSeconds(1));
+        assertThat(clientConfiguration.getClientResources()).containsSame(clientResources);
+        assertThat(clientConfiguration.getCommandTimeout()).isEqualTo(Duration.ofSeconds(3));
+    }
+
+    @Test
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    void poolBuiltFromTheConfigurationIsExposedAsMetrics() throws Exception {
+        GenericObjectPoolConfig poolConfig =
+                ((LettucePoolingClientConfiguration) config.lettuceClientConfiguration(mock(ClientResources.class)))
+                        .getPoolConfig();
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        MeterBinder poolMetrics = config.redisPoolMetrics();
+
+        try (GenericObjectPool<StatefulConnection> pool = new GenericObjectPool<>(new ConnectionFactory(), poolConfig);
+             AutoCloseable binding = (AutoCloseable) poolMetrics) {
+            StatefulConnection borrowed = pool.borrowObject();
+            poolMetrics.bindTo(meterRegistry);
+
+            // Os pools são descobertos via JMX em uma thread do binder
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            Gauge active;
+            while ((active = meterRegistry.find("commons.pool2.num.active")
+                    .tag("name", name -> name.startsWith("redis"))
+                    .gauge()) == null) {
+                assertThat(System.nanoTime()).as("pool gauge registered").isLessThan(deadline);
+                Thread.sleep(10);
+            }
+            assertThat(active.value()).isEqualTo(1);
+
+            pool.returnObject(borrowed);
+        }
+    }
+
+    @Test
+    void clusterTopologyRefreshesOnRedirects() {
+        ReflectionTestUtils.setField(config, "topology", RedisTopology.CLUSTER);
+
+        LettuceClientConfiguration clientConfiguration = config.lettuceClientConfiguration(mock(ClientResources.class));
+
+        assertThat(clientConfiguration.getClientOptions()).get().isInstanceOfSatisfying(ClusterClientOptions.class,
+                options -> {
+                    assertThat(options.getTopologyRefreshOptions().getAdaptiveRefreshTriggers()).isNotEmpty();
+                    assertThat(options.getTopologyRefreshOptions().isPeriodicRefreshEnabled()).isTrue();
+                });
+    }
+
+    @Test
+    void clusterTopologyWithoutNodesFailsAtStartup() {
+        ReflectionTestUtils.setField(config, "topology", RedisTopology.CLUSTER);
+
+        assertThatThrownBy(() -> config.redisConnectionFactory(
+                config.lettuceClientConfiguration(mock(ClientResources.class))))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("spring.data.redis.cluster.nodes");
+    }
+
+    /**
+     * Conexões mock: o pool só precisa de objetos distintos. O tipo cru deixa
+     * o CommonsObjectPool2Metrics resolver a tag factoryType.
+     */
+    @SuppressWarnings("rawtypes")
+    private static final class ConnectionFactory extends BasePooledObjectFactory<StatefulConnection> {
+
+        @Override
+        public StatefulConnection create() {
+            return mock(StatefulConnection.class);
+        }
+
+        @Override
+        public PooledObject<StatefulConnection> wrap(StatefulConnection connection) {
+            return new DefaultPooledObject<>(connection);
+        }
+    }
+}
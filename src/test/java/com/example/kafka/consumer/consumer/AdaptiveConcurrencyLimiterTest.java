@@ -0,0 +1,125 @@
+package com.example.kafka.consumer.consumer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final long MILLIS = 1_000_000;
+
+    private SimpleMeterRegistry meterRegistry;
+    private AdaptiveConcurrencyLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        limiter = new AdaptiveConcurrencyLimiter(true, 20, 4, 500, 0.2, 1.5, 600, meterRegistry);
+        limiter.registerGauges();
+    }
+
+    @Test
+    void droppedOperationBacksOffByTenPercent() throws InterruptedException {
+        long start = limiter.acquire();
+        limiter.release(start, true);
+
+        assertThat(limit()).isEqualTo(18.0);
+        assertThat(meterRegistry.counter("kafka.limiter.drop").count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void backOffStopsAtMinLimit() throws InterruptedException {
+        for (int i = 0; i < 50; i++) {
+            limiter.release(limiter.acquire(), true);
+        }
+
+        assertThat(limit()).isEqualTo(4.0);
+    }
+
+    @Test
+    void lowUsageDoesNotGrowTheLimit() throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            sample(1, 5 * MILLIS);
+        }
+
+        assertThat(limit()).isEqualTo(20.0);
+    }
+
+    @Test
+    void stableLatencyUnderLoadProbesForMoreCapacity() throws InterruptedException {
+        holdPermits(15);
+        for (int i = 0; i < 20; i++) {
+            sample(1, 5 * MILLIS);
+        }
+
+        assertThat(limit()).isGreaterThan(20.0);
+    }
+
+    @Test
+    void latencyAboveBaselineShrinksTheLimit() throws InterruptedException {
+        // Uso acima da metade do limite durante todo o teste
+        meterRegistry = new SimpleMeterRegistry();
+        limiter = new AdaptiveConcurrencyLimiter(true, 40, 4, 500, 0.2, 1.5, 600, meterRegistry);
+        limiter.registerGauges();
+        holdPermits(25);
+        for (int i = 0; i < 4; i++) {
+            sample(1, 5 * MILLIS);
+        }
+        double grown = limit();
+
+        // Poucas amostras: o limite não pode cair abaixo dos permits retidos
+        for (int i = 0; i < 3; i++) {
+            sample(1, 100 * MILLIS);
+        }
+
+        assertThat(limit()).isLessThan(grown).isGreaterThanOrEqualTo(4.0);
+    }
+
+    @Test
+    void acquireBlocksUntilAPermitIsReleased() throws InterruptedException {
+        limiter = new AdaptiveConcurrencyLimiter(true, 2, 1, 10, 0.2, 1.5, 600, new SimpleMeterRegistry());
+        long first = limiter.acquire();
+        limiter.acquire();
+
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = Thread.ofVirtual().start(() -> {
+            try {
+                limiter.acquire();
+                acquired.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        assertThat(acquired.await(100, TimeUnit.MILLISECONDS)).isFalse();
+
+        limiter.release(first, false);
+        assertThat(acquired.await(1, TimeUnit.SECONDS)).isTrue();
+        waiter.join();
+    }
+
+    /**
+     * Operações concluídas com a latência dada, sem mudar o número em voo.
+     */
+    private void sample(int operations, long rttNanos) throws InterruptedException {
+        for (int i = 0; i < operations; i++) {
+            limiter.acquire();
+            limiter.release(System.nanoTime() - rttNanos, false);
+        }
+    }
+
+    private void holdPermits(int permits) throws InterruptedException {
+        for (int i = 0; i < permits; i++) {
+            limiter.acquire();
+        }
+    }
+
+    private double limit() {
+        return meterRegistry.get("kafka.limiter.limit").gauge().value();
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.kafka.consumer.consumer;
+
+import com.example.kafka.consumer.service.PostgresBatchPersistService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class FlowControllerTest {
+
+    private MessageListenerContainer container;
+    private PostgresBatchPersistService batchPersistService;
+    private SimpleMeterRegistry meterRegistry;
+    private FlowController flowController;
+
+    @BeforeEach
+    void setUp() {
+        KafkaListenerEndpointRegistry listenerRegistry = mock(KafkaListenerEndpointRegistry.class);
+        container = mock(MessageListenerContainer.class);
+        batchPersistService = mock(PostgresBatchPersistService.class);
+        meterRegistry = new SimpleMeterRegistry();
+        when(listenerRegistry.getListenerContainer(HighVolumeKafkaConsumer.LISTENER_ID)).thenReturn(container);
+        when(container.isRunning()).thenReturn(true);
+
+        // Registros 10/5, bytes 1000/500, pressão do PostgreSQL 0.8/0.5
+        flowController = new FlowController(listenerRegistry, batchPersistService,
+                10, 5, 1000, 500, 0.8, 0.5, meterRegistry);
+        flowController.registerGauges();
+    }
+
+    @Test
+    void pausesAtHighWaterAndResumesOnlyBelowLowWater() {
+        List<ConsumerRecord<String, byte[]>> records = acquire(10, 10);
+        flowController.evaluate();
+        verify(container).pause();
+
+        // Entre as marcas: continua pausado
+        release(records, 4);
+        flowController.evaluate();
+        verify(container, never()).resume();
+        assertThat(paused()).isEqualTo(1.0);
+
+        // A liberação que cruza a marca baixa retoma sem esperar o agendamento
+        release(records, 1);
+        verify(container).resume();
+        assertThat(paused()).isEqualTo(0.0);
+
+        // Voltar para entre as marcas não pausa de novo
+        acquire(4, 10);
+        flowController.evaluate();
+        verify(container, times(1)).pause();
+    }
+
+    @Test
+    void bytesAloneTriggerThePause() {
+        List<ConsumerRecord<String, byte[]>> records = acquire(2, 500);
+        flowController.evaluate();
+        verify(container).pause();
+
+        release(records, 1);
+        verify(container).resume();
+    }
+
+    @Test
+    void persistPressureHoldsThePauseUntilItDrops() {
+        when(batchPersistService.getPressure()).thenReturn(0.9);
+        flowController.evaluate();
+        verify(container).pause();
+
+        when(batchPersistService.getPressure()).thenReturn(0.6);
+        flowController.evaluate();
+        verify(container, never()).resume();
+
+        when(batchPersistService.getPressure()).thenReturn(0.5);
+        flowController.evaluate();
+        verify(container).resume();
+    }
+
+    @Test
+    void stoppedContainerIsLeftAlone() {
+        when(container.isRunning()).thenReturn(false);
+        acquire(20, 10);
+
+        flowController.evaluate();
+
+        verify(container, never()).pause();
+    }
+
+    private List<ConsumerRecord<String, byte[]>> acquire(int count, int valueSize) {
+        List<ConsumerRecord<String, byte[]>> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ConsumerRecord<String, byte[]> record = new ConsumerRecord<>("messages", 0, i,
+                    0L, TimestampType.CREATE_TIME, -1, valueSize, null, new byte[valueSize],
+                    new RecordHeaders(), Optional.empty());
+            flowController.acquire(record);
+            records.add(record);
+        }
+        return records;
+    }
+
+    private void release(List<ConsumerRecord<String, byte[]>> records, int count) {
+        for (int i = 0; i < count; i++) {
+            flowController.release(records.remove(records.size() - 1));
+        }
+    }
+
+    private double paused() {
+        return meterRegistry.get("kafka.flow.paused").gauge().value();
+    }
+}
@@ -0,0 +1,185 @@
+package com.example.kafka.consumer.consumer;
+
+import com.example.kafka.consumer.codec.MessageDtoDeserializer;
+import com.example.kafka.consumer.dto.MessageDto;
+import com.example.kafka.consumer.dto.MessageHeaders;
+import com.example.kafka.consumer.service.IdempotencyService;
+import com.example.kafka.consumer.service.MessageProcessingService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class HighVolumeKafkaConsumerTest {
+
+    private static final TopicPartition PARTITION = new TopicPartition("messages", 0);
+
+    private final MessageProcessingService processingService = mock(MessageProcessingService.class);
+    private final FlowController flowController = mock(FlowController.class);
+    private final KafkaTemplate<String, byte[]> kafkaTemplate = mock();
+    private final MessageDtoDeserializer deserializer = mock(MessageDtoDeserializer.class);
+    private final Consumer<?, ?> consumer = mock(Consumer.class);
+
+    private final List<String> processed = new CopyOnWriteArrayList<>();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+    private HighVolumeKafkaConsumer listener;
+
+    @AfterEach
+    void tearDown() {
+        if (listener != null) {
+            listener.shutdown();
+        }
+    }
+
+    @Test
+    void partitionOrderRunsOneRecordAtATimeInOffsetOrder() throws InterruptedException {
+        CountDownLatch done = processing(5);
+        listener = listener(HighVolumeKafkaConsumer.ProcessingOrder.PARTITION);
+
+        listener.onMessage(List.of(record(0, "k1", "m0"), record(1, "k2", "m1"), record(2, "k1", "m2"),
+                record(3, "k2", "m3"), record(4, null, "m4")), consumer);
+
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(processed).containsExactly("m0", "m1", "m2", "m3", "m4");
+        assertThat(maxActive).hasValue(1);
+    }
+
+    @Test
+    void keyOrderKeepsEachKeyInOrderAndRunsKeysInParallel() throws InterruptedException {
+        CountDownLatch done = processing(4);
+        listener = listener(HighVolumeKafkaConsumer.ProcessingOrder.KEY);
+
+        listener.onMessage(List.of(record(0, "k1", "m0"), record(1, "k2", "m1"), record(2, "k1", "m2"),
+                record(3, "k2", "m3")), consumer);
+
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(processed.indexOf("m0")).isLessThan(processed.indexOf("m2"));
+        assertThat(processed.indexOf("m1")).isLessThan(processed.indexOf("m3"));
+        assertThat(maxActive.get()).isEqualTo(2);
+    }
+
+    @Test
+    void unorderedRunsEveryRecordInParallel() throws InterruptedException {
+        CountDownLatch done = processing(4);
+        listener = listener(HighVolumeKafkaConsumer.ProcessingOrder.UNORDERED);
+
+        listener.onMessage(List.of(record(0, "k1", "m0"), record(1, "k1", "m1"), record(2, "k1", "m2"),
+                record(3, "k1", "m3")), consumer);
+
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(processed).containsExactlyInAnyOrder("m0", "m1", "m2", "m3");
+        assertThat(maxActive.get()).isGreaterThan(1);
+    }
+
+    @Test
+    void revokedPartitionClosesItsLaneWithoutDlqOrClaims() throws InterruptedException {
+        CountDownLatch claiming = new CountDownLatch(1);
+        when(processingService.claimIds(anyList())).thenAnswer(invocation -> {
+            claiming.countDown();
+            // Como o cliente do Redis: a interrupção vira uma exceção não checada
+            while (!Thread.currentThread().isInterrupted()) {
+                Thread.onSpinWait();
+            }
+            throw new IllegalStateException("Command interrupted");
+        });
+        listener = listener(HighVolumeKafkaConsumer.ProcessingOrder.PARTITION);
+
+        listener.onMessage(List.of(record(0, "k1", "m0")), consumer);
+        assertThat(claiming.await(5, TimeUnit.SECONDS)).isTrue();
+        listener.onMessage(List.of(record(1, "k1", "m1"), record(2, "k1", "m2")), consumer);
+
+        listener.onPartitionsRevokedBeforeCommit(consumer, List.of(PARTITION));
+
+        // Dois descartados da fila e o que estava no claim
+        verify(flowController, timeout(5_000).times(3)).release(any());
+        verify(kafkaTemplate, never()).send(any(ProducerRecord.class));
+        verify(processingService, never()).release(anyString());
+    }
+
+    @Test
+    void partitionAssignedAgainGetsANewLane() throws InterruptedException {
+        CountDownLatch done = processing(2);
+        listener = listener(HighVolumeKafkaConsumer.ProcessingOrder.PARTITION);
+
+        listener.onMessage(List.of(record(0, "k1", "m0")), consumer);
+        verify(flowController, timeout(5_000)).release(any());
+        listener.onPartitionsRevokedBeforeCommit(consumer, List.of(PARTITION));
+        listener.onMessage(List.of(record(1, "k1", "m1")), consumer);
+
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(processed).containsExactly("m0", "m1");
+        verify(flowController, timeout(5_000).times(2)).release(any());
+    }
+
+    /**
+     * Todos os IDs reivindicados; cada processamento leva 50 ms.
+     */
+    private CountDownLatch processing(int records) {
+        CountDownLatch done = new CountDownLatch(records);
+        when(processingService.claimIds(anyList())).thenAnswer(invocation -> {
+            Map<String, IdempotencyService.ClaimResult> claims = new LinkedHashMap<>();
+            for (Object messageId : invocation.getArgument(0, List.class)) {
+                claims.put((String) messageId, IdempotencyService.ClaimResult.CLAIMED);
+            }
+            return claims;
+        });
+        when(processingService.processClaimed(any(), any())).thenAnswer(invocation -> {
+            MessageDto message = invocation.getArgument(0);
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            Thread.sleep(50);
+            active.decrementAndGet();
+            processed.add(message.getMessageId());
+            done.countDown();
+            return MessageProcessingService.ProcessingResult.success(
+                    message.getMessageId(), CompletableFuture.completedFuture(null));
+        });
+        return done;
+    }
+
+    private HighVolumeKafkaConsumer listener(HighVolumeKafkaConsumer.ProcessingOrder order) {
+        AdaptiveConcurrencyLimiter limiter = mock(AdaptiveConcurrencyLimiter.class);
+        when(deserializer.deserialize(anyString(), any(), any(byte[].class))).thenAnswer(invocation ->
+                MessageDto.builder()
+                        .messageId(new String(invocation.getArgument(2, byte[].class), StandardCharsets.UTF_8))
+                        .eventType("ORDER_CREATED")
+                        .payload("{}")
+                        .build());
+        return new HighVolumeKafkaConsumer(processingService, mock(OffsetCommitTracker.class), flowController,
+                limiter, mock(PartitionDedupeCache.class), kafkaTemplate, deserializer,
+                new IdempotencyKeyExtractor(false), "messages-dlq", 1, 500, order, new SimpleMeterRegistry());
+    }
+
+    private static ConsumerRecord<String, byte[]> record(long offset, String key, String messageId) {
+        byte[] id = messageId.getBytes(StandardCharsets.UTF_8);
+        ConsumerRecord<String, byte[]> record =
+                new ConsumerRecord<>(PARTITION.topic(), PARTITION.partition(), offset, key, id);
+        record.headers().add(MessageHeaders.IDEMPOTENCY_KEY, id);
+        return record;
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.kafka.consumer.consumer;
+
+import com.example.kafka.consumer.dto.MessageHeaders;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IdempotencyKeyExtractorTest {
+
+    private final IdempotencyKeyExtractor headerOnly = new IdempotencyKeyExtractor(false);
+    private final IdempotencyKeyExtractor withRecordKey = new IdempotencyKeyExtractor(true);
+
+    @Test
+    void headerWinsOverRecordKey() {
+        ConsumerRecord<String, byte[]> record = record("order-42");
+        record.headers().add(MessageHeaders.IDEMPOTENCY_KEY, "msg-1".getBytes(StandardCharsets.UTF_8));
+
+        assertThat(headerOnly.extract(record)).isEqualTo("msg-1");
+        assertThat(withRecordKey.extract(record)).isEqualTo("msg-1");
+    }
+
+    @Test
+    void recordKeyIsIgnoredUnlessEnabled() {
+        ConsumerRecord<String, byte[]> record = record("msg-1");
+
+        assertThat(headerOnly.extract(record)).isNull();
+        assertThat(withRecordKey.extract(record)).isEqualTo("msg-1");
+    }
+
+    @Test
+    void emptyHeaderFallsThrough() {
+        ConsumerRecord<String, byte[]> record = record("msg-1");
+        record.headers().add(MessageHeaders.IDEMPOTENCY_KEY, new byte[0]);
+
+        assertThat(headerOnly.extract(record)).isNull();
+        assertThat(withRecordKey.extract(record)).isEqualTo("msg-1");
+    }
+
+    @Test
+    void lastHeaderWins() {
+        ConsumerRecord<String, byte[]> record = record(null);
+        record.headers().add(MessageHeaders.IDEMPOTENCY_KEY, "msg-1".getBytes(StandardCharsets.UTF_8));
+        record.headers().add(MessageHeaders.IDEMPOTENCY_KEY, "msg-2".getBytes(StandardCharsets.UTF_8));
+
+        assertThat(headerOnly.extract(record)).isEqualTo("msg-2");
+    }
+
+    @Test
+    void blankRecordKeyMeansReadTheBody() {
+        assertThat(withRecordKey.extract(record(null))).isNull();
+        assertThat(withRecordKey.extract(record(" "))).isNull();
+    }
+
+    private static ConsumerRecord<String, byte[]> record(String key) {
+        return new ConsumerRecord<>("messages", 0, 0L, key, new byte[0]);
+    }
+}
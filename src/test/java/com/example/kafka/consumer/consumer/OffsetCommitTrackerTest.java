@@ -0,0 +1,119 @@
+package com.example.kafka.consumer.consumer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class OffsetCommitTrackerTest {
+
+    private static final TopicPartition PARTITION = new TopicPartition("messages", 0);
+    private static final TopicPartition OTHER_PARTITION = new TopicPartition("messages", 1);
+
+    private OffsetCommitTracker tracker;
+    private Consumer<String, byte[]> consumer;
+    private List<Map<TopicPartition, OffsetAndMetadata>> commits;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        tracker = new OffsetCommitTracker(new SimpleMeterRegistry());
+        tracker.registerGauges();
+        consumer = mock(Consumer.class);
+        commits = new ArrayList<>();
+        when(consumer.assignment()).thenReturn(Set.of(PARTITION, OTHER_PARTITION));
+        doAnswer(invocation -> {
+            commits.add(new HashMap<>(invocation.getArgument(0)));
+            return null;
+        }).when(consumer).commitAsync(anyMap(), any());
+        doAnswer(invocation -> {
+            commits.add(new HashMap<>(invocation.getArgument(0)));
+            return null;
+        }).when(consumer).commitSync(anyMap());
+    }
+
+    @Test
+    void outOfOrderCompletionWaitsForTheSlowestOffset() {
+        List<ConsumerRecord<String, byte[]>> records = registerOffsets(PARTITION, 10, 5);
+
+        tracker.complete(records.get(4));
+        tracker.complete(records.get(2));
+        tracker.complete(records.get(1));
+        tracker.commitReady(consumer);
+        assertThat(commits).isEmpty();
+
+        // O offset 10 libera o prefixo contíguo 10..12; o 13 segura o resto
+        tracker.complete(records.get(0));
+        tracker.commitReady(consumer);
+        assertThat(commits).containsExactly(Map.of(PARTITION, new OffsetAndMetadata(13)));
+
+        tracker.complete(records.get(3));
+        tracker.commitReady(consumer);
+        assertThat(commits).last().isEqualTo(Map.of(PARTITION, new OffsetAndMetadata(15)));
+    }
+
+    @Test
+    void watermarkThatDidNotMoveIsNotCommittedAgain() {
+        List<ConsumerRecord<String, byte[]>> records = registerOffsets(PARTITION, 0, 2);
+        tracker.complete(records.get(0));
+
+        tracker.commitReady(consumer);
+        tracker.commitReady(consumer);
+
+        assertThat(commits).hasSize(1);
+    }
+
+    @Test
+    void partitionsAdvanceIndependently() {
+        List<ConsumerRecord<String, byte[]>> first = registerOffsets(PARTITION, 0, 2);
+        List<ConsumerRecord<String, byte[]>> second = registerOffsets(OTHER_PARTITION, 100, 2);
+
+        tracker.complete(first.get(1));
+        second.forEach(tracker::complete);
+        tracker.commitReady(consumer);
+
+        assertThat(commits).containsExactly(Map.of(OTHER_PARTITION, new OffsetAndMetadata(102)));
+    }
+
+    @Test
+    void revocationCommitsSynchronouslyAndForgetsThePartition() {
+        List<ConsumerRecord<String, byte[]>> records = registerOffsets(PARTITION, 0, 3);
+        tracker.complete(records.get(0));
+
+        tracker.onPartitionsRevokedBeforeCommit(consumer, List.of(PARTITION));
+        assertThat(commits).containsExactly(Map.of(PARTITION, new OffsetAndMetadata(1)));
+
+        // Registros em voo que terminam depois da revogação são ignorados
+        tracker.complete(records.get(1));
+        tracker.complete(records.get(2));
+        tracker.commitReady(consumer);
+        assertThat(commits).hasSize(1);
+    }
+
+    private List<ConsumerRecord<String, byte[]>> registerOffsets(TopicPartition partition, long first, int count) {
+        List<ConsumerRecord<String, byte[]>> records = new ArrayList<>();
+        for (long offset = first; offset < first + count; offset++) {
+            ConsumerRecord<String, byte[]> record =
+                    new ConsumerRecord<>(partition.topic(), partition.partition(), offset, null, new byte[0]);
+            tracker.register(record);
+            records.add(record);
+        }
+        return records;
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.kafka.consumer.consumer;
+
+import com.example.kafka.consumer.repository.ProcessedMessageRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.utils.Utils;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PartitionDedupeCacheTest {
+
+    private static final TopicPartition P0 = new TopicPartition("messages", 0);
+    private static final TopicPartition P1 = new TopicPartition("messages", 1);
+
+    private final ProcessedMessageRepository repository = mock(ProcessedMessageRepository.class);
+    private final Consumer<?, ?> consumer = mock(Consumer.class);
+    private final PartitionDedupeCache cache = new PartitionDedupeCache(repository,
+            mock(PlatformTransactionManager.class), true, 60, 1000, new SimpleMeterRegistry());
+
+    @Test
+    void warmUpLoadsEachIdIntoThePartitionOfItsKey() throws InterruptedException {
+        String onP0 = idOnPartition(0);
+        String onP1 = idOnPartition(1);
+        twoPartitions();
+        when(repository.streamMessageIdsProcessedSince(any())).thenReturn(Stream.of(onP0, onP1));
+
+        cache.onPartitionsAssigned(consumer, List.of(P0));
+
+        awaitContains(P0, onP0);
+        assertThat(cache.contains(P0, onP1)).isFalse();
+        assertThat(cache.contains(P1, onP1)).isFalse();
+    }
+
+    @Test
+    void partitionAnswersNothingUntilWarmUpFinishes() throws InterruptedException {
+        String onP0 = idOnPartition(0);
+        CountDownLatch release = new CountDownLatch(1);
+        twoPartitions();
+        when(repository.streamMessageIdsProcessedSince(any())).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return Stream.of(onP0);
+        });
+
+        cache.onPartitionsAssigned(consumer, List.of(P0));
+        cache.add(P0, "processed-here");
+
+        assertThat(cache.contains(P0, "processed-here")).isFalse();
+        release.countDown();
+        awaitContains(P0, "processed-here");
+        assertThat(cache.contains(P0, onP0)).isTrue();
+    }
+
+    @Test
+    void revokedPartitionDropsItsStateAndKeptPartitionStaysWarm() throws InterruptedException {
+        twoPartitions();
+        when(repository.streamMessageIdsProcessedSince(any())).thenAnswer(invocation -> Stream.empty());
+
+        cache.onPartitionsAssigned(consumer, List.of(P0, P1));
+        cache.add(P0, "a");
+        cache.add(P1, "b");
+        awaitContains(P0, "a");
+
+        cache.onPartitionsRevokedAfterCommit(consumer, List.of(P0));
+        cache.add(P0, "c");
+
+        assertThat(cache.contains(P0, "a")).isFalse();
+        assertThat(cache.contains(P0, "c")).isFalse();
+        assertThat(cache.contains(P1, "b")).isTrue();
+    }
+
+    @Test
+    void failedWarmUpStillServesProcessedIds() throws InterruptedException {
+        twoPartitions();
+        when(repository.streamMessageIdsProcessedSince(any())).thenThrow(new IllegalStateException("connection refused"));
+
+        cache.onPartitionsAssigned(consumer, List.of(P0));
+        cache.add(P0, "a");
+
+        awaitContains(P0, "a");
+    }
+
+    private void twoPartitions() {
+        when(consumer.partitionsFor("messages")).thenReturn(List.of(
+                new PartitionInfo("messages", 0, null, null, null),
+                new PartitionInfo("messages", 1, null, null, null)));
+    }
+
+    private void awaitContains(TopicPartition partition, String messageId) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!cache.contains(partition, messageId)) {
+            assertThat(System.nanoTime()).as("%s warmed on %s", messageId, partition).isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Um ID que o particionador padrão envia para a partição dada entre duas.
+     */
+    private static String idOnPartition(int partition) {
+        for (int i = 0; ; i++) {
+            String messageId = "msg-" + i;
+            byte[] key = messageId.getBytes(StandardCharsets.UTF_8);
+            if (Utils.toPositive(Utils.murmur2(key)) % 2 == partition) {
+                return messageId;
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.example.kafka.consumer.repository;
+
+import com.example.kafka.consumer.entity.ProcessedMessage;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ProcessedMessageRepositoryImplTest {
+
+    private static final LocalDateTime PROCESSED_AT = LocalDateTime.of(2026, 10, 16, 12, 30, 15);
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final Connection connection = mock(Connection.class);
+    private final ProcessedMessageRepositoryImpl repository = new ProcessedMessageRepositoryImpl(jdbcTemplate);
+
+    @Test
+    void existingIdsOfTheBatchComeFromOneAnyLookup() throws SQLException {
+        List<String> statements = returningRows("b");
+
+        assertThat(repository.findExistingMessageIds(List.of("a", "b", "c"))).containsExactly("b");
+
+        assertThat(statements).singleElement().asString()
+                .contains("FROM processed_message_keys WHERE message_id = ANY(?)");
+        verify(connection).createArrayOf("varchar", new Object[] {"a", "b", "c"});
+    }
+
+    @Test
+    void keysAreClaimedWithOneOnConflictInsert() throws SQLException {
+        List<String> statements = returningRows("a");
+
+        assertThat(repository.insertKeys(List.of(
+                new ProcessedMessageKey("a", ProcessedMessage.ProcessingStatus.SUCCESS, PROCESSED_AT),
+                new ProcessedMessageKey("b", ProcessedMessage.ProcessingStatus.SUCCESS, PROCESSED_AT))))
+                .containsExactly("a");
+
+        assertThat(statements).singleElement().asString()
+                .startsWith("INSERT INTO processed_message_keys")
+                .contains("ORDER BY message_id")
+                .endsWith("ON CONFLICT (message_id) DO NOTHING RETURNING message_id");
+        verify(connection).createArrayOf("varchar", new Object[] {"a", "b"});
+    }
+
+    @Test
+    void emptyBatchesSkipTheDatabase() {
+        assertThat(repository.findExistingMessageIds(List.of())).isEmpty();
+        assertThat(repository.insertKeys(List.of())).isEmpty();
+
+        verify(jdbcTemplate, never()).query(any(PreparedStatementCreator.class), any(RowCallbackHandler.class));
+    }
+
+    @Test
+    void partitionWithoutDefaultRowsIsCreatedInPlace() {
+        when(jdbcTemplate.queryForObject(anyString(), eq(Integer.class), any(Object[].class))).thenReturn(0);
+        when(jdbcTemplate.queryForObject(anyString(), eq(Boolean.class), any(Object[].class))).thenReturn(false);
+
+        assertThat(repository.createPartition(LocalDate.of(2026, 10, 17))).isTrue();
+
+        verify(jdbcTemplate).execute("CREATE TABLE IF NOT EXISTS processed_messages_p20261017 "
+                + "PARTITION OF processed_messages FOR VALUES FROM ('2026-10-17') TO ('2026-10-18')");
+    }
+
+    @Test
+    void existingPartitionIsNotCreatedAgain() {
+        when(jdbcTemplate.queryForObject(anyString(), eq(Integer.class), any(Object[].class))).thenReturn(1);
+
+        assertThat(repository.createPartition(LocalDate.of(2026, 10, 17))).isFalse();
+
+        verify(jdbcTemplate, never()).execute(anyString());
+    }
+
+    @Test
+    void defaultRowsOfTheDayAreMovedIntoTheNewPartitionAtomically() throws SQLException {
+        when(jdbcTemplate.queryForObject(anyString(), eq(Integer.class), any(Object[].class))).thenReturn(0);
+        when(jdbcTemplate.queryForObject(anyString(), eq(Boolean.class), any(Object[].class))).thenReturn(true);
+        when(jdbcTemplate.queryForObject(anyString(), eq(Boolean.class))).thenReturn(true);
+        List<String> statements = atomically();
+
+        assertThat(repository.createPartition(LocalDate.of(2026, 10, 17))).isTrue();
+
+        assertThat(statements).hasSize(3);
+        assertThat(statements.get(0)).startsWith("CREATE TABLE processed_messages_p20261017 (LIKE processed_messages");
+        assertThat(statements.get(1)).contains("DELETE FROM processed_messages_default")
+                .contains("INSERT INTO processed_messages_p20261017");
+        assertThat(statements.get(2)).isEqualTo("ALTER TABLE processed_messages ATTACH PARTITION "
+                + "processed_messages_p20261017 FOR VALUES FROM ('2026-10-17') TO ('2026-10-18')");
+        verify(connection).commit();
+    }
+
+    @Test
+    void attachedPartitionIsDetachedAndDroppedInOneTransaction() throws SQLException {
+        when(jdbcTemplate.queryForList(anyString(), eq(Boolean.class), any(Object[].class))).thenReturn(List.of(false));
+        List<String> statements = atomically();
+
+        repository.dropPartition(LocalDate.of(2026, 10, 9));
+
+        assertThat(statements).containsExactly(
+                "SET LOCAL lock_timeout = '5s'",
+                "ALTER TABLE processed_messages DETACH PARTITION processed_messages_p20261009",
+                "DROP TABLE processed_messages_p20261009");
+    }
+
+    @Test
+    void alreadyDetachedTableIsOnlyDropped() {
+        when(jdbcTemplate.queryForList(anyString(), eq(Boolean.class), any(Object[].class))).thenReturn(List.of());
+
+        repository.dropPartition(LocalDate.of(2026, 10, 9));
+
+        verify(jdbcTemplate).execute("DROP TABLE IF EXISTS processed_messages_p20261009");
+    }
+
+    @Test
+    void interruptedConcurrentDetachIsFinalized() {
+        when(jdbcTemplate.queryForList(anyString(), eq(Boolean.class), any(Object[].class))).thenReturn(List.of(true));
+
+        repository.dropPartition(LocalDate.of(2026, 10, 9));
+
+        verify(jdbcTemplate).execute("ALTER TABLE processed_messages DETACH PARTITION processed_messages_p20261009 FINALIZE");
+        verify(jdbcTemplate).execute("DROP TABLE IF EXISTS processed_messages_p20261009");
+    }
+
+    @Test
+    void rowHasOneTabSeparatedFieldPerColumnAndNullMarkers() {
+        String row = copyRow(message("msg-1", "{\"amount\":10}").build());
+
+        assertThat(row).isEqualTo(String.join("\t",
+                "msg-1", "ORDER_CREATED", "{\"amount\":10}", "\\N", "\\N", "\\N",
+                "2026-10-16T12:30:15", "\\N", "SUCCESS", "0", "\\N") + "\n");
+    }
+
+    @Test
+    void controlCharactersAndBackslashesAreEscaped() {
+        String row = copyRow(message("msg-1", "a\tb\nc\rd\\e").build());
+
+        assertThat(field(row, 2)).isEqualTo("a\\tb\\nc\\rd\\\\e");
+        assertThat(row.chars().filter(c -> c == '\t').count()).isEqualTo(10);
+        assertThat(row.indexOf('\n')).isEqualTo(row.length() - 1);
+    }
+
+    @Test
+    void literalBackslashNIsNotReadAsNull() {
+        String row = copyRow(message("msg-1", "\\N").build());
+
+        assertThat(field(row, 2)).isEqualTo("\\\\N");
+    }
+
+    @Test
+    void multilineErrorMessageStaysOnOneRow() {
+        String row = copyRow(message("msg-1", "{}")
+                .status(ProcessedMessage.ProcessingStatus.FAILED)
+                .errorMessage("java.lang.IllegalStateException: boom\n\tat Handler.handle(Handler.java:42)")
+                .build());
+
+        assertThat(field(row, 10)).isEqualTo("java.lang.IllegalStateException: boom\\n\\tat Handler.handle(Handler.java:42)\n");
+        assertThat(field(row, 8)).isEqualTo("FAILED");
+    }
+
+    /**
+     * Executa os PreparedStatementCreator na conexão mock e entrega as linhas
+     * dadas ao RowCallbackHandler.
+     *
+     * @return SQL de cada statement preparado
+     */
+    private List<String> returningRows(String... messageIds) throws SQLException {
+        List<String> statements = new ArrayList<>();
+        when(connection.prepareStatement(anyString())).thenAnswer(invocation -> {
+            statements.add(invocation.getArgument(0));
+            return mock(PreparedStatement.class);
+        });
+        doAnswer(invocation -> {
+            invocation.getArgument(0, PreparedStatementCreator.class).createPreparedStatement(connection);
+            RowCallbackHandler handler = invocation.getArgument(1);
+            for (String messageId : messageIds) {
+                ResultSet resultSet = mock(ResultSet.class);
+                when(resultSet.getString(1)).thenReturn(messageId);
+                handler.processRow(resultSet);
+            }
+            return null;
+        }).when(jdbcTemplate).query(any(PreparedStatementCreator.class), any(RowCallbackHandler.class));
+        return statements;
+    }
+
+    /**
+     * Executa os ConnectionCallback na conexão mock.
+     *
+     * @return SQL de cada statement executado
+     */
+    private List<String> atomically() throws SQLException {
+        List<String> statements = new ArrayList<>();
+        Statement statement = mock(Statement.class);
+        when(connection.createStatement()).thenReturn(statement);
+        when(statement.execute(anyString())).thenAnswer(invocation -> statements.add(invocation.getArgument(0)));
+        when(jdbcTemplate.execute(any(ConnectionCallback.class))).thenAnswer(invocation ->
+                invocation.getArgument(0, ConnectionCallback.class).doInConnection(connection));
+        return statements;
+    }
+
+    private static ProcessedMessage.ProcessedMessageBuilder message(String messageId, String payload) {
+        return ProcessedMessage.builder()
+                .messageId(messageId)
+                .eventType("ORDER_CREATED")
+                .payload(payload)
+                .processedAt(PROCESSED_AT)
+                .status(ProcessedMessage.ProcessingStatus.SUCCESS)
+                .retryCount(0);
+    }
+
+    private static String copyRow(ProcessedMessage message) {
+        StringBuilder row = new StringBuilder();
+        ProcessedMessageRepositoryImpl.appendRow(row, message);
+        return row.toString();
+    }
+
+    private static String field(String row, int index) {
+        return row.split("\t", -1)[index];
+    }
+}
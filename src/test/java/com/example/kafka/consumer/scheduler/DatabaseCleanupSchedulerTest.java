@@ -0,0 +1,94 @@
+package com.example.kafka.consumer.scheduler;
+
+import com.example.kafka.consumer.repository.ProcessedMessageRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DatabaseCleanupSchedulerTest {
+
+    private static final LocalDate TODAY = LocalDate.now();
+
+    private final ProcessedMessageRepository repository = mock(ProcessedMessageRepository.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final DatabaseCleanupScheduler scheduler = new DatabaseCleanupScheduler(repository, 7, 2, 100, meterRegistry);
+
+    @Test
+    void todayAndPremadeDaysGetAPartition() {
+        when(repository.createPartition(any())).thenReturn(true);
+        doThrow(new IllegalStateException("lock timeout")).when(repository).createPartition(TODAY.plusDays(1));
+
+        scheduler.createUpcomingPartitions();
+
+        verify(repository).createPartition(TODAY);
+        verify(repository).createPartition(TODAY.plusDays(1));
+        verify(repository).createPartition(TODAY.plusDays(2));
+        verify(repository, times(3)).createPartition(any());
+        assertThat(meterRegistry.counter("db.partitions.created").count()).isEqualTo(2);
+    }
+
+    @Test
+    void onlyPartitionsPastRetentionAreDropped() {
+        LocalDate oldestKept = TODAY.minusDays(7);
+        when(repository.findPartitions()).thenReturn(List.of(
+                oldestKept.minusDays(2), oldestKept.minusDays(1), oldestKept, TODAY));
+
+        scheduler.maintainPartitions();
+
+        verify(repository).dropPartition(oldestKept.minusDays(2));
+        verify(repository).dropPartition(oldestKept.minusDays(1));
+        verify(repository, times(2)).dropPartition(any());
+        assertThat(meterRegistry.counter("db.partitions.dropped").count()).isEqualTo(2);
+    }
+
+    @Test
+    void defaultPartitionDaysAreMovedOrDeleted() {
+        LocalDate oldestKept = TODAY.minusDays(7);
+        LocalDate kept = TODAY.minusDays(1);
+        LocalDate expired = oldestKept.minusDays(1);
+        when(repository.findDefaultPartitionRows())
+                .thenReturn(Map.of(expired, 5L, kept, 10L))
+                .thenReturn(Map.of());
+
+        scheduler.maintainPartitions();
+
+        verify(repository).createPartition(kept);
+        verify(repository, never()).createPartition(expired);
+        verify(repository).deleteDefaultPartitionRowsBefore(oldestKept);
+        assertThat(meterRegistry.get("db.partitions.default.rows").gauge().value()).isZero();
+    }
+
+    @Test
+    void keysAreDeletedInBatchesUntilAShortOne() {
+        LocalDateTime cutoff = TODAY.minusDays(7).atStartOfDay();
+        when(repository.deleteKeysBefore(cutoff, 100)).thenReturn(100, 100, 40);
+
+        scheduler.maintainPartitions();
+
+        verify(repository, times(3)).deleteKeysBefore(cutoff, 100);
+        assertThat(meterRegistry.counter("db.keys.deleted").count()).isEqualTo(240);
+    }
+
+    @Test
+    void keyRetentionRunsEvenWhenPartitionMaintenanceFails() {
+        when(repository.findPartitions()).thenThrow(new IllegalStateException("connection refused"));
+
+        scheduler.maintainPartitions();
+
+        verify(repository).deleteKeysBefore(any(), anyInt());
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.kafka.consumer.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class CompactRedisMarkerStoreTest {
+
+    private static final int BUCKETS = 262144;
+
+    private final CompactRedisMarkerStore store = new CompactRedisMarkerStore(mock(RedisShards.class), BUCKETS);
+
+    @Test
+    void canonicalUuidIsItsOwnSixteenBytes() {
+        UUID uuid = UUID.fromString("123e4567-e89b-12d3-a456-426614174000");
+
+        assertThat(CompactRedisMarkerStore.binaryId(uuid.toString())).isEqualTo(ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array());
+    }
+
+    @Test
+    void otherIdsUseTheSha256Prefix() throws NoSuchAlgorithmException {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest("order-42".getBytes(StandardCharsets.UTF_8));
+
+        assertThat(CompactRedisMarkerStore.binaryId("order-42")).isEqualTo(Arrays.copyOf(digest, 16));
+    }
+
+    @Test
+    void nonCanonicalUuidSpellingDoesNotShareTheCanonicalMarker() {
+        String canonical = "123e4567-e89b-12d3-a456-426614174000";
+
+        // Mesmo UUID, outro texto: IDs distintos para a idempotência
+        assertThat(CompactRedisMarkerStore.binaryId(canonical.toUpperCase()))
+                .hasSize(16)
+                .isNotEqualTo(CompactRedisMarkerStore.binaryId(canonical));
+    }
+
+    @Test
+    void bucketComesFromTheFirstFourBytesAndFieldFromTheRest() {
+        CompactRedisMarkerStore.Marker marker = store.markerOf("00000005-0102-0304-0506-0708090a0b0c", 60);
+
+        assertThat(marker.bucket()).isEqualTo("idem:5");
+        assertThat(HexFormat.of().formatHex(marker.field())).isEqualTo("0102030405060708090a0b0c");
+        assertThat(marker.ttlSeconds()).isEqualTo(60);
+    }
+
+    @Test
+    void bucketPrefixIsReadAsUnsigned() {
+        CompactRedisMarkerStore.Marker marker = store.markerOf("ffffffff-0000-0000-0000-000000000000", 0);
+
+        assertThat(marker.bucket()).isEqualTo("idem:" + (0xFFFFFFFFL % BUCKETS));
+    }
+}
@@ -0,0 +1,284 @@
+package com.example.kafka.consumer.service;
+
+import com.example.kafka.consumer.entity.ProcessedMessage;
+import com.example.kafka.consumer.repository.ProcessedMessageRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class IdempotencyServiceTest {
+
+    private final RedisMarkers redisMarkers = mock(RedisMarkers.class);
+    private final ProcessedMessageRepository repository = mock(ProcessedMessageRepository.class);
+    private final ProcessedMessageNearCache nearCache = mock(ProcessedMessageNearCache.class);
+    private final ProcessedMessageBloomFilter bloomFilter = mock(ProcessedMessageBloomFilter.class);
+    private final PostgresBatchPersistService batchPersistService = mock(PostgresBatchPersistService.class);
+    private final PostgresAdvisoryLocks advisoryLocks = mock(PostgresAdvisoryLocks.class);
+
+    @BeforeEach
+    void setUp() {
+        when(bloomFilter.mightContain(anyString())).thenReturn(true);
+        when(batchPersistService.enqueue(any())).thenReturn(CompletableFuture.completedFuture(null));
+    }
+
+    @Test
+    void claimWritesOnlyAPendingLease() {
+        when(redisMarkers.claimAll(List.of("a"))).thenReturn(List.of(true));
+
+        assertThat(service(IdempotencyService.ClaimStore.REDIS, true).claim("a")).isEqualTo(IdempotencyService.ClaimResult.CLAIMED);
+
+        verify(redisMarkers, never()).promoteAll(anyList());
+    }
+
+    @Test
+    void existingMarkerIsADuplicate() {
+        when(redisMarkers.claimAll(List.of("a"))).thenReturn(List.of(false));
+
+        assertThat(service(IdempotencyService.ClaimStore.REDIS, true).claim("a")).isEqualTo(IdempotencyService.ClaimResult.DUPLICATE);
+
+        verify(repository, never()).findExistingMessageIds(anyCollection());
+    }
+
+    @Test
+    void idFoundInPostgresIsPromotedInsteadOfLeftPending() {
+        when(redisMarkers.claimAll(List.of("a"))).thenReturn(List.of(true));
+        when(repository.findExistingMessageIds(List.of("a"))).thenReturn(Set.of("a"));
+
+        assertThat(service(IdempotencyService.ClaimStore.REDIS, true).claim("a")).isEqualTo(IdempotencyService.ClaimResult.DUPLICATE);
+
+        verify(redisMarkers).promoteAll(List.of("a"));
+        verify(nearCache).add("a");
+    }
+
+    @Test
+    void redisErrorWithoutFallbackIsAnError() {
+        when(redisMarkers.claimAll(anyList())).thenThrow(new RedisConnectionFailureException("connection refused"));
+
+        assertThat(service(IdempotencyService.ClaimStore.REDIS, false).claim("a")).isEqualTo(IdempotencyService.ClaimResult.ERROR);
+    }
+
+    @Test
+    void markAsProcessedPromotesThePendingLease() {
+        service(IdempotencyService.ClaimStore.REDIS, true).markAsProcessed(message("a"));
+
+        verify(redisMarkers).promoteAll(List.of("a"));
+        verify(nearCache).add("a");
+        verify(batchPersistService).enqueue(any(ProcessedMessage.class));
+    }
+
+    @Test
+    void releaseDropsOnlyThePendingLease() {
+        service(IdempotencyService.ClaimStore.REDIS, true).release("a");
+
+        verify(redisMarkers).release("a");
+        verify(repository, never()).deleteKeys(anyCollection());
+    }
+
+    @Test
+    void claimAllWritesPendingLeasesInOneCall() {
+        when(redisMarkers.claimAll(List.of("a", "b"))).thenReturn(List.of(true, false));
+
+        Map<String, IdempotencyService.ClaimResult> claims = service(IdempotencyService.ClaimStore.REDIS, false).claimAll(List.of("a", "b", "a"));
+
+        assertThat(claims).containsExactly(
+                Map.entry("a", IdempotencyService.ClaimResult.CLAIMED),
+                Map.entry("b", IdempotencyService.ClaimResult.DUPLICATE));
+        verify(redisMarkers, times(1)).claimAll(anyList());
+    }
+
+    @Test
+    void claimAllPromotesIdsFoundInPostgres() {
+        when(redisMarkers.claimAll(List.of("a", "b"))).thenReturn(List.of(true, true));
+        when(repository.findExistingMessageIds(List.of("a", "b"))).thenReturn(Set.of("a"));
+
+        Map<String, IdempotencyService.ClaimResult> claims = service(IdempotencyService.ClaimStore.REDIS, true).claimAll(List.of("a", "b"));
+
+        assertThat(claims).containsExactly(
+                Map.entry("a", IdempotencyService.ClaimResult.DUPLICATE),
+                Map.entry("b", IdempotencyService.ClaimResult.CLAIMED));
+        verify(redisMarkers).promoteAll(List.of("a"));
+        verify(repository, times(1)).findExistingMessageIds(anyCollection());
+    }
+
+    @Test
+    void promotionFailureStillReportsTheDuplicate() {
+        when(redisMarkers.claimAll(List.of("b"))).thenReturn(List.of(true));
+        when(repository.findExistingMessageIds(List.of("b"))).thenReturn(Set.of("b"));
+        doThrow(new IllegalStateException("connection reset")).when(redisMarkers).promoteAll(anyList());
+
+        assertThat(service(IdempotencyService.ClaimStore.REDIS, true).claimAll(List.of("b")))
+                .containsEntry("b", IdempotencyService.ClaimResult.DUPLICATE);
+    }
+
+    @Test
+    void claimAllWithRedisDownAndNoFallbackIsAnError() {
+        when(redisMarkers.claimAll(anyList())).thenThrow(new RedisConnectionFailureException("connection refused"));
+
+        assertThat(service(IdempotencyService.ClaimStore.REDIS, false).claimAll(List.of("a", "b")))
+                .containsOnlyKeys("a", "b")
+                .allSatisfy((id, claim) -> assertThat(claim).isEqualTo(IdempotencyService.ClaimResult.ERROR));
+    }
+
+    @Test
+    void nearCacheHitSkipsRedis() {
+        when(nearCache.contains("a")).thenReturn(true);
+
+        assertThat(service(IdempotencyService.ClaimStore.REDIS, true).claim("a")).isEqualTo(IdempotencyService.ClaimResult.DUPLICATE);
+        assertThat(service(IdempotencyService.ClaimStore.REDIS, true).claimAll(List.of("a")))
+                .containsExactly(Map.entry("a", IdempotencyService.ClaimResult.DUPLICATE));
+
+        verify(redisMarkers, never()).claimAll(anyList());
+    }
+
+    @Test
+    void bloomFilterNegativeSkipsPostgres() {
+        when(redisMarkers.claimAll(List.of("a"))).thenReturn(List.of(true));
+        when(bloomFilter.mightContain("a")).thenReturn(false);
+
+        assertThat(service(IdempotencyService.ClaimStore.REDIS, true).claim("a")).isEqualTo(IdempotencyService.ClaimResult.CLAIMED);
+
+        verify(repository, never()).findExistingMessageIds(anyCollection());
+    }
+
+    @Test
+    void redisErrorFallsBackToAdvisoryLocks() throws Exception {
+        when(redisMarkers.claimAll(anyList())).thenThrow(new RedisConnectionFailureException("connection refused"));
+        when(advisoryLocks.tryLockAll(List.of("a", "b", "c"))).thenReturn(Set.of("a", "b"));
+        when(repository.findExistingMessageIds(Set.of("a", "b"))).thenReturn(Set.of("b"));
+
+        Map<String, IdempotencyService.ClaimResult> claims = service(IdempotencyService.ClaimStore.REDIS, true).claimAll(List.of("a", "b", "c"));
+
+        assertThat(claims).containsExactly(
+                Map.entry("a", IdempotencyService.ClaimResult.CLAIMED),
+                Map.entry("b", IdempotencyService.ClaimResult.DUPLICATE),
+                Map.entry("c", IdempotencyService.ClaimResult.DUPLICATE));
+        verify(advisoryLocks).unlockAll(List.of("b"));
+    }
+
+    @Test
+    void openCircuitClaimsInPostgresWithoutTheBloomFilter() throws Exception {
+        when(redisMarkers.claimAll(anyList())).thenThrow(new RedisCircuitBreaker.CircuitOpenException());
+        when(bloomFilter.mightContain(anyString())).thenReturn(false);
+        when(advisoryLocks.tryLockAll(List.of("a"))).thenReturn(Set.of("a"));
+        when(repository.findExistingMessageIds(Set.of("a"))).thenReturn(Set.of("a"));
+
+        assertThat(service(IdempotencyService.ClaimStore.REDIS, true).claim("a")).isEqualTo(IdempotencyService.ClaimResult.DUPLICATE);
+
+        verify(advisoryLocks).unlockAll(List.of("a"));
+    }
+
+    @Test
+    void postgresErrorAfterLockingUnlocksTheBatch() throws Exception {
+        when(redisMarkers.claimAll(anyList())).thenThrow(new RedisConnectionFailureException("connection refused"));
+        when(advisoryLocks.tryLockAll(List.of("a", "b"))).thenReturn(Set.of("a", "b"));
+        when(repository.findExistingMessageIds(Set.of("a", "b"))).thenThrow(new IllegalStateException("connection reset"));
+
+        assertThat(service(IdempotencyService.ClaimStore.REDIS, true).claimAll(List.of("a", "b")))
+                .containsOnlyKeys("a", "b")
+                .allSatisfy((id, claim) -> assertThat(claim).isEqualTo(IdempotencyService.ClaimResult.ERROR));
+
+        verify(advisoryLocks).unlockAll(Set.of("a", "b"));
+    }
+
+    @Test
+    void advisoryLockIsKeptUntilTheRowIsDurable() {
+        CompletableFuture<Void> durable = new CompletableFuture<>();
+        when(batchPersistService.enqueue(any())).thenReturn(durable);
+        when(advisoryLocks.isHeld("a")).thenReturn(true);
+
+        service(IdempotencyService.ClaimStore.REDIS, true).markAsProcessed(message("a"));
+
+        verify(advisoryLocks, never()).unlock("a");
+        durable.complete(null);
+        verify(advisoryLocks).unlock("a");
+    }
+
+    @Test
+    void releaseOfALostAdvisoryLockDoesNotTouchRedis() {
+        when(advisoryLocks.isLost("a")).thenReturn(true);
+
+        service(IdempotencyService.ClaimStore.REDIS, true).release("a");
+
+        verify(advisoryLocks).unlock("a");
+        verify(redisMarkers, never()).release(anyString());
+    }
+
+    @Test
+    void postgresClaimStoreInsertsTheBatchKeysWithOneInsert() {
+        when(repository.insertKeys(anyList())).thenReturn(Set.of("a"));
+
+        Map<String, IdempotencyService.ClaimResult> claims = service(IdempotencyService.ClaimStore.POSTGRES, true)
+                .claimAll(List.of("a", "b", "a"));
+
+        assertThat(claims).containsExactly(
+                Map.entry("a", IdempotencyService.ClaimResult.CLAIMED),
+                Map.entry("b", IdempotencyService.ClaimResult.DUPLICATE));
+        verify(repository, times(1)).insertKeys(anyList());
+        verify(redisMarkers, never()).claimAll(anyList());
+    }
+
+    @Test
+    void postgresClaimStoreErrorFailsTheBatch() {
+        when(repository.insertKeys(anyList())).thenThrow(new IllegalStateException("connection refused"));
+
+        assertThat(service(IdempotencyService.ClaimStore.POSTGRES, true).claimAll(List.of("a")))
+                .containsEntry("a", IdempotencyService.ClaimResult.ERROR);
+    }
+
+    @Test
+    void postgresClaimStoreCorrectsOnlyAFailedKeyAndWritesTheAudit() {
+        IdempotencyService service = service(IdempotencyService.ClaimStore.POSTGRES, true);
+        ProcessedMessage failed = message("b");
+        failed.setStatus(ProcessedMessage.ProcessingStatus.FAILED);
+        failed.setErrorMessage("boom");
+
+        assertThat(service.markAsProcessed(message("a"))).isCompleted();
+        assertThat(service.markAsProcessed(failed)).isCompleted();
+
+        verify(repository).updateKeyStatus("b", ProcessedMessage.ProcessingStatus.FAILED);
+        verify(repository, never()).updateKeyStatus(eq("a"), any());
+        verify(batchPersistService, times(2)).enqueue(any(ProcessedMessage.class));
+        verify(redisMarkers, never()).promoteAll(anyList());
+    }
+
+    @Test
+    void postgresClaimStoreReleaseDeletesTheClaimedKey() {
+        service(IdempotencyService.ClaimStore.POSTGRES, true).release("a");
+
+        verify(repository).deleteKeys(List.of("a"));
+        verify(redisMarkers, never()).release(anyString());
+    }
+
+    private IdempotencyService service(IdempotencyService.ClaimStore claimStore, boolean redisFallbackEnabled) {
+        return new IdempotencyService(redisMarkers, repository, nearCache, bloomFilter, batchPersistService,
+                advisoryLocks, redisFallbackEnabled, claimStore, new SimpleMeterRegistry());
+    }
+
+    private static ProcessedMessage message(String messageId) {
+        return ProcessedMessage.builder()
+                .messageId(messageId)
+                .eventType("ORDER_CREATED")
+                .payload("{}")
+                .status(ProcessedMessage.ProcessingStatus.SUCCESS)
+                .build();
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.kafka.consumer.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PostgresAdvisoryLocksTest {
+
+    private final DataSource dataSource = mock(DataSource.class);
+    private final Connection connection = mock(Connection.class);
+    private final PostgresAdvisoryLocks locks = new PostgresAdvisoryLocks(dataSource, 300_000, new SimpleMeterRegistry());
+
+    @Test
+    void droppedSessionMarksHeldLocksAsLost() throws SQLException {
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.createArrayOf(anyString(), any())).thenReturn(mock(Array.class));
+        PreparedStatement lockA = lockReturning("a");
+        when(connection.prepareStatement(anyString()))
+                .thenReturn(lockA)
+                .thenThrow(new SQLException("connection reset"));
+
+        assertThat(locks.tryLockAll(List.of("a"))).containsExactly("a");
+        assertThatThrownBy(() -> locks.tryLockAll(List.of("b"))).isInstanceOf(SQLException.class);
+
+        assertThat(locks.isHeld("a")).isFalse();
+        assertThat(locks.isLost("a")).isTrue();
+        assertThat(locks.isLost("b")).isFalse();
+        verify(connection).abort(any());
+    }
+
+    @Test
+    void unlockClearsTheLostMark() throws SQLException {
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.createArrayOf(anyString(), any())).thenReturn(mock(Array.class));
+        PreparedStatement lockA = lockReturning("a");
+        when(connection.prepareStatement(anyString()))
+                .thenReturn(lockA)
+                .thenThrow(new SQLException("connection reset"));
+
+        locks.tryLockAll(List.of("a"));
+        assertThatThrownBy(() -> locks.tryLockAll(List.of("b"))).isInstanceOf(SQLException.class);
+        locks.unlock("a");
+
+        assertThat(locks.isLost("a")).isFalse();
+    }
+
+    private static PreparedStatement lockReturning(String messageId) throws SQLException {
+        PreparedStatement statement = mock(PreparedStatement.class);
+        ResultSet resultSet = mock(ResultSet.class);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(true, false);
+        when(resultSet.getString(1)).thenReturn(messageId);
+        return statement;
+    }
+}
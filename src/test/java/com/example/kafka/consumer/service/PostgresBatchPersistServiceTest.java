@@ -0,0 +1,159 @@
+package com.example.kafka.consumer.service;
+
+import com.example.kafka.consumer.entity.ProcessedMessage;
+import com.example.kafka.consumer.repository.ProcessedMessageKey;
+import com.example.kafka.consumer.repository.ProcessedMessageRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PostgresBatchPersistServiceTest {
+
+    private static final int MAX_WRITE_ATTEMPTS = 3;
+
+    private final ProcessedMessageRepository repository = mock(ProcessedMessageRepository.class);
+    private BatchFlushStrategy flushStrategy;
+    private PostgresBatchPersistService service;
+
+    @BeforeEach
+    void setUp() {
+        flushStrategy = mock(BatchFlushStrategy.class);
+        service = service(IdempotencyService.ClaimStore.POSTGRES);
+    }
+
+    @Test
+    void redisClaimStoreWritesAuditOnlyForNewKeys() {
+        service = service(IdempotencyService.ClaimStore.REDIS);
+        when(repository.insertKeys(anyList())).thenReturn(Set.of("new"));
+
+        CompletableFuture<Void> fresh = service.enqueue(message("new"));
+        CompletableFuture<Void> duplicate = service.enqueue(message("old"));
+        service.flushBatch();
+
+        verify(repository).insertKeys(List.of(
+                new ProcessedMessageKey("new", ProcessedMessage.ProcessingStatus.SUCCESS, null),
+                new ProcessedMessageKey("old", ProcessedMessage.ProcessingStatus.SUCCESS, null)));
+        verify(flushStrategy).flush(argThat(messages -> messages.size() == 1
+                && messages.get(0).getMessageId().equals("new")));
+        assertThat(fresh).isCompleted().isNotCompletedExceptionally();
+        assertThat(duplicate).isCompleted().isNotCompletedExceptionally();
+    }
+
+    @Test
+    void postgresClaimStoreWritesOnlyTheAudit() {
+        service.enqueue(message("a"));
+        service.enqueue(message("b"));
+        service.flushBatch();
+
+        verify(repository, never()).insertKeys(anyList());
+        verify(flushStrategy).flush(argThat(messages -> messages.size() == 2));
+    }
+
+    @Test
+    void poisonRowFailsOnlyItsOwnFutureAndReleasesItsPermit() {
+        failFlushesContaining("poison", new DataIntegrityViolationException("value too long"));
+
+        CompletableFuture<Void> good = service.enqueue(message("good"));
+        CompletableFuture<Void> poison = service.enqueue(message("poison"));
+        service.flushBatch();
+
+        assertThat(good).isCompleted().isNotCompletedExceptionally();
+        assertThat(poison).isCompletedExceptionally();
+        assertThat(service.getBufferSize()).isZero();
+        assertThat(service.getAvailablePermits()).isEqualTo(100);
+    }
+
+    @Test
+    void failedBatchIsIsolatedRowByRowThroughTheFlushStrategy() {
+        failFlushesContaining("poison", new DataIntegrityViolationException("value too long"));
+
+        service.enqueue(message("good"));
+        service.enqueue(message("poison"));
+        service.flushBatch();
+
+        verify(flushStrategy).flush(List.of(message("good")));
+        verify(repository, never()).save(any(ProcessedMessage.class));
+    }
+
+    @Test
+    void transientFailureIsRetriedUntilMaxWriteAttempts() {
+        failFlushesContaining("slow", new QueryTimeoutException("statement timeout"));
+
+        CompletableFuture<Void> slow = service.enqueue(message("slow"));
+
+        for (int attempt = 1; attempt < MAX_WRITE_ATTEMPTS; attempt++) {
+            service.flushBatch();
+            assertThat(slow).isNotDone();
+            assertThat(service.getBufferSize()).isEqualTo(1);
+        }
+
+        service.flushBatch();
+        assertThat(slow).isCompletedExceptionally();
+        assertThat(service.getBufferSize()).isZero();
+        assertThat(service.getAvailablePermits()).isEqualTo(100);
+    }
+
+    @Test
+    void transientFailureThatRecoversCompletesTheFuture() {
+        boolean[] failing = {true};
+        doAnswer(invocation -> {
+            if (failing[0]) {
+                throw new QueryTimeoutException("statement timeout");
+            }
+            return null;
+        }).when(flushStrategy).flush(anyList());
+
+        CompletableFuture<Void> write = service.enqueue(message("flaky"));
+        service.flushBatch();
+        assertThat(write).isNotDone();
+
+        failing[0] = false;
+        service.flushBatch();
+        assertThat(write).isCompleted().isNotCompletedExceptionally();
+    }
+
+    private PostgresBatchPersistService service(IdempotencyService.ClaimStore claimStore) {
+        return new PostgresBatchPersistService(
+                repository,
+                flushStrategy,
+                mock(PlatformTransactionManager.class),
+                claimStore,
+                100, 10, 100, MAX_WRITE_ATTEMPTS,
+                new SimpleMeterRegistry());
+    }
+
+    private void failFlushesContaining(String messageId, RuntimeException failure) {
+        doAnswer(invocation -> {
+            List<ProcessedMessage> messages = invocation.getArgument(0);
+            if (messages.stream().anyMatch(message -> message.getMessageId().equals(messageId))) {
+                throw failure;
+            }
+            return null;
+        }).when(flushStrategy).flush(anyList());
+    }
+
+    private static ProcessedMessage message(String messageId) {
+        return ProcessedMessage.builder()
+                .messageId(messageId)
+                .eventType("ORDER_CREATED")
+                .status(ProcessedMessage.ProcessingStatus.SUCCESS)
+                .build();
+    }
+}
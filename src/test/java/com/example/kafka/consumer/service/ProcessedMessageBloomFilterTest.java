@@ -0,0 +1,102 @@
+package com.example.kafka.consumer.service;
+
+import com.example.kafka.consumer.repository.ProcessedMessageRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDateTime;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ProcessedMessageBloomFilterTest {
+
+    private static final int CAPACITY = 1000;
+
+    private ProcessedMessageRepository repository;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(ProcessedMessageRepository.class);
+        meterRegistry = new SimpleMeterRegistry();
+        when(repository.streamMessageIdsProcessedSince(any(LocalDateTime.class)))
+                .thenAnswer(invocation -> Stream.of("warm-1", "warm-2"));
+    }
+
+    @Test
+    void answersMaybeUntilWarmedUp() {
+        ProcessedMessageBloomFilter filter = filter(true);
+
+        assertThat(filter.mightContain("never-seen")).isTrue();
+    }
+
+    @Test
+    void warmUpLoadsProcessedKeys() throws InterruptedException {
+        ProcessedMessageBloomFilter filter = warmedUp();
+
+        assertThat(filter.mightContain("warm-1")).isTrue();
+        assertThat(filter.mightContain("warm-2")).isTrue();
+        assertThat(filter.mightContain("never-seen")).isFalse();
+    }
+
+    @Test
+    void rotatesAtCapacityWithoutFalseNegatives() throws InterruptedException {
+        ProcessedMessageBloomFilter filter = warmedUp();
+
+        IntStream.range(0, CAPACITY * 5).forEach(i -> filter.put("msg-" + i));
+
+        assertThat(meterRegistry.get("idempotency.bloom.generations").gauge().value()).isGreaterThanOrEqualTo(5.0);
+        IntStream.range(0, CAPACITY * 5).forEach(i ->
+                assertThat(filter.mightContain("msg-" + i)).as("msg-%d", i).isTrue());
+        assertThat(filter.mightContain("warm-1")).isTrue();
+    }
+
+    @Test
+    void falsePositiveRateStaysNearTheTarget() throws InterruptedException {
+        ProcessedMessageBloomFilter filter = warmedUp();
+        IntStream.range(0, CAPACITY).forEach(i -> filter.put("msg-" + i));
+
+        long falsePositives = IntStream.range(0, 10_000)
+                .filter(i -> filter.mightContain("other-" + i))
+                .count();
+
+        // Alvo de 1% com folga para a variação da amostra
+        assertThat(falsePositives).isLessThan(300);
+    }
+
+    @Test
+    void disabledFilterAlwaysAnswersMaybe() {
+        ProcessedMessageBloomFilter filter = filter(false);
+        filter.warmUp();
+
+        assertThat(filter.mightContain("never-seen")).isTrue();
+    }
+
+    private ProcessedMessageBloomFilter filter(boolean enabled) {
+        ProcessedMessageBloomFilter filter = new ProcessedMessageBloomFilter(repository,
+                mock(PlatformTransactionManager.class), enabled, CAPACITY, 0.01, 7, 60, 7, meterRegistry);
+        filter.registerGauges();
+        return filter;
+    }
+
+    /**
+     * O warm-up roda em uma virtual thread: espera o filtro passar a responder "nunca visto".
+     */
+    private ProcessedMessageBloomFilter warmedUp() throws InterruptedException {
+        ProcessedMessageBloomFilter filter = filter(true);
+        filter.warmUp();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (filter.mightContain("never-seen") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        return filter;
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.kafka.consumer.service;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import io.lettuce.core.api.push.PushListener;
+import io.lettuce.core.api.push.PushMessage;
+import io.lettuce.core.api.sync.RedisCommands;
+import io.lettuce.core.codec.StringCodec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ProcessedMessageNearCacheTest {
+
+    private final LettuceConnectionFactory connectionFactory = mock(LettuceConnectionFactory.class);
+    private final RedisMarkers redisMarkers = mock(RedisMarkers.class);
+    private final StatefulRedisConnection<String, String> connection = mock();
+    private final RedisAsyncCommands<String, String> async = mock();
+
+    private ProcessedMessageNearCache nearCache;
+    private PushListener pushListener;
+
+    @BeforeEach
+    void setUp() {
+        RedisClient client = mock(RedisClient.class);
+        RedisCommands<String, String> sync = mock();
+        when(connectionFactory.getRequiredNativeClient()).thenReturn(client);
+        when(client.connect(StringCodec.UTF8)).thenReturn(connection);
+        when(connection.sync()).thenReturn(sync);
+        when(connection.async()).thenReturn(async);
+        when(redisMarkers.trackingKey(any())).thenAnswer(invocation -> "idem:" + invocation.getArgument(0));
+        when(redisMarkers.messageIdOf(any())).thenAnswer(invocation -> {
+            String key = invocation.getArgument(0);
+            return key.startsWith("idem:") ? key.substring("idem:".length()) : null;
+        });
+
+        nearCache = new ProcessedMessageNearCache(connectionFactory, redisMarkers, true, 1000, 600, true,
+                new SimpleMeterRegistry());
+        nearCache.startTracking();
+
+        ArgumentCaptor<PushListener> captor = ArgumentCaptor.forClass(PushListener.class);
+        verify(connection).addListener(captor.capture());
+        pushListener = captor.getValue();
+    }
+
+    @Test
+    void addedIdIsReadOnceForServerSideTracking() {
+        nearCache.add("a");
+
+        assertThat(nearCache.contains("a")).isTrue();
+        assertThat(nearCache.contains("b")).isFalse();
+        verify(async).exists("idem:a");
+    }
+
+    @Test
+    void invalidatePushEvictsOnlyTheChangedIds() {
+        nearCache.add("a");
+        nearCache.add("b");
+
+        pushListener.onPushMessage(push("invalidate", List.of("idem:a", "other:key")));
+
+        assertThat(nearCache.contains("a")).isFalse();
+        assertThat(nearCache.contains("b")).isTrue();
+    }
+
+    @Test
+    void flushPushClearsTheCache() {
+        nearCache.add("a");
+        nearCache.add("b");
+
+        pushListener.onPushMessage(push("invalidate", null));
+
+        assertThat(nearCache.contains("a")).isFalse();
+        assertThat(nearCache.contains("b")).isFalse();
+    }
+
+    @Test
+    void otherPushMessagesAreIgnored() {
+        nearCache.add("a");
+
+        pushListener.onPushMessage(push("message", List.of("idem:a")));
+
+        assertThat(nearCache.contains("a")).isTrue();
+    }
+
+    @Test
+    void disabledCacheNeverAnswers() {
+        ProcessedMessageNearCache disabled = new ProcessedMessageNearCache(connectionFactory, redisMarkers,
+                false, 1000, 600, true, new SimpleMeterRegistry());
+
+        disabled.add("a");
+
+        assertThat(disabled.contains("a")).isFalse();
+    }
+
+    private static PushMessage push(String type, List<String> keys) {
+        PushMessage message = mock(PushMessage.class);
+        when(message.getType()).thenReturn(type);
+        when(message.getContent(any())).thenReturn(Arrays.asList(type, keys));
+        return message;
+    }
+}
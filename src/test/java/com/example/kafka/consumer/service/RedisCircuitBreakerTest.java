@@ -0,0 +1,125 @@
+package com.example.kafka.consumer.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RedisCircuitBreakerTest {
+
+    @Test
+    void staysClosedBelowMinimumCalls() {
+        RedisCircuitBreaker breaker = breaker(60_000, 0);
+
+        failTimes(breaker, 4);
+
+        assertThat(breaker.state()).isEqualTo(RedisCircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void opensOnFailureRateAndFailsFastWithoutCallingRedis() {
+        RedisCircuitBreaker breaker = breaker(60_000, 0);
+
+        failTimes(breaker, 5);
+        assertThat(breaker.state()).isEqualTo(RedisCircuitBreaker.State.OPEN);
+
+        AtomicInteger calls = new AtomicInteger();
+        assertThatThrownBy(() -> breaker.execute(calls::incrementAndGet))
+                .isInstanceOf(RedisCircuitBreaker.CircuitOpenException.class);
+        assertThat(calls).hasValue(0);
+    }
+
+    @Test
+    void failuresBelowThresholdKeepItClosed() {
+        RedisCircuitBreaker breaker = breaker(60_000, 0);
+
+        for (int i = 0; i < 10; i++) {
+            breaker.execute(() -> "ok");
+        }
+        failTimes(breaker, 4);
+
+        assertThat(breaker.state()).isEqualTo(RedisCircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void opensOnSlowCalls() {
+        RedisCircuitBreaker breaker = new RedisCircuitBreaker(true, 10, 5, 0.5, 1, 0.8, 60_000, 0, 2,
+                new SimpleMeterRegistry());
+
+        for (int i = 0; i < 5; i++) {
+            breaker.run(() -> sleep(5));
+        }
+
+        assertThat(breaker.state()).isEqualTo(RedisCircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    void goodProbesCloseTheCircuit() {
+        RedisCircuitBreaker breaker = breaker(0, 0);
+        failTimes(breaker, 5);
+
+        breaker.execute(() -> "probe");
+        assertThat(breaker.state()).isEqualTo(RedisCircuitBreaker.State.HALF_OPEN);
+
+        breaker.execute(() -> "probe");
+        assertThat(breaker.state()).isEqualTo(RedisCircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void failedProbeReopensTheCircuit() {
+        RedisCircuitBreaker breaker = breaker(0, 0);
+        failTimes(breaker, 5);
+
+        failTimes(breaker, 1);
+
+        assertThat(breaker.state()).isEqualTo(RedisCircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    void onlyOneProbeAtATimeWhileHalfOpen() {
+        RedisCircuitBreaker breaker = breaker(0, 0);
+        failTimes(breaker, 5);
+
+        breaker.run(() -> assertThatThrownBy(() -> breaker.execute(() -> "concurrent"))
+                .isInstanceOf(RedisCircuitBreaker.CircuitOpenException.class));
+
+        assertThat(breaker.state()).isEqualTo(RedisCircuitBreaker.State.HALF_OPEN);
+    }
+
+    @Test
+    void disabledBreakerNeverOpens() {
+        RedisCircuitBreaker breaker = new RedisCircuitBreaker(false, 10, 5, 0.5, 500, 0.8, 60_000, 0, 2,
+                new SimpleMeterRegistry());
+
+        failTimes(breaker, 20);
+
+        assertThat(breaker.state()).isEqualTo(RedisCircuitBreaker.State.CLOSED);
+    }
+
+    /**
+     * Janela de 10, mínimo de 5 chamadas, 50% de erros, 2 sondas para fechar.
+     */
+    private static RedisCircuitBreaker breaker(long openDurationMs, long probeIntervalMs) {
+        return new RedisCircuitBreaker(true, 10, 5, 0.5, 500, 0.8, openDurationMs, probeIntervalMs, 2,
+                new SimpleMeterRegistry());
+    }
+
+    private static void failTimes(RedisCircuitBreaker breaker, int times) {
+        for (int i = 0; i < times; i++) {
+            assertThatThrownBy(() -> breaker.execute(() -> {
+                throw new IllegalStateException("Redis down");
+            })).isInstanceOf(IllegalStateException.class);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
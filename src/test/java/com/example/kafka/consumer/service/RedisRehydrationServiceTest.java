@@ -0,0 +1,133 @@
+package com.example.kafka.consumer.service;
+
+import com.example.kafka.consumer.entity.ProcessedMessage;
+import com.example.kafka.consumer.repository.ProcessedMessageKey;
+import com.example.kafka.consumer.repository.ProcessedMessageRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RedisRehydrationServiceTest {
+
+    private static final String CHECKPOINT_KEY = "idempotency-rehydration:checkpoint";
+    private static final long TTL_SECONDS = 3600;
+
+    private final RedisTemplate<String, String> redisTemplate = mock();
+    private final ValueOperations<String, String> values = mock();
+    private final RedisMarkers redisMarkers = mock(RedisMarkers.class);
+    private final ProcessedMessageRepository repository = mock(ProcessedMessageRepository.class);
+    private final RedisRehydrationService service = new RedisRehydrationService(redisTemplate, redisMarkers,
+            repository, true, 2, TTL_SECONDS, new SimpleMeterRegistry());
+
+    @BeforeEach
+    void setUp() {
+        when(redisTemplate.opsForValue()).thenReturn(values);
+        when(repository.findKeysAfter(any(), anyString(), anyInt())).thenReturn(List.of());
+    }
+
+    @Test
+    void pagesAreRestoredWithTheRemainingTtlAndCheckpointed() throws InterruptedException {
+        LocalDateTime now = LocalDateTime.now();
+        ProcessedMessageKey recent = key("a", now.minusMinutes(10));
+        ProcessedMessageKey old = key("b", now.minusHours(2));
+        ProcessedMessageKey last = key("c", now.minusMinutes(5));
+        when(repository.findKeysAfter(any(), eq(""), eq(2))).thenReturn(List.of(old, recent));
+        when(repository.findKeysAfter(recent.processedAt(), "a", 2)).thenReturn(List.of(last));
+
+        assertThat(service.start()).isTrue();
+        awaitFinished();
+
+        ArgumentCaptor<Map<String, Long>> pages = ArgumentCaptor.captor();
+        verify(redisMarkers, times(2)).restoreAll(pages.capture());
+        assertThat(pages.getAllValues().get(0)).containsOnlyKeys("a");
+        assertThat(pages.getAllValues().get(0).get("a")).isBetween(TTL_SECONDS - 601, TTL_SECONDS - 599);
+        assertThat(pages.getAllValues().get(1)).containsOnlyKeys("c");
+        assertThat(pages.getAllValues().get(1).get("c")).isBetween(TTL_SECONDS - 301, TTL_SECONDS - 299);
+        verify(values).set(CHECKPOINT_KEY, recent.processedAt() + "|a", Duration.ofSeconds(TTL_SECONDS));
+        verify(values).set(CHECKPOINT_KEY, last.processedAt() + "|c", Duration.ofSeconds(TTL_SECONDS));
+        verify(redisTemplate).delete(CHECKPOINT_KEY);
+        assertThat(service.status())
+                .containsEntry("state", RedisRehydrationService.State.COMPLETED)
+                .containsEntry("restored", 2L)
+                .containsEntry("expired", 1L);
+    }
+
+    @Test
+    void restartResumesFromTheCheckpointEvenWithSeparatorInTheId() throws InterruptedException {
+        LocalDateTime processedAt = LocalDateTime.now().minusMinutes(30);
+        when(values.get(CHECKPOINT_KEY)).thenReturn(processedAt + "|order|42");
+
+        service.start();
+        awaitFinished();
+
+        verify(repository).findKeysAfter(processedAt, "order|42", 2);
+    }
+
+    @Test
+    void checkpointOlderThanTheWindowIsIgnored() throws InterruptedException {
+        when(values.get(CHECKPOINT_KEY)).thenReturn(LocalDateTime.now().minusHours(2) + "|a");
+
+        service.start();
+        awaitFinished();
+
+        verify(repository).findKeysAfter(any(), eq(""), eq(2));
+    }
+
+    @Test
+    void failureKeepsTheCheckpointForTheNextRun() throws InterruptedException {
+        when(repository.findKeysAfter(any(), anyString(), anyInt()))
+                .thenReturn(List.of(key("a", LocalDateTime.now().minusMinutes(1))));
+        doThrow(new IllegalStateException("connection reset")).when(redisMarkers).restoreAll(anyMap());
+
+        service.start();
+        awaitFinished();
+
+        assertThat(service.status())
+                .containsEntry("state", RedisRehydrationService.State.FAILED)
+                .containsEntry("lastError", "connection reset");
+        verify(redisTemplate, never()).delete(CHECKPOINT_KEY);
+    }
+
+    @Test
+    void onlyTheReplicaThatRecreatesTheSentinelStarts() {
+        when(values.setIfAbsent(eq("idempotency-rehydration:sentinel"), anyString())).thenReturn(false);
+
+        service.watchForRedisLoss();
+
+        assertThat(service.status()).containsEntry("state", RedisRehydrationService.State.IDLE);
+    }
+
+    private void awaitFinished() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (service.status().get("finishedAt") == null) {
+            assertThat(System.nanoTime()).as("rehydration finished").isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static ProcessedMessageKey key(String messageId, LocalDateTime processedAt) {
+        return new ProcessedMessageKey(messageId, ProcessedMessage.ProcessingStatus.SUCCESS, processedAt);
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.kafka.consumer.service;
+
+import com.example.kafka.consumer.config.RedisTopology;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Só o anel: as conexões dos shards são preguiçosas e nenhum Redis é contatado.
+ */
+class RedisShardsTest {
+
+    private static final List<String> KEYS = IntStream.range(0, 10_000).mapToObj(i -> "idem:msg-" + i).toList();
+
+    private final List<RedisShards> created = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        created.forEach(RedisShards::shutdown);
+    }
+
+    @Test
+    void keysWithTheSameHashTagLandOnTheSameShard() {
+        RedisShards shards = sharded("redis-a:6379", "redis-b:6379", "redis-c:6379");
+
+        for (int shard = 0; shard < 64; shard++) {
+            assertThat(node(shards, "idem:w:{" + shard + "}:493000"))
+                    .isEqualTo(node(shards, "idem:w:{" + shard + "}:p:0102"));
+        }
+    }
+
+    @Test
+    void placementDoesNotDependOnTheNodeOrder() {
+        Map<String, String> placement = placement(sharded("redis-a:6379", "redis-b:6379", "redis-c:6379"));
+
+        assertThat(placement(sharded("redis-c:6379", "redis-a:6379", "redis-b:6379"))).isEqualTo(placement);
+    }
+
+    @Test
+    void keysAreSpreadAcrossTheShards() {
+        Map<String, Long> perNode = placement(sharded("redis-a:6379", "redis-b:6379", "redis-c:6379"))
+                .values().stream()
+                .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
+
+        assertThat(perNode).hasSize(3);
+        assertThat(perNode.values()).allSatisfy(count -> assertThat(count).isBetween(2_500L, 4_200L));
+    }
+
+    @Test
+    void addingAShardOnlyMovesKeysToTheNewShard() {
+        Map<String, String> before = placement(sharded("redis-a:6379", "redis-b:6379", "redis-c:6379"));
+        Map<String, String> after = placement(sharded("redis-a:6379", "redis-b:6379", "redis-c:6379", "redis-d:6379"));
+
+        List<String> moved = KEYS.stream().filter(key -> !before.get(key).equals(after.get(key))).toList();
+
+        assertThat(moved).allSatisfy(key -> assertThat(after.get(key)).isEqualTo("redis-d"));
+        // ~1/4 das chaves, com folga para a variação dos nós virtuais
+        assertThat(moved.size()).isBetween(1_500, 3_500);
+    }
+
+    private RedisShards sharded(String... nodes) {
+        RedisShards shards = new RedisShards(
+                mock(RedisTemplate.class),
+                mock(LettuceConnectionFactory.class),
+                LettuceClientConfiguration.defaultConfiguration(),
+                RedisTopology.SHARDED,
+                List.of(nodes),
+                160,
+                null,
+                new SimpleMeterRegistry());
+        created.add(shards);
+        return shards;
+    }
+
+    private static Map<String, String> placement(RedisShards shards) {
+        return KEYS.stream().collect(Collectors.toMap(Function.identity(), key -> node(shards, key)));
+    }
+
+    private static String node(RedisShards shards, String key) {
+        return ((LettuceConnectionFactory) shards.templateFor(key).getRequiredConnectionFactory()).getHostName();
+    }
+}
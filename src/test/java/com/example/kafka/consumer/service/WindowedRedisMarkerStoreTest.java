@@ -0,0 +1,36 @@
+package com.example.kafka.consumer.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class WindowedRedisMarkerStoreTest {
+
+    private static final int SHARDS = 64;
+
+    private final WindowedRedisMarkerStore store = new WindowedRedisMarkerStore(mock(RedisShards.class), 3600, SHARDS, 86400);
+
+    @Test
+    void shardComesFromTheFirstFourBytesAsUnsigned() {
+        assertThat(store.entryOf("00000005-0102-0304-0506-0708090a0b0c").shard()).isEqualTo(5);
+        assertThat(store.entryOf("ffffffff-0000-0000-0000-000000000000").shard())
+                .isEqualTo((int) (0xFFFFFFFFL % SHARDS));
+    }
+
+    @Test
+    void memberIsTheFullBinaryId() {
+        String messageId = "order-42";
+
+        assertThat(store.entryOf(messageId).id()).isEqualTo(CompactRedisMarkerStore.binaryId(messageId));
+    }
+
+    @Test
+    void bucketAndPendingKeysShareTheShardHashTag() {
+        WindowedRedisMarkerStore.Entry entry = store.entryOf("00000005-0102-0304-0506-0708090a0b0c");
+
+        assertThat(WindowedRedisMarkerStore.keyOf(entry.shard(), 493_000)).isEqualTo("idem:w:{5}:493000");
+        assertThat(WindowedRedisMarkerStore.pendingKeyOf(entry))
+                .isEqualTo("idem:w:{5}:p:000000050102030405060708090a0b0c");
+    }
+}